@@ -0,0 +1,131 @@
+/*
+ * AnnotationLookupBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.AnnotationInfo;
+import com.bcgdv.play.jwt.model.RoutePolicy;
+import com.bcgdv.play.jwt.util.JwtAnnotationHelper;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route security lookups by the scanning helper and by the precomputed index, for controllers with 10 to
+ * 10,000 annotated methods. Controllers are generated and compiled at setup, the looked up method is the
+ * last one so the helper's linear scan sees every method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationLookupBenchmark {
+
+    protected static final int METHODS_PER_CONTROLLER = 10;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int annotatedMethods;
+
+    protected AnnotationInfo annotationInfo;
+    protected RouteSecurityIndex index;
+    protected String className;
+    protected String methodName;
+
+    @Setup
+    public void setup() throws Exception {
+        Set<Method> methods = new LinkedHashSet<>();
+        for (Class<?> controller : compileControllers(annotatedMethods / METHODS_PER_CONTROLLER)) {
+            for (Method method : controller.getDeclaredMethods()) {
+                methods.add(method);
+                className = controller.getName();
+                methodName = method.getName();
+            }
+        }
+        annotationInfo = new AnnotationInfo(
+                new AnnotationInfo.Anonymous(new HashSet<>(), new HashSet<>()),
+                new AnnotationInfo.Secure(new HashSet<>(), methods));
+        index = RouteSecurityIndex.of(annotationInfo);
+    }
+
+    @Benchmark
+    public Optional<Token.Type[]> annotationHelper() {
+        if (JwtAnnotationHelper.hasAnonymousAnnotation(annotationInfo.getAnonymousAnnotationInfo(), className, methodName)) {
+            return Optional.empty();
+        }
+        return JwtAnnotationHelper.findTokenTypesForSecureAnnotation(annotationInfo.getSecure(), className, methodName);
+    }
+
+    @Benchmark
+    public RoutePolicy routeSecurityIndex() {
+        return index.lookup(className, methodName);
+    }
+
+    /**
+     * Generate and compile controllers with @Secure methods
+     *
+     * @param count number of controllers
+     * @return the loaded classes
+     * @throws IOException if sources cannot be written
+     * @throws ClassNotFoundException if compilation failed
+     */
+    protected static List<Class<?>> compileControllers(int count) throws IOException, ClassNotFoundException {
+        Path dir = Files.createTempDirectory("controllers");
+        List<String> arguments = new ArrayList<>();
+        arguments.add("-proc:none");
+        arguments.add("-classpath");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add("-d");
+        arguments.add(dir.toString());
+        for (int c = 0; c < count; c++) {
+            StringBuilder source = new StringBuilder("package controllers;\npublic class Controller").append(c).append(" {\n");
+            for (int m = 0; m < METHODS_PER_CONTROLLER; m++) {
+                source.append("    @com.bcgdv.play.jwt.Secure({com.bcgdv.jwt.models.Token.Type.SERVER})\n")
+                        .append("    public void method").append(m).append("() {}\n");
+            }
+            source.append("}\n");
+            Path file = dir.resolve("Controller" + c + ".java");
+            Files.write(file, source.toString().getBytes(StandardCharsets.UTF_8));
+            arguments.add(file.toString());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null || compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("unable to compile controllers, a JDK is required");
+        }
+        URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()},
+                AnnotationLookupBenchmark.class.getClassLoader());
+        List<Class<?>> controllers = new ArrayList<>();
+        for (int c = 0; c < count; c++) {
+            controllers.add(loader.loadClass("controllers.Controller" + c));
+        }
+        return controllers;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * DecryptionBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.JwtUtil;
+import com.bcgdv.play.jwt.validation.TokenContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.simonmittag.cryptoutils.SimpleCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Symmetric decryption of the token secret, as tree and as streamed claims.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecryptionBenchmark {
+
+    protected SimpleCipher cipher;
+    protected String token;
+    protected JsonNode payload;
+
+    @Setup
+    public void setup() {
+        TokenFixture fixture = new TokenFixture();
+        cipher = fixture.getCipher();
+        token = fixture.token(Token.Type.SERVER);
+        payload = TokenContext.parse(token).getPayload();
+    }
+
+    @Benchmark
+    public JsonNode extractAndDecryptSecret() {
+        return JwtUtil.extractAndDecryptSecret(cipher, payload);
+    }
+
+    @Benchmark
+    public String tokenContextClaims() {
+        return TokenContext.parse(token).getTokenTypeName(cipher);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * IntegrityBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.JwtIntegrityValidationService;
+import com.bcgdv.play.jwt.validation.TokenContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import play.mvc.Http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header lookup, segment scan, payload decoding and expiry check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntegrityBenchmark {
+
+    protected JwtIntegrityValidationService service;
+    protected Http.RequestHeader request;
+
+    @Setup
+    public void setup() {
+        service = new JwtIntegrityValidationService();
+        request = TokenFixture.request(new TokenFixture().token(Token.Type.SERVER));
+    }
+
+    @Benchmark
+    public TokenContext requestHasWellFormedToken() {
+        return service.requestHasWellFormedToken(request);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * SignatureBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.validation.JwtSignatureValidationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA signature verification with a cached key, and with a key fetched from the stub Api and deserialized
+ * on every call. The refetch rate limit is switched off so every cold call fetches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DJWT_KEY_REFETCH_INTERVAL_MS=0")
+public class SignatureBenchmark {
+
+    protected PublicKeyCache publicKeyCache;
+    protected JwtSignatureValidationService service;
+    protected String token;
+
+    @Setup
+    public void setup() {
+        TokenFixture fixture = new TokenFixture();
+        publicKeyCache = new PublicKeyCache(new SecurityExecutors());
+        service = new JwtSignatureValidationService.ForServerToken(fixture.getApi(), publicKeyCache);
+        token = fixture.token(Token.Type.SERVER);
+        service.checkSignatureInContext(token, TokenFixture.CONTEXT);
+    }
+
+    @Benchmark
+    public void warmCache() {
+        service.checkSignatureInContext(token, TokenFixture.CONTEXT);
+    }
+
+    @Benchmark
+    public void coldCache() {
+        publicKeyCache.invalidate(TokenFixture.CONTEXT);
+        service.checkSignatureInContext(token, TokenFixture.CONTEXT);
+    }
+}
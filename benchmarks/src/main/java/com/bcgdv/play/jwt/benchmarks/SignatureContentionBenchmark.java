@@ -0,0 +1,95 @@
+/*
+ * SignatureContentionBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.SignatureEngines;
+import com.bcgdv.play.jwt.validation.TokenView;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of RSA signature verification at 1, 8 and 32 threads, with per thread JCA engines and with a
+ * jjwt parser per call, which looks the Signature up in the provider list every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureContentionBenchmark {
+
+    protected PublicKey key;
+    protected String token;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        TokenFixture fixture = new TokenFixture();
+        token = fixture.token(Token.Type.SERVER);
+        String encoded = fixture.getApi().get(TokenFixture.CONTEXT).findPath("key").asText();
+        key = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(encoded)));
+    }
+
+    protected boolean engines() throws GeneralSecurityException {
+        return SignatureEngines.verify("RS256", TokenView.of(token), key);
+    }
+
+    protected Object jjwt() {
+        return Jwts.parser().setSigningKey(key).parse(token);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean engines1() throws GeneralSecurityException {
+        return engines();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean engines8() throws GeneralSecurityException {
+        return engines();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean engines32() throws GeneralSecurityException {
+        return engines();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object jjwt1() {
+        return jjwt();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object jjwt8() {
+        return jjwt();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Object jjwt32() {
+        return jjwt();
+    }
+}
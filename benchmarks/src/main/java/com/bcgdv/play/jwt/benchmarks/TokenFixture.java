@@ -0,0 +1,166 @@
+/*
+ * TokenFixture
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.TokenContextStore;
+import com.bcgdv.play.jwt.util.VerifiedTokenCache;
+import com.bcgdv.play.jwt.validation.JwtPayloadValidationService;
+import com.bcgdv.play.services.Api;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.net.HttpHeaders;
+import com.simonmittag.cryptoutils.SimpleCipher;
+import com.simonmittag.cryptoutils.symmetric.CipherFactory;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import play.libs.Json;
+import play.mvc.Http;
+import play.routing.Router;
+
+import java.lang.reflect.Proxy;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Signed and encrypted tokens in the layout written by token-generation, with a stub Api serving the matching
+ * public key, so benchmarks run offline and without env configured key providers.
+ */
+public class TokenFixture {
+
+    public static final String CONTEXT = "http://fixture.local/api";
+    public static final String CONTROLLER = "controllers.FixtureController";
+    public static final String METHOD = "secured";
+
+    protected final KeyPair keyPair;
+    protected final SimpleCipher cipher;
+    protected final Api api;
+
+    /**
+     * Generate a fresh RSA keypair and use the default symmetric cipher
+     */
+    public TokenFixture() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            this.keyPair = generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.cipher = CipherFactory.getInstance();
+        this.api = stubApi(Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+    }
+
+    /**
+     * Create a signed token
+     *
+     * @param type the token type
+     * @return the raw token
+     */
+    public String token(Token.Type type) {
+        ObjectNode assertions = Json.newObject();
+        assertions.put("customerId", "42");
+        assertions.putArray("roles").add("admin").add("user");
+        ObjectNode secret = Json.newObject();
+        secret.put(Token.Fields.tokenType.toString(), type.toString());
+        secret.put(Token.Fields.context.toString(), CONTEXT);
+        secret.set(Token.Fields.assertions.toString(), assertions);
+
+        ObjectNode payload = Json.newObject();
+        payload.put(Token.Fields.dateCreated.toString(), System.currentTimeMillis());
+        payload.put(Token.Fields.expiryInMilliSeconds.toString(), 24L * 60 * 60 * 1000);
+        payload.put(Token.Fields.secret.toString(), cipher.encrypt(Json.stringify(secret)));
+
+        return Jwts.builder()
+                .setPayload(Json.stringify(payload))
+                .signWith(SignatureAlgorithm.RS256, keyPair.getPrivate())
+                .compact();
+    }
+
+    /**
+     * Create a payload validation service with its own caches, talking to the stub Api
+     *
+     * @param executors      executors for key fetches
+     * @param publicKeyCache the key cache
+     * @return the service
+     */
+    public JwtPayloadValidationService payloadValidationService(SecurityExecutors executors,
+                                                                PublicKeyCache publicKeyCache) {
+        return new JwtPayloadValidationService(api, cipher, publicKeyCache, new TokenContextStore(),
+                new VerifiedTokenCache(), executors);
+    }
+
+    public SimpleCipher getCipher() {
+        return cipher;
+    }
+
+    public Api getApi() {
+        return api;
+    }
+
+    /**
+     * A request for the fixture route carrying a token
+     *
+     * @param token the raw token
+     * @return the request header
+     */
+    public static Http.RequestHeader request(String token) {
+        Map<String, String[]> headers = new HashMap<>();
+        headers.put(HttpHeaders.AUTHORIZATION, new String[]{token});
+        Map<String, String> tags = new HashMap<>();
+        tags.put(Router.Tags.ROUTE_CONTROLLER, CONTROLLER);
+        tags.put(Router.Tags.ROUTE_ACTION_METHOD, METHOD);
+        return (Http.RequestHeader) Proxy.newProxyInstance(
+                TokenFixture.class.getClassLoader(),
+                new Class<?>[]{Http.RequestHeader.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "headers":
+                            return headers;
+                        case "tags":
+                            return tags;
+                        case "uri":
+                        case "path":
+                            return "/fixture";
+                        case "method":
+                            return "GET";
+                        case "toString":
+                            return "GET /fixture";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * An Api answering every GET with the public key
+     *
+     * @param encodedKey the base64 encoded public key
+     * @return the stub
+     */
+    protected static Api stubApi(String encodedKey) {
+        ObjectNode response = Json.newObject().put("key", encodedKey);
+        return (Api) Proxy.newProxyInstance(
+                TokenFixture.class.getClassLoader(),
+                new Class<?>[]{Api.class},
+                (proxy, method, args) -> {
+                    if ("get".equals(method.getName())) {
+                        return response;
+                    }
+                    if ("toString".equals(method.getName())) {
+                        return "stub Api";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * ValidatorBenchmark
+ */
+package com.bcgdv.play.jwt.benchmarks;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.validation.HttpRequestValidatorJwtAuthorizationHeaderImpl;
+import com.bcgdv.play.jwt.validation.JwtIntegrityValidationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import play.mvc.Http;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full filter side validation of a request to a @Secure(SERVER) route, keys cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    protected HttpRequestValidatorJwtAuthorizationHeaderImpl validator;
+    protected Http.RequestHeader request;
+
+    @Setup
+    public void setup() {
+        TokenFixture fixture = new TokenFixture();
+        SecurityExecutors executors = new SecurityExecutors();
+        RouteSecurityIndex index = new RouteSecurityIndex.Builder()
+                .secureMethod(TokenFixture.CONTROLLER, TokenFixture.METHOD, new Token.Type[]{Token.Type.SERVER})
+                .build();
+        validator = new FixtureValidator(fixture, executors, index);
+        request = TokenFixture.request(fixture.token(Token.Type.SERVER));
+        if (validator.validate(request).isPresent()) {
+            throw new IllegalStateException("fixture token does not validate");
+        }
+    }
+
+    @Benchmark
+    public Optional<String> validate() {
+        return validator.validate(request);
+    }
+
+    /**
+     * Validator with a fixed route index instead of classpath scanning
+     */
+    protected static class FixtureValidator extends HttpRequestValidatorJwtAuthorizationHeaderImpl {
+        protected FixtureValidator(TokenFixture fixture, SecurityExecutors executors, RouteSecurityIndex index) {
+            super(new JwtIntegrityValidationService(),
+                    fixture.payloadValidationService(executors, new PublicKeyCache(executors)),
+                    null);
+            this.routeSecurityIndex = index;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.bcgdv.play.jwt;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a check of the token's assertions on a @Secure controller method. Rules are compiled once per route
+ * by AssertionRuleValidation, all rules of a method must pass. Supported forms, claims as dotted paths:
+ * <pre>
+ * &#64;AssertionRule("customerId == param:id")    claim equals a path or query parameter
+ * &#64;AssertionRule("tier == gold")              claim equals a literal
+ * &#64;AssertionRule("roles contains admin")      array claim has a literal
+ * </pre>
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(AssertionRules.class)
+public @interface AssertionRule {
+
+    /**
+     * Has the rule
+     *
+     * @return as String
+     */
+    String value();
+}
@@ -0,0 +1,21 @@
+package com.bcgdv.play.jwt;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Holds repeated @AssertionRule annotations of a method.
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AssertionRules {
+
+    /**
+     * Has the rules
+     *
+     * @return as AssertionRule[]
+     */
+    AssertionRule[] value();
+}
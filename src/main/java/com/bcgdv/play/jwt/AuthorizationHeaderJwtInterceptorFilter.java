@@ -4,7 +4,10 @@
 package com.bcgdv.play.jwt;
 
 import akka.stream.Materializer;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
 import com.bcgdv.play.jwt.validation.HttpRequestValidator;
+import com.bcgdv.play.jwt.validation.RejectReason;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import play.mvc.Filter;
@@ -18,6 +21,7 @@ import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
 import static com.bcgdv.play.jwt.util.JSONResponseHelper.forbiddenAsJSON;
+import static com.bcgdv.play.jwt.util.JSONResponseHelper.overloadedAsJSON;
 
 /**
  * Main entry point for play framework. Define this filter inside your application to intercept
@@ -39,6 +43,18 @@ public class AuthorizationHeaderJwtInterceptorFilter extends Filter {
     protected HttpRequestValidator httpRequestValidator;
 
 
+    /**
+     * has the materializer, whose dispatcher resumes asynchronous validations
+     */
+    protected Materializer materializer;
+
+
+    /**
+     * has metrics for the total time spent in validation
+     */
+    protected SecurityMetrics securityMetrics;
+
+
     /**
      * Log and error messages
      */
@@ -50,35 +66,63 @@ public class AuthorizationHeaderJwtInterceptorFilter extends Filter {
      * @param mat the materializer needed by play
      * @param httpRequestValidator the request validator
      */
-    @Inject
     public AuthorizationHeaderJwtInterceptorFilter(Materializer mat, HttpRequestValidator httpRequestValidator) {
+        this(mat, httpRequestValidator, new NoopSecurityMetrics());
+    }
+
+    /**
+     * Constructor with metrics
+     * @param mat the materializer needed by play
+     * @param httpRequestValidator the request validator
+     * @param securityMetrics records total validation time
+     */
+    @Inject
+    public AuthorizationHeaderJwtInterceptorFilter(Materializer mat,
+                                                   HttpRequestValidator httpRequestValidator,
+                                                   SecurityMetrics securityMetrics) {
         super(mat);
+        this.materializer = mat;
         this.httpRequestValidator = httpRequestValidator;
+        this.securityMetrics = securityMetrics;
     }
 
     /**
      * Filter execution chain of command
      * @param nextFilter nextFilter is what you pass into when validation passes
      * @param requestHeader the request header inc. token
-     * @return either delegates to controller or returns 403 forbidden canned response as JSON
+     * @return either delegates to controller or returns 403 forbidden canned response as JSON, with the reject
+     * reason code if JWT_RESPONSE_REASON_CODES is set, or JWT_OVERLOAD_STATUS if the validation pool is full
      */
     @Override
     public CompletionStage<Result> apply(
             Function<Http.RequestHeader, CompletionStage<Result>> nextFilter,
             Http.RequestHeader requestHeader) {
         long before = System.currentTimeMillis();
-
-        Optional<String> headerError = httpRequestValidator.validate(requestHeader);
-
-        if (headerError.isPresent()) {
-            logger.info(SECURITY_SERVICE_TIME, requestHeader.uri(), getElapsed(before));
-            return CompletableFuture.completedFuture(forbiddenAsJSON());
-        } else {
-            logger.info(SECURITY_SERVICE_TIME, requestHeader.uri(), getElapsed(before));
-            return nextFilter.apply(requestHeader).thenApply(result -> {
-                return result;
-            });
-        }
+        long start = securityMetrics.isEnabled() ? System.nanoTime() : 0L;
+
+        CompletableFuture<Optional<RejectReason>> validation =
+                httpRequestValidator.rejectReasonAsync(requestHeader).toCompletableFuture();
+
+        Function<Optional<RejectReason>, CompletionStage<Result>> next = headerError -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug(SECURITY_SERVICE_TIME, requestHeader.uri(), getElapsed(before));
+            }
+            if (securityMetrics.isEnabled()) {
+                securityMetrics.recordStage(SecurityMetrics.Stage.TOTAL, System.nanoTime() - start);
+            }
+            if (headerError.isPresent()) {
+                return CompletableFuture.completedFuture(headerError.get() == RejectReason.OVERLOADED
+                        ? overloadedAsJSON()
+                        : forbiddenAsJSON(headerError.get()));
+            } else {
+                return nextFilter.apply(requestHeader);
+            }
+        };
+
+        // validations that waited for a remote key continue on play's dispatcher, not the key fetch pool
+        return validation.isDone()
+                ? validation.thenCompose(next)
+                : validation.thenComposeAsync(next, materializer.executionContext());
     }
 
     /**
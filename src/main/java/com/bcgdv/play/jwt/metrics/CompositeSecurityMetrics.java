@@ -0,0 +1,89 @@
+/*
+ * CompositeSecurityMetrics
+ */
+package com.bcgdv.play.jwt.metrics;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.RejectReason;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Forwards to several SecurityMetrics, i.e. in-memory histograms and an adapter to a metrics library.
+ */
+public class CompositeSecurityMetrics implements SecurityMetrics {
+
+    protected final SecurityMetrics[] delegates;
+
+    /**
+     * Create with delegates
+     *
+     * @param delegates the metrics to forward to
+     */
+    public CompositeSecurityMetrics(List<SecurityMetrics> delegates) {
+        this.delegates = delegates.toArray(new SecurityMetrics[0]);
+    }
+
+    /**
+     * Create with delegates
+     *
+     * @param delegates the metrics to forward to
+     */
+    public CompositeSecurityMetrics(SecurityMetrics... delegates) {
+        this(Arrays.asList(delegates));
+    }
+
+    @Override
+    public void recordStage(Stage stage, long nanos) {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.recordStage(stage, nanos);
+        }
+    }
+
+    @Override
+    public void recordAccepted(Token.Type tokenType) {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.recordAccepted(tokenType);
+        }
+    }
+
+    @Override
+    public void recordRejected(RejectReason reason, Token.Type tokenType) {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.recordRejected(reason, tokenType);
+        }
+    }
+
+    @Override
+    public void recordKeyCacheHit() {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.recordKeyCacheHit();
+        }
+    }
+
+    @Override
+    public void recordKeyCacheMiss() {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.recordKeyCacheMiss();
+        }
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        for (SecurityMetrics delegate : delegates) {
+            delegate.registerGauge(name, gauge);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        for (SecurityMetrics delegate : delegates) {
+            if (delegate.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
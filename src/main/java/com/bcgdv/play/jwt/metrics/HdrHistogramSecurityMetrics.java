@@ -0,0 +1,223 @@
+/*
+ * HdrHistogramSecurityMetrics
+ */
+package com.bcgdv.play.jwt.metrics;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps per stage latency histograms and outcome counters in memory. Recording is lock free, histograms are
+ * merged when read. Optionally logs a summary periodically.
+ */
+@Singleton
+public class HdrHistogramSecurityMetrics implements SecurityMetrics {
+    protected static final Logger logger = LoggerFactory.getLogger(HdrHistogramSecurityMetrics.class);
+
+    /**
+     * Longer durations are recorded as this, one minute
+     */
+    protected static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    protected static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Number of token types, cached to avoid Token.Type.values() cloning on every rejection
+     */
+    protected static final int TOKEN_TYPES = Token.Type.values().length;
+
+    protected final Map<Stage, Recorder> recorders = new EnumMap<>(Stage.class);
+    protected final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+    protected final LongAdder[] accepted = adders(TOKEN_TYPES);
+    protected final LongAdder[] rejected = adders(RejectReason.values().length * TOKEN_TYPES);
+    protected final LongAdder keyCacheHits = new LongAdder();
+    protected final LongAdder keyCacheMisses = new LongAdder();
+    protected final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Create without periodic logging
+     */
+    public HdrHistogramSecurityMetrics() {
+        for (Stage stage : Stage.values()) {
+            recorders.put(stage, new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS));
+            histograms.put(stage, new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS));
+        }
+    }
+
+    /**
+     * Create and log a summary every JWT_METRICS_REPORT_INTERVAL_MS, if set
+     *
+     * @param securityExecutors has the scheduler
+     */
+    @Inject
+    public HdrHistogramSecurityMetrics(SecurityExecutors securityExecutors) {
+        this();
+        long interval = EnvironmentHelper.getLong(
+                Settings.METRICS_REPORT_INTERVAL_MS, Settings.DEFAULT_METRICS_REPORT_INTERVAL_MS);
+        if (interval > 0) {
+            securityExecutors.scheduler().scheduleWithFixedDelay(
+                    () -> logger.info(report()), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void recordStage(Stage stage, long nanos) {
+        recorders.get(stage).recordValue(Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS)));
+    }
+
+    @Override
+    public void recordAccepted(Token.Type tokenType) {
+        accepted[tokenType.ordinal()].increment();
+    }
+
+    @Override
+    public void recordRejected(RejectReason reason, Token.Type tokenType) {
+        rejected[reason.ordinal() * TOKEN_TYPES + tokenType.ordinal()].increment();
+    }
+
+    @Override
+    public void recordKeyCacheHit() {
+        keyCacheHits.increment();
+    }
+
+    @Override
+    public void recordKeyCacheMiss() {
+        keyCacheMisses.increment();
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Get all values recorded for a stage so far
+     *
+     * @param stage the stage
+     * @return a copy of the histogram, values in nanoseconds
+     */
+    public synchronized Histogram getHistogram(Stage stage) {
+        Histogram histogram = histograms.get(stage);
+        histogram.add(recorders.get(stage).getIntervalHistogram());
+        return histogram.copy();
+    }
+
+    /**
+     * Number of accepted requests
+     *
+     * @param tokenType the token type
+     * @return the count
+     */
+    public long getAcceptedCount(Token.Type tokenType) {
+        return accepted[tokenType.ordinal()].sum();
+    }
+
+    /**
+     * Number of rejected requests
+     *
+     * @param reason    the reason
+     * @param tokenType the token type
+     * @return the count
+     */
+    public long getRejectedCount(RejectReason reason, Token.Type tokenType) {
+        return rejected[reason.ordinal() * TOKEN_TYPES + tokenType.ordinal()].sum();
+    }
+
+    /**
+     * Number of public keys found in cache
+     *
+     * @return the count
+     */
+    public long getKeyCacheHitCount() {
+        return keyCacheHits.sum();
+    }
+
+    /**
+     * Number of public keys not found in cache
+     *
+     * @return the count
+     */
+    public long getKeyCacheMissCount() {
+        return keyCacheMisses.sum();
+    }
+
+    /**
+     * Read a registered gauge
+     *
+     * @param name the name
+     * @return the current value, 0 if not registered
+     */
+    public long getGauge(String name) {
+        LongSupplier gauge = gauges.get(name);
+        return gauge != null ? gauge.getAsLong() : 0;
+    }
+
+    /**
+     * Summarize percentiles in microseconds per stage, all non zero counters and gauges
+     *
+     * @return as String
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder("security filter metrics");
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            sb.append("\n  ").append(stage)
+                    .append(" count=").append(histogram.getTotalCount())
+                    .append(" p50=").append(micros(histogram.getValueAtPercentile(50)))
+                    .append(" p99=").append(micros(histogram.getValueAtPercentile(99)))
+                    .append(" p999=").append(micros(histogram.getValueAtPercentile(99.9)))
+                    .append(" max=").append(micros(histogram.getMaxValue()))
+                    .append("us");
+        }
+        for (Token.Type type : Token.Type.values()) {
+            if (getAcceptedCount(type) > 0) {
+                sb.append("\n  accepted ").append(type).append('=').append(getAcceptedCount(type));
+            }
+        }
+        for (RejectReason reason : RejectReason.values()) {
+            for (Token.Type type : Token.Type.values()) {
+                if (getRejectedCount(reason, type) > 0) {
+                    sb.append("\n  rejected ").append(reason.getCode()).append(' ').append(type)
+                            .append('=').append(getRejectedCount(reason, type));
+                }
+            }
+        }
+        sb.append("\n  key cache hits=").append(getKeyCacheHitCount())
+                .append(" misses=").append(getKeyCacheMissCount());
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            sb.append("\n  ").append(gauge.getKey()).append('=').append(gauge.getValue().getAsLong());
+        }
+        return sb.toString();
+    }
+
+    protected static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    protected static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * NoopSecurityMetrics
+ */
+package com.bcgdv.play.jwt.metrics;
+
+import javax.inject.Singleton;
+
+/**
+ * Records nothing, the default
+ */
+@Singleton
+public class NoopSecurityMetrics extends SecurityMetricsAdapter {
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * SecurityMetrics
+ */
+package com.bcgdv.play.jwt.metrics;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import com.google.inject.ImplementedBy;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives per stage timings and outcomes of the security filter. Defaults to a no-op implementation,
+ * bind SecurityMetricsModule for in-memory histograms or your own implementation to forward elsewhere.
+ * Implementations are called on the request path and must not block.
+ */
+@ImplementedBy(NoopSecurityMetrics.class)
+public interface SecurityMetrics {
+
+    /**
+     * Timed stages of a validation
+     */
+    enum Stage {
+        HEADER_PARSING,
+        EXPIRY_CHECK,
+        DECRYPTION,
+        KEY_LOOKUP,
+        REMOTE_KEY_FETCH,
+        SIGNATURE_VERIFICATION,
+        ASSERTION_VALIDATION,
+        TOTAL
+    }
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param stage the stage
+     * @param nanos elapsed time in nanoseconds
+     */
+    void recordStage(Stage stage, long nanos);
+
+    /**
+     * Count an accepted request
+     *
+     * @param tokenType the token type
+     */
+    void recordAccepted(Token.Type tokenType);
+
+    /**
+     * Count a rejected request
+     *
+     * @param reason    why it was rejected
+     * @param tokenType the token type, NONE if not known at the time of rejection
+     */
+    void recordRejected(RejectReason reason, Token.Type tokenType);
+
+    /**
+     * Count a public key found in cache
+     */
+    void recordKeyCacheHit();
+
+    /**
+     * Count a public key not found in cache
+     */
+    void recordKeyCacheMiss();
+
+    /**
+     * Expose a value that is read when reported, i.e. a queue depth. Called once at startup.
+     *
+     * @param name  the name
+     * @param gauge reads the current value, must be cheap and thread safe
+     */
+    default void registerGauge(String name, LongSupplier gauge) {
+    }
+
+    /**
+     * Does this implementation record anything? Callers skip taking timestamps if not.
+     *
+     * @return true | false
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+}
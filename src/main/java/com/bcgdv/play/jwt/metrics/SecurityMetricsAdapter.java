@@ -0,0 +1,33 @@
+/*
+ * SecurityMetricsAdapter
+ */
+package com.bcgdv.play.jwt.metrics;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.RejectReason;
+
+/**
+ * Empty SecurityMetrics to extend when forwarding to a metrics library, override what you need.
+ */
+public abstract class SecurityMetricsAdapter implements SecurityMetrics {
+
+    @Override
+    public void recordStage(Stage stage, long nanos) {
+    }
+
+    @Override
+    public void recordAccepted(Token.Type tokenType) {
+    }
+
+    @Override
+    public void recordRejected(RejectReason reason, Token.Type tokenType) {
+    }
+
+    @Override
+    public void recordKeyCacheHit() {
+    }
+
+    @Override
+    public void recordKeyCacheMiss() {
+    }
+}
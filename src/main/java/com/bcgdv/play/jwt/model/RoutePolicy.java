@@ -0,0 +1,151 @@
+/*
+ * RoutePolicy
+ */
+package com.bcgdv.play.jwt.model;
+
+import com.bcgdv.jwt.models.Token;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Precomputed security decision for a single controller action, resolved once from @Anonymous and @Secure.
+ */
+public final class RoutePolicy {
+
+    /**
+     * The decision taken for a route
+     */
+    public enum Decision {
+        ANONYMOUS, SECURE, UNANNOTATED
+    }
+
+    /**
+     * Token types in declaration order, cached to avoid Token.Type.values() cloning on every lookup
+     */
+    protected static final Token.Type[] TOKEN_TYPES = Token.Type.values();
+
+    /**
+     * Route that does not require a token
+     */
+    public static final RoutePolicy ANONYMOUS = new RoutePolicy(Decision.ANONYMOUS, new Token.Type[0]);
+
+    /**
+     * Route that carries neither annotation. Requires a token, but no token type is accepted.
+     */
+    public static final RoutePolicy UNANNOTATED = new RoutePolicy(Decision.UNANNOTATED, new Token.Type[0]);
+
+    /**
+     * Has a decision
+     */
+    private final Decision decision;
+
+    /**
+     * Has the token types as annotated, including NONE
+     */
+    private final Token.Type[] annotatedTokens;
+
+    /**
+     * Has the accepted token types, excluding NONE
+     */
+    private final Set<Token.Type> acceptedTokens;
+
+    /**
+     * Build with decision and annotated tokens
+     *
+     * @param decision        the decision
+     * @param annotatedTokens the tokens from @Secure
+     */
+    private RoutePolicy(Decision decision, Token.Type[] annotatedTokens) {
+        this.decision = decision;
+        this.annotatedTokens = annotatedTokens;
+        EnumSet<Token.Type> accepted = EnumSet.noneOf(Token.Type.class);
+        for (Token.Type t : annotatedTokens) {
+            if (t != Token.Type.NONE) {
+                accepted.add(t);
+            }
+        }
+        this.acceptedTokens = Collections.unmodifiableSet(accepted);
+    }
+
+    /**
+     * Create a secure policy
+     *
+     * @param annotatedTokens the tokens from @Secure
+     * @return the policy
+     */
+    public static RoutePolicy secure(Token.Type[] annotatedTokens) {
+        return new RoutePolicy(Decision.SECURE, annotatedTokens.clone());
+    }
+
+    /**
+     * Get the decision
+     *
+     * @return the decision
+     */
+    public Decision getDecision() {
+        return decision;
+    }
+
+    /**
+     * Does this route allow public access?
+     *
+     * @return true | false
+     */
+    public boolean isAnonymous() {
+        return decision == Decision.ANONYMOUS;
+    }
+
+    /**
+     * Get the accepted token types
+     *
+     * @return immutable set of token types, never containing NONE
+     */
+    public Set<Token.Type> getAcceptedTokens() {
+        return acceptedTokens;
+    }
+
+    /**
+     * Get the token types as annotated
+     *
+     * @return copy of the annotated tokens
+     */
+    public Token.Type[] getAnnotatedTokens() {
+        return annotatedTokens.clone();
+    }
+
+    /**
+     * Is the token type accepted?
+     *
+     * @param tokenType the type
+     * @return true | false
+     */
+    public boolean accepts(Token.Type tokenType) {
+        return tokenType != null && acceptedTokens.contains(tokenType);
+    }
+
+    /**
+     * Is the token type accepted? Matches names ignoring case, like the annotation scan did.
+     *
+     * @param tokenType the type as String
+     * @return true | false
+     */
+    public boolean accepts(String tokenType) {
+        if (tokenType == null) {
+            return false;
+        }
+        for (Token.Type t : TOKEN_TYPES) {
+            if (t.name().equalsIgnoreCase(tokenType)) {
+                return accepts(t);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return decision + Arrays.toString(annotatedTokens);
+    }
+}
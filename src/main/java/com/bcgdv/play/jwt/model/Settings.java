@@ -0,0 +1,205 @@
+/*
+ * Settings
+ */
+package com.bcgdv.play.jwt.model;
+
+/**
+ * Security filter configuration. Each param is read from system properties first, then env variables.
+ */
+public class Settings {
+
+    /**
+     * Max number of verified tokens kept to skip signature verification and decryption. 0 disables the cache.
+     */
+    public static final String VERIFIED_TOKEN_CACHE_SIZE = "JWT_VERIFIED_TOKEN_CACHE_SIZE";
+    public static final long DEFAULT_VERIFIED_TOKEN_CACHE_SIZE = 0;
+
+    /**
+     * Upper bound for keeping a verified token, tokens that expire sooner are dropped at their own expiry.
+     */
+    public static final String VERIFIED_TOKEN_CACHE_TTL_MS = "JWT_VERIFIED_TOKEN_CACHE_TTL_MS";
+    public static final long DEFAULT_VERIFIED_TOKEN_CACHE_TTL_MS = 300000;
+
+    /**
+     * Number of threads fetching public keys from remote /pubkey endpoints, off the play dispatcher.
+     */
+    public static final String KEY_FETCH_THREADS = "JWT_KEY_FETCH_THREADS";
+    public static final int DEFAULT_KEY_FETCH_THREADS = 4;
+
+    /**
+     * Max time a request waits for a public key fetch started by a concurrent request for the same context.
+     */
+    public static final String KEY_FETCH_WAIT_MS = "JWT_KEY_FETCH_WAIT_MS";
+    public static final long DEFAULT_KEY_FETCH_WAIT_MS = 5000;
+
+    /**
+     * Min time between two remote public key fetches for the same context. Verification failures inside the
+     * window are rejected with the key already known, without calling /pubkey again.
+     */
+    public static final String KEY_REFETCH_INTERVAL_MS = "JWT_KEY_REFETCH_INTERVAL_MS";
+    public static final long DEFAULT_KEY_REFETCH_INTERVAL_MS = 10000;
+
+    /**
+     * Min time between a failed remote public key fetch and the next attempt for the same context. Requests
+     * inside the window are rejected from memory, so an unreachable /pubkey is not called once per request. 0
+     * to retry right away.
+     */
+    public static final String KEY_FAILURE_BACKOFF_MS = "JWT_KEY_FAILURE_BACKOFF_MS";
+    public static final long DEFAULT_KEY_FAILURE_BACKOFF_MS = 2000;
+
+    /**
+     * Time after which a cached public key is stale. Stale keys are still served while they are refreshed.
+     */
+    public static final String KEY_TTL_MS = "JWT_KEY_TTL_MS";
+    public static final long DEFAULT_KEY_TTL_MS = 3600000;
+
+    /**
+     * Keys are refreshed in the background this long before they turn stale.
+     */
+    public static final String KEY_REFRESH_AHEAD_MS = "JWT_KEY_REFRESH_AHEAD_MS";
+    public static final long DEFAULT_KEY_REFRESH_AHEAD_MS = 300000;
+
+    /**
+     * Stale keys are served at most this long past the ttl while refreshes fail, then tokens signed with them are
+     * rejected until the key can be fetched again. 0 to serve stale keys until a refresh succeeds.
+     */
+    public static final String KEY_MAX_STALE_MS = "JWT_KEY_MAX_STALE_MS";
+    public static final long DEFAULT_KEY_MAX_STALE_MS = 86400000;
+
+    /**
+     * Max number of contexts in the public key cache, the least recently used is evicted beyond.
+     */
+    public static final String KEY_CACHE_SIZE = "JWT_KEY_CACHE_SIZE";
+    public static final int DEFAULT_KEY_CACHE_SIZE = 1000;
+
+    /**
+     * Comma separated contexts whose public keys are fetched at startup, in parallel, before serving.
+     */
+    public static final String KEY_PRELOAD_CONTEXTS = "JWT_KEY_PRELOAD_CONTEXTS";
+
+    /**
+     * Path of a local JSON key bundle loaded at startup, as {"context": "base64 key"} or {"context": {"key": "..."}}.
+     */
+    public static final String KEY_BUNDLE_FILE = "JWT_KEY_BUNDLE_FILE";
+
+    /**
+     * Max time startup waits for preloaded keys. Contexts not loaded by then are fetched on first use.
+     */
+    public static final String KEY_PRELOAD_WAIT_MS = "JWT_KEY_PRELOAD_WAIT_MS";
+    public static final long DEFAULT_KEY_PRELOAD_WAIT_MS = 30000;
+
+    /**
+     * Path of a file the public key cache is written to periodically and reloaded from at startup. Unset disables it.
+     */
+    public static final String KEY_SNAPSHOT_FILE = "JWT_KEY_SNAPSHOT_FILE";
+
+    /**
+     * Time between two writes of the public key snapshot. Nothing is written if no key changed.
+     */
+    public static final String KEY_SNAPSHOT_INTERVAL_MS = "JWT_KEY_SNAPSHOT_INTERVAL_MS";
+    public static final long DEFAULT_KEY_SNAPSHOT_INTERVAL_MS = 60000;
+
+    /**
+     * Time between two summaries of HdrHistogramSecurityMetrics in the log. 0 disables the summary.
+     */
+    public static final String METRICS_REPORT_INTERVAL_MS = "JWT_METRICS_REPORT_INTERVAL_MS";
+    public static final long DEFAULT_METRICS_REPORT_INTERVAL_MS = 0;
+
+    /**
+     * Accepted requests are logged 1 in this many times, 0 logs none. Override per token type with a
+     * _CLIENT, _SESSION, _SERVER or _NONE suffix.
+     */
+    public static final String LOG_ACCEPT_SAMPLING = "JWT_LOG_ACCEPT_SAMPLING";
+    public static final int DEFAULT_LOG_ACCEPT_SAMPLING = 1;
+
+    /**
+     * Max rejections logged per second and reason, the rest is counted and summarized. 0 logs none.
+     */
+    public static final String LOG_REJECT_PER_SECOND = "JWT_LOG_REJECT_PER_SECOND";
+    public static final long DEFAULT_LOG_REJECT_PER_SECOND = 10;
+
+    /**
+     * Rejections logged per reason in a burst, before the rate limit applies.
+     */
+    public static final String LOG_REJECT_BURST = "JWT_LOG_REJECT_BURST";
+    public static final long DEFAULT_LOG_REJECT_BURST = 20;
+
+    /**
+     * Time between two summaries of suppressed rejection logs. 0 disables the summary.
+     */
+    public static final String LOG_SUMMARY_INTERVAL_MS = "JWT_LOG_SUMMARY_INTERVAL_MS";
+    public static final long DEFAULT_LOG_SUMMARY_INTERVAL_MS = 60000;
+
+    /**
+     * Write an audit record of every accepted and rejected request to the audit logger. Off by default.
+     */
+    public static final String AUDIT_ENABLED = "JWT_AUDIT_ENABLED";
+    public static final boolean DEFAULT_AUDIT_ENABLED = false;
+
+    /**
+     * Max audit records waiting to be written, further records are dropped and counted.
+     */
+    public static final String AUDIT_QUEUE_SIZE = "JWT_AUDIT_QUEUE_SIZE";
+    public static final int DEFAULT_AUDIT_QUEUE_SIZE = 10000;
+
+    /**
+     * Add the reject reason code, i.e. "expired" or "bad_signature", to 403 responses of the filter. Off by
+     * default, as it tells a caller why its token was refused.
+     */
+    public static final String RESPONSE_REASON_CODES = "JWT_RESPONSE_REASON_CODES";
+
+    /**
+     * Max time an AsyncAssertionValidation may take unless it declares its own timeout. The request fails beyond.
+     */
+    public static final String ASSERTION_TIMEOUT_MS = "JWT_ASSERTION_TIMEOUT_MS";
+    public static final long DEFAULT_ASSERTION_TIMEOUT_MS = 5000;
+
+    /**
+     * Path of a JSON file with assertion rules per route, as {"controllers.Customers.get": ["customerId == param:id"]}.
+     * Compiled at startup, in addition to @AssertionRule annotations.
+     */
+    public static final String ASSERTION_RULES_FILE = "JWT_ASSERTION_RULES_FILE";
+
+    /**
+     * Verify RS256, RS384 and RS512 signatures with JCA engines kept per thread instead of a new jjwt parser
+     * per request. Set to false to verify every token with jjwt.
+     */
+    public static final String SIGNATURE_ENGINES = "JWT_SIGNATURE_ENGINES";
+    public static final boolean DEFAULT_SIGNATURE_ENGINES = true;
+
+    /**
+     * Threads of a dedicated pool that validates tokens off play's dispatcher. 0 validates on the calling thread.
+     */
+    public static final String VALIDATION_THREADS = "JWT_VALIDATION_THREADS";
+    public static final int DEFAULT_VALIDATION_THREADS = 0;
+
+    /**
+     * Max requests waiting for the validation pool, further requests are refused with JWT_OVERLOAD_STATUS.
+     */
+    public static final String VALIDATION_QUEUE_SIZE = "JWT_VALIDATION_QUEUE_SIZE";
+    public static final int DEFAULT_VALIDATION_QUEUE_SIZE = 1000;
+
+    /**
+     * Response code of requests refused because the validation pool is saturated, i.e. 429. The filter fails
+     * to load if it is not a valid http status.
+     */
+    public static final String OVERLOAD_STATUS = "JWT_OVERLOAD_STATUS";
+    public static final String DEFAULT_OVERLOAD_STATUS = "503";
+
+    /**
+     * Run blocking work of the security layer, key fetches, token validation and assertion validation, on a
+     * virtual thread per task. Needs JDK 21 or later, ignored on older JDKs. JWT_VALIDATION_THREADS takes
+     * precedence for token validation. Assertion validation moves to a virtual thread unless only asynchronous
+     * validations are registered, those compose without blocking. Code on virtual threads must not rely on
+     * thread locals for reuse, signature engines are pooled for them.
+     */
+    public static final String VIRTUAL_THREADS = "JWT_VIRTUAL_THREADS";
+    public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+
+    /**
+     * Longest token accepted in the Authorization header, in characters. Longer tokens are rejected before they
+     * are scanned or decoded. 0 for no limit.
+     */
+    public static final String MAX_TOKEN_LENGTH = "JWT_MAX_TOKEN_LENGTH";
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 8192;
+}
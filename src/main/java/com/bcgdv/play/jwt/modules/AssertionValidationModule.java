@@ -4,11 +4,15 @@
 package com.bcgdv.play.jwt.modules;
 
 import com.bcgdv.play.jwt.validation.AssertionValidation;
+import com.bcgdv.play.jwt.validation.AsyncAssertionValidation;
 import com.bcgdv.play.jwt.validation.DefaultAssertionValidation;
 import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
 
 /**
- * Module config for AssertionValidation
+ * Module config for AssertionValidation. Any number of validations can be registered, they run cheapest
+ * first by AssertionValidation.getCost() until one fails. Validations that wait for a backend implement
+ * AsyncAssertionValidation instead.
  */
 public class AssertionValidationModule extends AbstractModule {
 
@@ -17,11 +21,19 @@ public class AssertionValidationModule extends AbstractModule {
      */
     @Override
     public void configure() {
+        Multibinder<AssertionValidation> assertionValidations =
+                Multibinder.newSetBinder(binder(), AssertionValidation.class);
+
         // This always passes
-        bind(AssertionValidation.class)
+        assertionValidations.addBinding()
                 .to(DefaultAssertionValidation.class);
 
-//      bind(AssertionValidation.class).to(MyAssertionValidation.class);
+//      assertionValidations.addBinding().to(MyAssertionValidation.class);
+
+        Multibinder<AsyncAssertionValidation> asyncAssertionValidations =
+                Multibinder.newSetBinder(binder(), AsyncAssertionValidation.class);
+
+//      asyncAssertionValidations.addBinding().to(MyAsyncAssertionValidation.class);
     }
 
 }
@@ -0,0 +1,24 @@
+/*
+ * SecurityMetricsModule
+ */
+package com.bcgdv.play.jwt.modules;
+
+import com.bcgdv.play.jwt.metrics.HdrHistogramSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
+import com.google.inject.AbstractModule;
+
+/**
+ * Module config for in-memory security filter metrics. Enable as Play module, or bind SecurityMetrics
+ * to your own SecurityMetricsAdapter instead.
+ */
+public class SecurityMetricsModule extends AbstractModule {
+
+    /**
+     * Configure the SecurityMetrics
+     */
+    @Override
+    public void configure() {
+        bind(SecurityMetrics.class)
+                .to(HdrHistogramSecurityMetrics.class);
+    }
+}
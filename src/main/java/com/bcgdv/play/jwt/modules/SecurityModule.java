@@ -10,13 +10,18 @@ import com.bcgdv.jwt.providers.SymmetricCipherProvider;
 import com.bcgdv.jwt.providers.TokenExpiryInfoProvider;
 import com.bcgdv.jwt.services.TokenGenerationService;
 import com.bcgdv.jwt.services.TokenGenerationServiceImpl;
+import com.bcgdv.play.jwt.validation.AssertionRuleValidation;
+import com.bcgdv.play.jwt.validation.AssertionValidation;
 import com.bcgdv.play.jwt.validation.AssertionValidator;
+import com.bcgdv.play.jwt.validation.AsyncAssertionValidation;
 import com.bcgdv.play.jwt.validation.AssertionValidatorImpl;
 import com.bcgdv.play.jwt.validation.HttpRequestValidator;
 import com.bcgdv.play.jwt.validation.HttpRequestValidatorJwtAuthorizationHeaderImpl;
+import com.bcgdv.play.jwt.validation.PublicKeyPreloader;
 import com.bcgdv.play.services.Api;
 import com.bcgdv.play.services.ApiFacade;
 import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import com.simonmittag.cryptoutils.SimpleCipher;
 import com.simonmittag.cryptoutils.symmetric.CipherFactory;
@@ -63,5 +68,15 @@ public class SecurityModule extends AbstractModule {
         // Points to default.
         bind(AssertionValidator.class)
                 .to(AssertionValidatorImpl.class);
+
+        // Declares the sets of assertion validations and checks @AssertionRule on every route.
+        Multibinder.newSetBinder(binder(), AssertionValidation.class)
+                .addBinding()
+                .to(AssertionRuleValidation.class);
+        Multibinder.newSetBinder(binder(), AsyncAssertionValidation.class);
+
+        // Loads configured public keys before the app serves requests.
+        bind(PublicKeyPreloader.class)
+                .asEagerSingleton();
     }
 }
@@ -0,0 +1,329 @@
+/*
+ * RouteSecurityProcessor
+ */
+package com.bcgdv.play.jwt.processor;
+
+import com.bcgdv.play.jwt.util.RouteSecurityRegistry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Annotation processor that writes a RouteSecurityRegistry listing every @Secure and @Anonymous controller method.
+ * Entries are also kept in a resource index so incremental builds merge with the output of earlier compiles:
+ * entries of classes that are compiled again are replaced, all others are kept.
+ * The registry is generated into the common package of the annotated classes and listed as a service, so every
+ * module of a multi module build contributes a registry of its own. Play already requires sub projects to keep
+ * controllers in packages of their own. The option -Aplay.securityfilter.registry=name overrides the name.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(RouteSecurityProcessor.REGISTRY_OPTION)
+public class RouteSecurityProcessor extends AbstractProcessor {
+
+    protected static final String SECURE = "com.bcgdv.play.jwt.Secure";
+    protected static final String ANONYMOUS = "com.bcgdv.play.jwt.Anonymous";
+    protected static final String INDEX_RESOURCE = "META-INF/play-securityfilter/route-security.index";
+    protected static final String SERVICE_RESOURCE = "META-INF/services/" + RouteSecurityRegistry.class.getName();
+    protected static final String TOKEN_TYPE = "com.bcgdv.jwt.models.Token.Type";
+    protected static final String REGISTRY_OPTION = "play.securityfilter.registry";
+    protected static final String REGISTRY_SIMPLE_NAME = "GeneratedRouteSecurityRegistry";
+
+    /**
+     * Has entries as class name -&gt; method name -&gt; entry, sorted for stable output
+     */
+    protected final Map<String, Map<String, Entry>> entries = new TreeMap<>();
+
+    /**
+     * Has the classes compiled in this run
+     */
+    protected final Set<String> compiledClasses = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Has the registry been written? Play controllers and routes are all present in the first round,
+     * writing there keeps the generated class subject to compilation without last round warnings.
+     */
+    protected boolean written;
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (written || roundEnv.processingOver() || roundEnv.getRootElements().isEmpty()) {
+            return false;
+        }
+        for (Element root : roundEnv.getRootElements()) {
+            collect(root);
+        }
+        mergePreviousIndex();
+        if (!entries.isEmpty()) {
+            write();
+        }
+        written = true;
+        return false;
+    }
+
+    /**
+     * Walk a type and its nested types, recording annotated methods
+     *
+     * @param element the type element
+     */
+    protected void collect(Element element) {
+        if (!(element instanceof TypeElement)) {
+            return;
+        }
+        String className = elements().getBinaryName((TypeElement) element).toString();
+        compiledClasses.add(className);
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.METHOD) {
+                collectMethod(className, (ExecutableElement) enclosed);
+            } else {
+                collect(enclosed);
+            }
+        }
+    }
+
+    /**
+     * Record @Secure and @Anonymous of a method
+     *
+     * @param className the binary class name
+     * @param method    the method
+     */
+    protected void collectMethod(String className, ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            String annotation = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+            if (SECURE.equals(annotation)) {
+                entry(className, method).secure = tokenTypes(mirror);
+            } else if (ANONYMOUS.equals(annotation)) {
+                entry(className, method).anonymous = true;
+            }
+        }
+    }
+
+    /**
+     * Read the enum constant names from @Secure(value)
+     *
+     * @param mirror the annotation mirror
+     * @return the token type names
+     */
+    protected List<String> tokenTypes(AnnotationMirror mirror) {
+        List<String> types = new ArrayList<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+                elements().getElementValuesWithDefaults(mirror).entrySet()) {
+            if (value.getKey().getSimpleName().contentEquals("value")) {
+                for (Object item : (List<?>) value.getValue().getValue()) {
+                    types.add(((VariableElement) ((AnnotationValue) item).getValue()).getSimpleName().toString());
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Keep entries of classes that were not compiled in this run
+     */
+    protected void mergePreviousIndex() {
+        try {
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(reader(previous))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length < 3 || "S".equals(fields[0]) && fields.length < 4
+                            || compiledClasses.contains(fields[1])) {
+                        continue;
+                    }
+                    Entry entry = entries.computeIfAbsent(fields[1], k -> new TreeMap<>())
+                            .computeIfAbsent(fields[2], k -> new Entry());
+                    if ("A".equals(fields[0])) {
+                        entry.anonymous = true;
+                    } else if ("S".equals(fields[0])) {
+                        entry.secure = new ArrayList<>();
+                        for (String type : fields[3].split(",")) {
+                            if (!type.isEmpty()) {
+                                entry.secure.add(type);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no earlier compile output, nothing to merge
+        }
+    }
+
+    /**
+     * Write the resource index, the registry source and its service entry
+     */
+    protected void write() {
+        Filer filer = processingEnv.getFiler();
+        String registry = registryClassName();
+        try {
+            FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (Writer writer = index.openWriter()) {
+                writer.write(indexContents());
+            }
+            JavaFileObject source = filer.createSourceFile(registry);
+            try (Writer writer = source.openWriter()) {
+                writer.write(sourceContents(registry));
+            }
+            FileObject service = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_RESOURCE);
+            try (Writer writer = service.openWriter()) {
+                writer.write(registry + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "unable to write route security registry, cause: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Render the resource index, one annotation per line
+     *
+     * @return as String
+     */
+    protected String indexContents() {
+        StringBuilder sb = new StringBuilder();
+        entries.forEach((className, methods) -> methods.forEach((methodName, entry) -> {
+            if (entry.secure != null) {
+                sb.append("S\t").append(className).append('\t').append(methodName).append('\t')
+                        .append(String.join(",", entry.secure)).append('\n');
+            }
+            if (entry.anonymous) {
+                sb.append("A\t").append(className).append('\t').append(methodName).append('\n');
+            }
+        }));
+        return sb.toString();
+    }
+
+    /**
+     * Name of the generated registry, from the processor option or the common package of all annotated classes
+     *
+     * @return the fully qualified name
+     */
+    protected String registryClassName() {
+        String option = processingEnv.getOptions().get(REGISTRY_OPTION);
+        if (option != null && !option.trim().isEmpty()) {
+            return option.trim();
+        }
+        String common = null;
+        for (String className : entries.keySet()) {
+            int dot = className.lastIndexOf('.');
+            String pkg = dot < 0 ? "" : className.substring(0, dot);
+            common = common == null ? pkg : commonPackage(common, pkg);
+        }
+        return common == null || common.isEmpty()
+                ? RouteSecurityRegistry.GENERATED_CLASS_NAME
+                : common + "." + REGISTRY_SIMPLE_NAME;
+    }
+
+    /**
+     * Longest package both packages are in
+     *
+     * @param a a package
+     * @param b another package
+     * @return the common package, empty if none
+     */
+    protected static String commonPackage(String a, String b) {
+        String[] left = a.split("\\.");
+        String[] right = b.split("\\.");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(left.length, right.length) && left[i].equals(right[i]); i++) {
+            sb.append(i > 0 ? "." : "").append(left[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Render the generated registry class
+     *
+     * @param qualified the fully qualified name of the class
+     * @return as String
+     */
+    protected String sourceContents(String qualified) {
+        int dot = qualified.lastIndexOf('.');
+        StringBuilder sb = new StringBuilder();
+        if (dot > 0) {
+            sb.append("package ").append(qualified, 0, dot).append(";\n\n");
+        }
+        sb.append("/**\n * Generated by ").append(getClass().getName()).append(", do not edit.\n */\n");
+        sb.append("public final class ").append(qualified.substring(dot + 1))
+                .append(" implements ").append(RouteSecurityRegistry.class.getName()).append(" {\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public void register(com.bcgdv.play.jwt.util.RouteSecurityIndex.Builder builder) {\n");
+        entries.forEach((className, methods) -> methods.forEach((methodName, entry) -> {
+            if (entry.secure != null) {
+                sb.append("        builder.secureMethod(\"").append(className).append("\", \"").append(methodName)
+                        .append("\", new ").append(TOKEN_TYPE).append("[]{");
+                for (int i = 0; i < entry.secure.size(); i++) {
+                    sb.append(i > 0 ? ", " : "").append(TOKEN_TYPE).append('.').append(entry.secure.get(i));
+                }
+                sb.append("});\n");
+            }
+            if (entry.anonymous) {
+                sb.append("        builder.anonymousMethod(\"").append(className).append("\", \"")
+                        .append(methodName).append("\");\n");
+            }
+        }));
+        sb.append("    }\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Get or create the entry of a method
+     *
+     * @param className the class
+     * @param method    the method
+     * @return the entry
+     */
+    protected Entry entry(String className, ExecutableElement method) {
+        return entries.computeIfAbsent(className, k -> new TreeMap<>())
+                .computeIfAbsent(method.getSimpleName().toString(), k -> new Entry());
+    }
+
+    protected Elements elements() {
+        return processingEnv.getElementUtils();
+    }
+
+    protected Reader reader(FileObject fileObject) throws IOException {
+        return new InputStreamReader(fileObject.openInputStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Annotations found on one method name
+     */
+    protected static final class Entry {
+        protected boolean anonymous;
+        protected List<String> secure;
+    }
+}
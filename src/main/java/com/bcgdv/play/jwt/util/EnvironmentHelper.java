@@ -0,0 +1,74 @@
+/*
+ * EnvironmentHelper
+ */
+package com.bcgdv.play.jwt.util;
+
+/**
+ * A static helper to read configuration from system properties, then env variables.
+ */
+public class EnvironmentHelper {
+
+    /**
+     * don't use me
+     */
+    protected EnvironmentHelper() {
+    }
+
+    /**
+     * Read a param as String
+     *
+     * @param name         the param name
+     * @param defaultValue returned if neither system property nor env variable is set
+     * @return as String
+     */
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Read a param as long
+     *
+     * @param name         the param name
+     * @param defaultValue returned if unset
+     * @return as long
+     * @throws IllegalArgumentException if the param is set but not a number
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("param " + name + " is not a number: " + value);
+        }
+    }
+
+    /**
+     * Read a param as int
+     *
+     * @param name         the param name
+     * @param defaultValue returned if unset
+     * @return as int
+     */
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    /**
+     * Read a param as boolean
+     *
+     * @param name         the param name
+     * @param defaultValue returned if unset
+     * @return as boolean
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
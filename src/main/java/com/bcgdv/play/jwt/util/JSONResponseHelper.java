@@ -3,27 +3,42 @@
  */
 package com.bcgdv.play.jwt.util;
 
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import play.libs.Json;
+import play.mvc.Http;
 import play.mvc.Result;
 
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import static play.mvc.Results.status;
 
 /**
- * Utility class to generate JSON default responses for downstream
+ * Utility class to generate JSON default responses for downstream. Responses are serialized once and handed
+ * out as ready, immutable Results, unless their message was changed in httpResponseCodes.
  */
 public class JSONResponseHelper {
 
 
     /**
-     * Has a map of valid response codes
+     * Has a map of valid response codes. Responses are serialized from it once at class load, a message changed
+     * later is serialized on every response with that code.
      */
     public static Map<String, String> httpResponseCodes;
 
 
+    /**
+     * Has the messages the canned responses were serialized with
+     */
+    private static final Map<String, String> cannedMessages;
+
+
     /**
      * that is statically initialized with content
      */
@@ -37,6 +52,88 @@ public class JSONResponseHelper {
         httpResponseCodes.put("404", "HTTP 404 - Resource not found");
         httpResponseCodes.put("408", "HTTP 408 - Request Timeout");
         httpResponseCodes.put("500", "HTTP 500 - Unable to process this request");
+        httpResponseCodes.put("503", "HTTP 503 - Service is overloaded, try again later");
+        cannedMessages = Collections.unmodifiableMap(new HashMap<>(httpResponseCodes));
+    }
+
+
+    /**
+     * Has a serialized response per response code
+     */
+    protected static final Map<String, Result> cannedResults;
+
+
+    /**
+     * Has a serialized 403 per reject reason, empty unless JWT_RESPONSE_REASON_CODES is set
+     */
+    protected static final Map<RejectReason, Result> forbiddenResults;
+
+
+    /**
+     * Has the response code of requests refused under overload, see JWT_OVERLOAD_STATUS
+     */
+    protected static final String overloadStatus =
+            EnvironmentHelper.get(Settings.OVERLOAD_STATUS, Settings.DEFAULT_OVERLOAD_STATUS).trim();
+
+
+    /**
+     * Has the serialized response of requests refused under overload
+     */
+    protected static final Result overloadedResult;
+
+
+    static {
+        Map<String, Result> canned = new HashMap<>();
+        for (String httpResponseCode : cannedMessages.keySet()) {
+            canned.put(httpResponseCode, cannedResult(httpResponseCode, null));
+        }
+        cannedResults = Collections.unmodifiableMap(canned);
+        forbiddenResults = forbiddenResults(EnvironmentHelper.getBoolean(Settings.RESPONSE_REASON_CODES, false));
+        overloadedResult = overloadedResult(overloadStatus);
+    }
+
+
+    /**
+     * Serialize the response of requests refused under overload. Codes without a canned message get an
+     * overload message.
+     *
+     * @param httpResponseCode the response code
+     * @return as JSON Play Result
+     * @throws IllegalArgumentException if the code is not a valid http status
+     */
+    protected static Result overloadedResult(String httpResponseCode) {
+        int status;
+        try {
+            status = Integer.parseInt(httpResponseCode);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + Settings.OVERLOAD_STATUS + " " + httpResponseCode, e);
+        }
+        if (status < 100 || status > 599) {
+            throw new IllegalArgumentException("invalid " + Settings.OVERLOAD_STATUS + " " + httpResponseCode);
+        }
+        String message = httpResponseCodes.get(httpResponseCode);
+        return cannedResult(httpResponseCode,
+                message != null ? message : "HTTP " + httpResponseCode + " - Service is overloaded, try again later", null);
+    }
+
+
+    /**
+     * Serialize a 403 per reject reason. UNKNOWN tells clients nothing and OVERLOADED is not answered with a
+     * 403, both get the plain 403.
+     *
+     * @param reasonCodes include the reason code in the body?
+     * @return the results by reason, empty without reason codes
+     */
+    protected static Map<RejectReason, Result> forbiddenResults(boolean reasonCodes) {
+        Map<RejectReason, Result> forbidden = new EnumMap<>(RejectReason.class);
+        if (reasonCodes) {
+            for (RejectReason reason : RejectReason.values()) {
+                if (reason != RejectReason.UNKNOWN && reason != RejectReason.OVERLOADED) {
+                    forbidden.put(reason, cannedResult("403", reason));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(forbidden);
     }
 
 
@@ -89,6 +186,21 @@ public class JSONResponseHelper {
     }
 
 
+    /**
+     * 403 forbidden with the code of the reject reason, if JWT_RESPONSE_REASON_CODES is set
+     *
+     * @param reason why the request was rejected
+     * @return as JSON Play Result
+     */
+    public static Result forbiddenAsJSON(RejectReason reason) {
+        Result result = forbiddenResults.get(reason);
+        if (result == null) {
+            return forbiddenAsJSON();
+        }
+        return canned("403") ? result : cannedResult("403", reason);
+    }
+
+
     /**
      * 404 not found
      *
@@ -120,15 +232,70 @@ public class JSONResponseHelper {
 
 
     /**
-     * Create a JSON object node with result and return as Play API object.
+     * 503 service unavailable, or the code set as JWT_OVERLOAD_STATUS
+     *
+     * @return as JSON Play Result
+     */
+    public static Result overloadedAsJSON() {
+        return canned(overloadStatus) ? overloadedResult : overloadedResult(overloadStatus);
+    }
+
+
+    /**
+     * Get the serialized result for a response code, or create one for codes that are not canned.
      *
      * @param httpResponseCode the response code
      * @return as JSON Play Result
      */
     protected static Result resultAsJSON(String httpResponseCode) {
+        Result result = cannedResults.get(httpResponseCode);
+        return result != null && canned(httpResponseCode) ? result : cannedResult(httpResponseCode, null);
+    }
+
+
+    /**
+     * Does the message of a response code still read as it did when responses were serialized?
+     *
+     * @param httpResponseCode the response code
+     * @return true | false
+     */
+    protected static boolean canned(String httpResponseCode) {
+        return Objects.equals(httpResponseCodes.get(httpResponseCode), cannedMessages.get(httpResponseCode));
+    }
+
+
+    /**
+     * Create a JSON object node with result, serialize it and wrap it as Play API object.
+     *
+     * @param httpResponseCode the response code
+     * @param reason           the reject reason, null for none
+     * @return as JSON Play Result
+     */
+    protected static Result cannedResult(String httpResponseCode, RejectReason reason) {
+        return cannedResult(httpResponseCode, httpResponseCodes.get(httpResponseCode), reason);
+    }
+
+
+    /**
+     * Create a JSON object node with result and message, serialize it and wrap it as Play API object.
+     *
+     * @param httpResponseCode the response code
+     * @param message          the message
+     * @param reason           the reject reason, null for none
+     * @return as JSON Play Result
+     */
+    protected static Result cannedResult(String httpResponseCode, String message, RejectReason reason) {
         ObjectNode result = Json.newObject();
         result.put("status", httpResponseCode);
-        result.put("message", httpResponseCodes.get(httpResponseCode));
-        return status(Integer.parseInt(httpResponseCode), result);
+        result.put("message", message);
+        if (reason != null) {
+            result.put("reason", reason.getCode());
+        }
+        try {
+            return status(Integer.parseInt(httpResponseCode), Json.mapper().writeValueAsBytes(result))
+                    .as(Http.MimeTypes.JSON);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
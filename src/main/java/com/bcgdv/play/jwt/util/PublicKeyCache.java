@@ -3,35 +3,248 @@
  */
 package com.bcgdv.play.jwt.util;
 
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.JwtValidationException;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.simonmittag.cryptoutils.asymmetric.KeyHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.libs.Json;
+
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
- * Public Key cache keeps a copy of service api pubkeys locally for performance reasons.
+ * Public Key cache keeps a copy of service api pubkeys locally for performance reasons. Keys are kept
+ * deserialized so verification does no X.509 decoding per request. Keys turn stale after a ttl and are
+ * refreshed in the background shortly before, stale keys keep being served until a refresh succeeds or they
+ * are stale for longer than the max stale time.
+ * Optionally the cache is written to a snapshot file and reloaded from it at startup, so a restarted node
+ * comes back with warm keys.
  */
 @Singleton
 public class PublicKeyCache {
+    protected static final Logger logger = LoggerFactory.getLogger(PublicKeyCache.class);
+
+    protected static final String SNAPSHOT_LOADED = "loaded {} public keys from snapshot {}";
+    protected static final String SNAPSHOT_LOAD_FAILED = "unable to load public key snapshot {}, cause: {}";
+    protected static final String SNAPSHOT_WRITE_FAILED = "unable to write public key snapshot {}, cause: {}";
 
     /**
      * I can haz Hashmap
      */
-    static protected Map<String, String> cache;
+    protected final ConcurrentMap<String, CachedKey> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Has remote fetches in progress by context, so concurrent misses share one fetch
+     */
+    protected final ConcurrentMap<String, CompletableFuture<PublicKey>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Has the max time to wait for a fetch started by another request
+     */
+    protected final long fetchWaitMillis;
+
+    /**
+     * Has the contexts fetched within the refetch interval. Presence means no further fetch is allowed.
+     */
+    protected final Cache<String, Boolean> recentFetches;
+
+    /**
+     * Has the contexts whose last fetch failed, for the failure backoff
+     */
+    protected final Cache<String, Boolean> recentFailures;
+
+    /**
+     * Upper bound of contexts tracked for rate limiting
+     */
+    protected static final long MAX_RATE_LIMITED_CONTEXTS = 10000;
+
+    /**
+     * Has the time after which a key is stale
+     */
+    protected final long ttlMillis;
+
+    /**
+     * Has the time before turning stale at which a key is refreshed
+     */
+    protected final long refreshAheadMillis;
+
+    /**
+     * Has the time past the ttl after which a stale key is no longer served, 0 for no limit
+     */
+    protected final long maxStaleMillis;
+
+    /**
+     * Has the max number of contexts
+     */
+    protected final int maxSize;
+
+    /**
+     * Has executors for background refresh
+     */
+    protected final SecurityExecutors securityExecutors;
+
+    /**
+     * Has metrics for lookups and remote fetches
+     */
+    protected final SecurityMetrics securityMetrics;
+
+    /**
+     * Fetches keys that were not added with a loader of their own, i.e. keys loaded from a snapshot
+     */
+    protected volatile Function<String, String> defaultRemoteFetch;
 
     /**
-     * Init with concurrent HashMap cause we're in multithreaded webserver
+     * Has the snapshot file, null if snapshots are disabled
+     */
+    protected final Path snapshotFile;
+
+    /**
+     * Has a key changed since the last snapshot?
+     */
+    protected volatile boolean modified;
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder staleHits = new LongAdder();
+    protected final LongAdder refreshes = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+    protected final LongAdder coalescedFetches = new LongAdder();
+    protected final LongAdder rateLimitedFetches = new LongAdder();
+
+    /**
+     * Init with the shared executors
      */
     public PublicKeyCache() {
-        cache = new ConcurrentHashMap<>();
+        this(SecurityExecutors.shared());
+    }
+
+    /**
+     * Init without metrics
+     *
+     * @param securityExecutors executors for background refresh
+     */
+    public PublicKeyCache(SecurityExecutors securityExecutors) {
+        this(securityExecutors, new NoopSecurityMetrics());
+    }
+
+    /**
+     * Init with concurrent HashMap cause we're in multithreaded webserver, and schedule background refresh
+     *
+     * @param securityExecutors executors for background refresh
+     * @param securityMetrics   metrics for lookups and remote fetches
+     */
+    @Inject
+    public PublicKeyCache(SecurityExecutors securityExecutors, SecurityMetrics securityMetrics) {
+        this.securityExecutors = securityExecutors;
+        this.securityMetrics = securityMetrics;
+        this.fetchWaitMillis = EnvironmentHelper.getLong(Settings.KEY_FETCH_WAIT_MS, Settings.DEFAULT_KEY_FETCH_WAIT_MS);
+        this.ttlMillis = EnvironmentHelper.getLong(Settings.KEY_TTL_MS, Settings.DEFAULT_KEY_TTL_MS);
+        this.refreshAheadMillis = Math.min(ttlMillis,
+                EnvironmentHelper.getLong(Settings.KEY_REFRESH_AHEAD_MS, Settings.DEFAULT_KEY_REFRESH_AHEAD_MS));
+        this.maxStaleMillis = EnvironmentHelper.getLong(Settings.KEY_MAX_STALE_MS, Settings.DEFAULT_KEY_MAX_STALE_MS);
+        this.maxSize = EnvironmentHelper.getInt(Settings.KEY_CACHE_SIZE, Settings.DEFAULT_KEY_CACHE_SIZE);
+        this.recentFetches = CacheBuilder.newBuilder()
+                .maximumSize(MAX_RATE_LIMITED_CONTEXTS)
+                .expireAfterWrite(
+                        EnvironmentHelper.getLong(Settings.KEY_REFETCH_INTERVAL_MS, Settings.DEFAULT_KEY_REFETCH_INTERVAL_MS),
+                        TimeUnit.MILLISECONDS)
+                .build();
+        this.recentFailures = CacheBuilder.newBuilder()
+                .maximumSize(MAX_RATE_LIMITED_CONTEXTS)
+                .expireAfterWrite(
+                        EnvironmentHelper.getLong(Settings.KEY_FAILURE_BACKOFF_MS, Settings.DEFAULT_KEY_FAILURE_BACKOFF_MS),
+                        TimeUnit.MILLISECONDS)
+                .build();
+        long sweepMillis = Math.max(1000, refreshAheadMillis / 2);
+        securityExecutors.scheduler().scheduleWithFixedDelay(
+                this::refreshExpiring, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        String snapshot = EnvironmentHelper.get(Settings.KEY_SNAPSHOT_FILE, null);
+        this.snapshotFile = snapshot == null || snapshot.trim().isEmpty() ? null : Paths.get(snapshot.trim());
+        if (snapshotFile != null) {
+            loadSnapshot();
+            long snapshotMillis = EnvironmentHelper.getLong(
+                    Settings.KEY_SNAPSHOT_INTERVAL_MS, Settings.DEFAULT_KEY_SNAPSHOT_INTERVAL_MS);
+            securityExecutors.scheduler().scheduleWithFixedDelay(
+                    () -> securityExecutors.keyFetch().execute(this::writeSnapshot),
+                    snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Set the loader used to refresh keys that were added without one
+     * @param remoteFetch fetches the base64 encoded key for a context
+     */
+    public void setDefaultRemoteFetch(Function<String, String> remoteFetch) {
+        this.defaultRemoteFetch = remoteFetch;
     }
 
     /**
      * add public key to cache
      * @param context the key context
-     * @param key the key as String
+     * @param key the key as base64 encoded String
+     * @throws IllegalArgumentException if the key cannot be deserialized
      */
     public void addKey(String context, String key) {
-        cache.put(context, key);
+        addKey(context, key, null, System.currentTimeMillis());
+    }
+
+    /**
+     * add public key to cache, remembering how to fetch it again
+     * @param context the key context
+     * @param key the key as base64 encoded String
+     * @param remoteFetch fetches the key again for background refresh
+     * @throws IllegalArgumentException if the key cannot be deserialized
+     */
+    public void addKey(String context, String key, Function<String, String> remoteFetch) {
+        addKey(context, key, remoteFetch, System.currentTimeMillis());
+    }
+
+    /**
+     * add public key to cache, remembering how to fetch it again
+     * @param context the key context
+     * @param key the key as base64 encoded String
+     * @param remoteFetch fetches the key again for background refresh, null if it cannot be refreshed
+     * @param fetchedAt when the key was fetched, in epoch millis
+     * @throws IllegalArgumentException if the key cannot be deserialized
+     */
+    protected void addKey(String context, String key, Function<String, String> remoteFetch, long fetchedAt) {
+        CachedKey previous = cache.get(context);
+        if (remoteFetch == null && previous != null) {
+            remoteFetch = previous.remoteFetch;
+        }
+        cache.put(context, new CachedKey(key, deserialize(key), remoteFetch, fetchedAt));
+        modified = true;
+        if (previous == null && cache.size() > maxSize) {
+            evictLeastRecentlyUsed();
+        }
     }
 
     /**
@@ -40,6 +253,378 @@ public class PublicKeyCache {
      * @return the key as String
      */
     public String getKey(String context) {
-        return cache.get(context);
+        CachedKey cachedKey = lookup(context);
+        return cachedKey == null ? null : cachedKey.encoded;
+    }
+
+    /**
+     * Get a deserialized public key from cache. A stale key is returned while a refresh runs in the background,
+     * up to the max stale time.
+     * @param context the key context
+     * @return the key, or null if not cached or stale for too long
+     */
+    public PublicKey getPublicKey(String context) {
+        CachedKey cachedKey = lookup(context);
+        return cachedKey == null ? null : cachedKey.publicKey;
+    }
+
+    /**
+     * Find a key, count the access and start a refresh if it is stale. A key stale for longer than the max stale
+     * time counts as a miss, it is kept for the next refresh to replace.
+     * @param context the key context
+     * @return the cached key or null
+     */
+    protected CachedKey lookup(String context) {
+        boolean timed = securityMetrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        CachedKey cachedKey = cache.get(context);
+        if (timed) {
+            securityMetrics.recordStage(SecurityMetrics.Stage.KEY_LOOKUP, System.nanoTime() - start);
+        }
+        long now = System.currentTimeMillis();
+        if (cachedKey == null || tooStale(cachedKey, now)) {
+            misses.increment();
+            securityMetrics.recordKeyCacheMiss();
+            return null;
+        }
+        cachedKey.lastAccess = now;
+        hits.increment();
+        securityMetrics.recordKeyCacheHit();
+        if (now - cachedKey.fetchedAt > ttlMillis) {
+            staleHits.increment();
+            refresh(context, cachedKey);
+        }
+        return cachedKey;
+    }
+
+    /**
+     * Has a key been stale for longer than the max stale time?
+     * @param cachedKey the key
+     * @param now the current time in epoch millis
+     * @return true | false
+     */
+    protected boolean tooStale(CachedKey cachedKey, long now) {
+        return maxStaleMillis > 0 && now - cachedKey.fetchedAt > ttlMillis + maxStaleMillis;
+    }
+
+    /**
+     * Fetch a key remotely and cache it. The first caller for a context starts the fetch on the executor,
+     * callers arriving while it is in progress get the same future. A context is fetched successfully at most
+     * once per refetch interval, later attempts inside the interval fail without a remote call. A failed fetch
+     * blocks the context only for the shorter failure backoff, so a transient error does not lock it out for
+     * the whole interval and an unreachable /pubkey is not called again by every request.
+     * @param context the key context
+     * @param remoteFetch fetches the base64 encoded key for a context
+     * @param executor runs the fetch
+     * @return completes with the deserialized key
+     */
+    public CompletableFuture<PublicKey> fetchKey(String context, Function<String, String> remoteFetch, Executor executor) {
+        return fetchKey(context, remoteFetch, executor, false);
+    }
+
+    /**
+     * Fetch a key remotely and cache it, see fetchKey
+     * @param context the key context
+     * @param remoteFetch fetches the base64 encoded key for a context
+     * @param executor runs the fetch
+     * @param refresh count the fetch as refresh if it starts
+     * @return completes with the deserialized key
+     */
+    protected CompletableFuture<PublicKey> fetchKey(String context, Function<String, String> remoteFetch, Executor executor,
+                                                    boolean refresh) {
+        CompletableFuture<PublicKey> mine = new CompletableFuture<>();
+        CompletableFuture<PublicKey> running = inFlight.putIfAbsent(context, mine);
+        if (running != null) {
+            coalescedFetches.increment();
+            return running;
+        }
+        if (recentFailures.getIfPresent(context) != null
+                || recentFetches.asMap().putIfAbsent(context, Boolean.TRUE) != null) {
+            rateLimitedFetches.increment();
+            inFlight.remove(context, mine);
+            mine.completeExceptionally(new JwtValidationException(RejectReason.KEY_UNAVAILABLE,
+                    "public key of context " + context + " was fetched recently, not fetching again"));
+            return mine;
+        }
+        if (refresh) {
+            refreshes.increment();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    long start = securityMetrics.isEnabled() ? System.nanoTime() : 0L;
+                    String key = remoteFetch.apply(context);
+                    if (securityMetrics.isEnabled()) {
+                        securityMetrics.recordStage(SecurityMetrics.Stage.REMOTE_KEY_FETCH, System.nanoTime() - start);
+                    }
+                    addKey(context, key, remoteFetch, System.currentTimeMillis());
+                    recentFailures.invalidate(context);
+                    inFlight.remove(context, mine);
+                    mine.complete(cache.get(context).publicKey);
+                } catch (Throwable e) {
+                    recentFailures.put(context, Boolean.TRUE);
+                    recentFetches.invalidate(context);
+                    inFlight.remove(context, mine);
+                    mine.completeExceptionally(e instanceof Exception && !(e instanceof JwtValidationException)
+                            ? new JwtValidationException(RejectReason.KEY_UNAVAILABLE, (Exception) e)
+                            : e);
+                }
+            });
+        } catch (RuntimeException e) {
+            recentFailures.put(context, Boolean.TRUE);
+            recentFetches.invalidate(context);
+            inFlight.remove(context, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    /**
+     * Fetch a key remotely on the calling thread, or wait a bounded time for a fetch already in progress.
+     * @param context the key context
+     * @param remoteFetch fetches the base64 encoded key for a context
+     * @return the deserialized key
+     * @throws JwtValidationException if the key cannot be fetched in time
+     */
+    public PublicKey fetchKeyAndWait(String context, Function<String, String> remoteFetch) throws JwtValidationException {
+        try {
+            return fetchKey(context, remoteFetch, Runnable::run).get(fetchWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JwtValidationException(RejectReason.KEY_UNAVAILABLE, e);
+        } catch (TimeoutException e) {
+            throw new JwtValidationException(RejectReason.KEY_UNAVAILABLE,
+                    "timed out waiting for public key of context " + context);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JwtValidationException(RejectReason.KEY_UNAVAILABLE, e);
+        }
+    }
+
+    /**
+     * Refresh a key in the background if it, or the cache, knows how to fetch it and no fetch is running
+     * @param context the key context
+     * @param cachedKey the current key
+     */
+    protected void refresh(String context, CachedKey cachedKey) {
+        Function<String, String> remoteFetch = cachedKey.remoteFetch != null ? cachedKey.remoteFetch : defaultRemoteFetch;
+        if (remoteFetch != null && !inFlight.containsKey(context)) {
+            fetchKey(context, remoteFetch, securityExecutors.keyFetch(), true);
+        }
+    }
+
+    /**
+     * Periodic sweep that refreshes keys about to turn stale, before any request sees them stale
+     */
+    protected void refreshExpiring() {
+        long refreshAfter = System.currentTimeMillis() - (ttlMillis - refreshAheadMillis);
+        for (Map.Entry<String, CachedKey> entry : cache.entrySet()) {
+            if (entry.getValue().fetchedAt <= refreshAfter) {
+                refresh(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drop the least recently used context
+     */
+    protected void evictLeastRecentlyUsed() {
+        String eldest = null;
+        long eldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<String, CachedKey> entry : cache.entrySet()) {
+            if (entry.getValue().lastAccess < eldestAccess) {
+                eldest = entry.getKey();
+                eldestAccess = entry.getValue().lastAccess;
+            }
+        }
+        if (eldest != null && cache.remove(eldest) != null) {
+            evictions.increment();
+            modified = true;
+        }
+    }
+
+    /**
+     * Drop the key of a context, the next request fetches it again
+     * @param context the key context
+     */
+    public void invalidate(String context) {
+        if (cache.remove(context) != null) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Is a key cached for the context that has not turned stale?
+     * @param context the key context
+     * @return true | false
+     */
+    public boolean containsFresh(String context) {
+        CachedKey cachedKey = cache.get(context);
+        return cachedKey != null && System.currentTimeMillis() - cachedKey.fetchedAt <= ttlMillis;
+    }
+
+    /**
+     * Load keys with their original fetch time from the snapshot file. Keys older than the ttl are stale and
+     * get refreshed on first use or by the next sweep.
+     */
+    protected void loadSnapshot() {
+        if (!Files.isReadable(snapshotFile)) {
+            return;
+        }
+        int count = 0;
+        try (InputStream in = Files.newInputStream(snapshotFile)) {
+            for (JsonNode entry : Json.parse(in).path("keys")) {
+                try {
+                    addKey(entry.path("context").asText(), entry.path("key").asText(), null,
+                            entry.path("fetchedAt").asLong());
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    logger.warn(SNAPSHOT_LOAD_FAILED, snapshotFile, e.getMessage());
+                }
+            }
+            modified = false;
+            logger.info(SNAPSHOT_LOADED, count, snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn(SNAPSHOT_LOAD_FAILED, snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Write all keys with their fetch time to the snapshot file if any key changed. The file is replaced
+     * atomically so a crash never leaves a partial snapshot.
+     */
+    protected synchronized void writeSnapshot() {
+        if (snapshotFile == null || !modified) {
+            return;
+        }
+        modified = false;
+        ObjectNode snapshot = Json.newObject();
+        ArrayNode keys = snapshot.putArray("keys");
+        for (Map.Entry<String, CachedKey> entry : cache.entrySet()) {
+            keys.addObject()
+                    .put("context", entry.getKey())
+                    .put("key", entry.getValue().encoded)
+                    .put("fetchedAt", entry.getValue().fetchedAt);
+        }
+        try {
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, snapshotFile.getFileName().toString(), ".tmp");
+            Files.write(temp, Json.stringify(snapshot).getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            modified = true;
+            logger.warn(SNAPSHOT_WRITE_FAILED, snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Number of lookups that found a key, including stale ones
+     * @return the count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups that found no key
+     * @return the count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of lookups served with a stale key
+     * @return the count
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * Number of background refreshes started, not counting those refused by the refetch interval
+     * @return the count
+     */
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Number of contexts evicted to stay within max size
+     * @return the count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Number of fetches that were served by a fetch already in progress
+     * @return the count
+     */
+    public long getCoalescedFetchCount() {
+        return coalescedFetches.sum();
+    }
+
+    /**
+     * Number of fetches refused because the context was fetched within the refetch interval
+     * @return the count
+     */
+    public long getRateLimitedFetchCount() {
+        return rateLimitedFetches.sum();
+    }
+
+    /**
+     * Max time to wait for a fetch started by another request
+     * @return the wait in millis
+     */
+    public long getFetchWaitMillis() {
+        return fetchWaitMillis;
+    }
+
+    /**
+     * Number of cached contexts
+     * @return the size
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Deserialize a base64 encoded X.509 public key
+     * @param key the key as String
+     * @return the key
+     */
+    protected PublicKey deserialize(String key) {
+        try {
+            return KeyHelper.deserializePublicKey(key);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("unable to deserialize public key, cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A key in both encoded and deserialized form, with what is needed to refresh and evict it
+     */
+    protected static final class CachedKey {
+        protected final String encoded;
+        protected final PublicKey publicKey;
+        protected final Function<String, String> remoteFetch;
+        protected final long fetchedAt;
+        protected volatile long lastAccess;
+
+        protected CachedKey(String encoded, PublicKey publicKey, Function<String, String> remoteFetch, long fetchedAt) {
+            this.encoded = encoded;
+            this.publicKey = publicKey;
+            this.remoteFetch = remoteFetch;
+            this.fetchedAt = fetchedAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * RouteSecurityIndex
+ */
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.Secure;
+import com.bcgdv.play.jwt.model.AnnotationInfo;
+import com.bcgdv.play.jwt.model.RoutePolicy;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of route policies keyed by controller class and action method name. Built once
+ * from AnnotationInfo, lookups are two hash map reads and allocate nothing.
+ */
+public final class RouteSecurityIndex {
+
+    /**
+     * Index without any annotations
+     */
+    public static final RouteSecurityIndex EMPTY = new RouteSecurityIndex(Collections.emptyMap());
+
+    /**
+     * Has policies per controller class name
+     */
+    private final Map<String, ControllerPolicies> controllers;
+
+    /**
+     * Build with controller policies
+     *
+     * @param controllers the policies
+     */
+    private RouteSecurityIndex(Map<String, ControllerPolicies> controllers) {
+        this.controllers = controllers;
+    }
+
+    /**
+     * Resolve the policy for a route. Precedence matches JwtAnnotationHelper: anonymous method or class first,
+     * then secure method, then secure class.
+     *
+     * @param className  the controller class from Router.Tags
+     * @param methodName the action method from Router.Tags
+     * @return the policy, UNANNOTATED if nothing is known about the route
+     */
+    public RoutePolicy lookup(String className, String methodName) {
+        ControllerPolicies controller = controllers.get(className);
+        if (controller == null) {
+            return RoutePolicy.UNANNOTATED;
+        }
+        RoutePolicy policy = methodName == null ? null : controller.methods.get(methodName);
+        return policy != null ? policy : controller.classPolicy;
+    }
+
+    /**
+     * Number of indexed controller classes
+     *
+     * @return the size
+     */
+    public int size() {
+        return controllers.size();
+    }
+
+    /**
+     * Build from scanned annotation info
+     *
+     * @param annotationInfo the annotation info
+     * @return the index
+     */
+    public static RouteSecurityIndex of(AnnotationInfo annotationInfo) {
+        Builder builder = new Builder();
+        for (Class<?> clazz : annotationInfo.getSecure().getSecureClasses()) {
+            builder.secureClass(clazz.getName(), clazz.getDeclaredAnnotation(Secure.class).value());
+        }
+        for (Class<?> clazz : annotationInfo.getAnonymousAnnotationInfo().getAnonymousClasses()) {
+            builder.anonymousClass(clazz.getName());
+        }
+        for (Method method : annotationInfo.getSecure().getSecureMethods()) {
+            builder.secureMethod(
+                    method.getDeclaringClass().getName(),
+                    method.getName(),
+                    method.getDeclaredAnnotation(Secure.class).value());
+        }
+        for (Method method : annotationInfo.getAnonymousAnnotationInfo().getAnonymousMethods()) {
+            builder.anonymousMethod(method.getDeclaringClass().getName(), method.getName());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects annotations in any order and resolves precedence on build.
+     */
+    public static final class Builder {
+        protected final Map<String, Token.Type[]> secureClasses = new HashMap<>();
+        protected final Map<String, Boolean> anonymousClasses = new HashMap<>();
+        protected final Map<String, Map<String, Token.Type[]>> secureMethods = new HashMap<>();
+        protected final Map<String, Map<String, Boolean>> anonymousMethods = new HashMap<>();
+
+        /**
+         * Add a class annotated with @Secure
+         *
+         * @param className the class
+         * @param tokens    the annotated tokens
+         * @return the builder
+         */
+        public Builder secureClass(String className, Token.Type[] tokens) {
+            secureClasses.put(className, tokens);
+            return this;
+        }
+
+        /**
+         * Add a class annotated with @Anonymous
+         *
+         * @param className the class
+         * @return the builder
+         */
+        public Builder anonymousClass(String className) {
+            anonymousClasses.put(className, Boolean.TRUE);
+            return this;
+        }
+
+        /**
+         * Add a method annotated with @Secure
+         *
+         * @param className  the declaring class
+         * @param methodName the method
+         * @param tokens     the annotated tokens
+         * @return the builder
+         */
+        public Builder secureMethod(String className, String methodName, Token.Type[] tokens) {
+            secureMethods.computeIfAbsent(className, k -> new HashMap<>()).put(methodName, tokens);
+            return this;
+        }
+
+        /**
+         * Add a method annotated with @Anonymous
+         *
+         * @param className  the declaring class
+         * @param methodName the method
+         * @return the builder
+         */
+        public Builder anonymousMethod(String className, String methodName) {
+            anonymousMethods.computeIfAbsent(className, k -> new HashMap<>()).put(methodName, Boolean.TRUE);
+            return this;
+        }
+
+        /**
+         * Resolve precedence and freeze
+         *
+         * @return the index
+         */
+        public RouteSecurityIndex build() {
+            Map<String, ControllerPolicies> controllers = new HashMap<>();
+            for (String className : classNames()) {
+                RoutePolicy classPolicy = anonymousClasses.containsKey(className)
+                        ? RoutePolicy.ANONYMOUS
+                        : secureClasses.containsKey(className)
+                        ? RoutePolicy.secure(secureClasses.get(className))
+                        : RoutePolicy.UNANNOTATED;
+
+                Map<String, RoutePolicy> methods = new HashMap<>();
+                if (!classPolicy.isAnonymous()) {
+                    secureMethods.getOrDefault(className, Collections.emptyMap())
+                            .forEach((method, tokens) -> methods.put(method, RoutePolicy.secure(tokens)));
+                    anonymousMethods.getOrDefault(className, Collections.emptyMap())
+                            .forEach((method, flag) -> methods.put(method, RoutePolicy.ANONYMOUS));
+                }
+                controllers.put(className, new ControllerPolicies(classPolicy, methods));
+            }
+            return new RouteSecurityIndex(Collections.unmodifiableMap(controllers));
+        }
+
+        /**
+         * All class names seen by any annotation
+         *
+         * @return as Set
+         */
+        protected Set<String> classNames() {
+            Set<String> names = new HashSet<>();
+            names.addAll(secureClasses.keySet());
+            names.addAll(anonymousClasses.keySet());
+            names.addAll(secureMethods.keySet());
+            names.addAll(anonymousMethods.keySet());
+            return names;
+        }
+    }
+
+    /**
+     * Policies of a single controller
+     */
+    private static final class ControllerPolicies {
+        private final RoutePolicy classPolicy;
+        private final Map<String, RoutePolicy> methods;
+
+        private ControllerPolicies(RoutePolicy classPolicy, Map<String, RoutePolicy> methods) {
+            this.classPolicy = classPolicy;
+            this.methods = Collections.unmodifiableMap(methods);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * RouteSecurityRegistry
+ */
+package com.bcgdv.play.jwt.util;
+
+/**
+ * Registry of @Secure and @Anonymous controller methods generated at compile time by
+ * RouteSecurityProcessor. When present on the play classpath it replaces runtime classpath scanning.
+ * Each module compiled with the processor lists its registry in META-INF/services, all of them are merged.
+ */
+public interface RouteSecurityRegistry {
+
+    /**
+     * Fully qualified name of the implementation generated by earlier versions, and for classes without a package
+     */
+    String GENERATED_CLASS_NAME = "com.bcgdv.play.jwt.generated.GeneratedRouteSecurityRegistry";
+
+    /**
+     * Add all known annotated methods to the index builder
+     *
+     * @param builder the index builder
+     */
+    void register(RouteSecurityIndex.Builder builder);
+}
@@ -0,0 +1,229 @@
+/*
+ * SecurityExecutors
+ */
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.model.Settings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools used by the security filter so blocking work never runs on play's default dispatcher.
+ */
+@Singleton
+public class SecurityExecutors {
+
+    protected static final Logger logger = LoggerFactory.getLogger(SecurityExecutors.class);
+
+    protected static final String VIRTUAL_THREADS_ENABLED = "running blocking security work on virtual threads";
+    protected static final String VIRTUAL_THREADS_UNAVAILABLE = "virtual threads need JDK 21 or later, running blocking security work on platform threads";
+    protected static final String SHUTDOWN = "shutting down security executors";
+
+    /**
+     * Has the executors shared by everything built without Guice, created on first use
+     */
+    private static volatile SecurityExecutors shared;
+
+    /**
+     * Has a pool for remote public key fetches
+     */
+    protected final ExecutorService keyFetch;
+
+    /**
+     * Has a single thread for periodic housekeeping and timeouts
+     */
+    protected final ScheduledExecutorService scheduler;
+
+    /**
+     * Has a single thread with a bounded queue for audit records
+     */
+    protected final ExecutorService audit;
+
+    /**
+     * Has a bounded pool or virtual threads for token validation, null if tokens are validated on the calling thread
+     */
+    protected final ExecutorService validation;
+
+    /**
+     * Has a virtual thread per task executor if JWT_VIRTUAL_THREADS is set and the JDK has them, otherwise null
+     */
+    protected final ExecutorService virtualThreads;
+
+    /**
+     * Init from settings
+     */
+    public SecurityExecutors() {
+        this.virtualThreads = EnvironmentHelper.getBoolean(Settings.VIRTUAL_THREADS, Settings.DEFAULT_VIRTUAL_THREADS)
+                ? newVirtualThreadPerTaskExecutor()
+                : null;
+        this.keyFetch = virtualThreads != null ? virtualThreads : Executors.newFixedThreadPool(
+                EnvironmentHelper.getInt(Settings.KEY_FETCH_THREADS, Settings.DEFAULT_KEY_FETCH_THREADS),
+                daemonThreads("jwt-key-fetch-%d"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("jwt-scheduler-%d"));
+        this.audit = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(EnvironmentHelper.getInt(Settings.AUDIT_QUEUE_SIZE, Settings.DEFAULT_AUDIT_QUEUE_SIZE)),
+                daemonThreads("jwt-audit-%d"),
+                new ThreadPoolExecutor.AbortPolicy());
+        int validationThreads = EnvironmentHelper.getInt(Settings.VALIDATION_THREADS, Settings.DEFAULT_VALIDATION_THREADS);
+        this.validation = validationThreads > 0
+                ? new ThreadPoolExecutor(validationThreads, validationThreads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(EnvironmentHelper.getInt(Settings.VALIDATION_QUEUE_SIZE, Settings.DEFAULT_VALIDATION_QUEUE_SIZE)),
+                        daemonThreads("jwt-validation-%d"),
+                        new ThreadPoolExecutor.AbortPolicy())
+                : virtualThreads;
+    }
+
+    /**
+     * Init from settings and shut down with the application
+     *
+     * @param lifecycle the play application lifecycle
+     */
+    @Inject
+    public SecurityExecutors(ApplicationLifecycle lifecycle) {
+        this();
+        lifecycle.addStopHook(() -> {
+            shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Executors for compatibility constructors that predate injection. All of them share one set of pools
+     * instead of starting their own. Its threads are daemons and live as long as the JVM.
+     *
+     * @return the shared executors
+     */
+    public static SecurityExecutors shared() {
+        SecurityExecutors executors = shared;
+        if (executors == null) {
+            synchronized (SecurityExecutors.class) {
+                executors = shared;
+                if (executors == null) {
+                    executors = new SecurityExecutors();
+                    shared = executors;
+                }
+            }
+        }
+        return executors;
+    }
+
+    /**
+     * Stop all pools. Queued work is dropped, running work is interrupted.
+     */
+    public void shutdown() {
+        logger.info(SHUTDOWN);
+        scheduler.shutdownNow();
+        keyFetch.shutdownNow();
+        audit.shutdownNow();
+        if (validation != null) {
+            validation.shutdownNow();
+        }
+        if (virtualThreads != null) {
+            virtualThreads.shutdownNow();
+        }
+    }
+
+    /**
+     * Executor for blocking remote public key fetches
+     *
+     * @return the executor
+     */
+    public Executor keyFetch() {
+        return keyFetch;
+    }
+
+    /**
+     * Scheduler for periodic housekeeping. Tasks must be short and hand blocking work to another executor.
+     *
+     * @return the scheduler
+     */
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Executor for audit records. Rejects with RejectedExecutionException when its queue is full, callers
+     * drop the record rather than block the request.
+     *
+     * @return the executor
+     */
+    public Executor audit() {
+        return audit;
+    }
+
+    /**
+     * Executor for token validation, if JWT_VALIDATION_THREADS or JWT_VIRTUAL_THREADS is set. The bounded pool
+     * rejects with RejectedExecutionException when its queue is full, callers refuse the request rather than
+     * queue it.
+     *
+     * @return the executor, null to validate on the calling thread
+     */
+    public Executor validation() {
+        return validation;
+    }
+
+    /**
+     * Number of validations waiting for a thread of the validation pool
+     *
+     * @return the queue depth, 0 without pool
+     */
+    public int getValidationQueueDepth() {
+        return validation instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) validation).getQueue().size() : 0;
+    }
+
+    /**
+     * Executor for blocking work on the request path, i.e. AssertionValidation implementations that call out
+     *
+     * @return a virtual thread per task executor if JWT_VIRTUAL_THREADS is set on JDK 21+, otherwise null to
+     * run on the calling thread
+     */
+    public Executor virtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Create Executors.newVirtualThreadPerTaskExecutor() where the JDK has it. Looked up reflectively, the
+     * library is built for Java 8.
+     *
+     * @return the executor, null on JDKs without virtual threads
+     */
+    protected static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            logger.info(VIRTUAL_THREADS_ENABLED);
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn(VIRTUAL_THREADS_UNAVAILABLE);
+            return null;
+        }
+    }
+
+    /**
+     * Threads that do not keep the JVM alive on shutdown
+     *
+     * @param nameFormat the thread name format
+     * @return the thread factory
+     */
+    protected static ThreadFactory daemonThreads(String nameFormat) {
+        return new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(nameFormat)
+                .build();
+    }
+}
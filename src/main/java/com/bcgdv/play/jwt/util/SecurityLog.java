@@ -0,0 +1,257 @@
+/*
+ * SecurityLog
+ */
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per request logging of the security filter, built to stay cheap under a flood of bad tokens. Accepted
+ * requests are logged for a configurable sample per token type. Rejections are logged up to a rate per
+ * reason, the rest is counted and summarized periodically. If JWT_AUDIT_ENABLED is set, audit records of every
+ * outcome go to their own logger and are written off the request thread.
+ */
+@Singleton
+public class SecurityLog {
+
+    protected static final Logger logger = LoggerFactory.getLogger(SecurityLog.class);
+
+    /**
+     * Audit records are written to this logger at INFO when JWT_AUDIT_ENABLED is set
+     */
+    public static final String AUDIT_LOGGER = "com.bcgdv.play.jwt.audit";
+
+    protected static final Logger audit = LoggerFactory.getLogger(AUDIT_LOGGER);
+
+    /**
+     * Log messages
+     */
+    protected static final String ACCEPTED = "accepted {} token for request {}";
+    protected static final String REJECTED = "rejected request {}, reason={}, cause: {}";
+    protected static final String SUPPRESSED = "{} rejections with reason={} suppressed in the last {}ms";
+    protected static final String AUDIT_DROPPED = "{} audit records dropped in the last {}ms, audit queue full";
+    protected static final String AUDIT_RECORD = "outcome={} type={} reason={} uri={}";
+
+    /**
+     * Has 1 in n sampling of accept logs per token type, 0 for none
+     */
+    protected final int[] acceptSampling = new int[Token.Type.values().length];
+
+    /**
+     * Has the time between two rejection logs per reason and the burst allowed on top, in nanos
+     */
+    protected final long rejectInterval;
+    protected final long rejectBurst;
+
+    /**
+     * Has the earliest time the next rejection is logged per reason, less the burst
+     */
+    protected final AtomicLong[] rejectAllowedAt = new AtomicLong[RejectReason.values().length];
+
+    protected final LongAdder[] suppressed = new LongAdder[RejectReason.values().length];
+    protected final LongAdder auditDropped = new LongAdder();
+
+    /**
+     * Has whether audit records are written at all
+     */
+    protected final boolean auditEnabled;
+
+    /**
+     * Has the executor audit records are written on
+     */
+    protected final Executor auditExecutor;
+
+    /**
+     * Init from settings, writing audit records on the calling thread and without periodic summaries
+     */
+    public SecurityLog() {
+        this(Runnable::run);
+    }
+
+    /**
+     * Init from settings, writing audit records on the given executor
+     *
+     * @param auditExecutor the executor
+     */
+    protected SecurityLog(Executor auditExecutor) {
+        this.auditExecutor = auditExecutor;
+        this.auditEnabled = EnvironmentHelper.getBoolean(Settings.AUDIT_ENABLED, Settings.DEFAULT_AUDIT_ENABLED);
+        int sampling = EnvironmentHelper.getInt(Settings.LOG_ACCEPT_SAMPLING, Settings.DEFAULT_LOG_ACCEPT_SAMPLING);
+        for (Token.Type type : Token.Type.values()) {
+            acceptSampling[type.ordinal()] = EnvironmentHelper.getInt(Settings.LOG_ACCEPT_SAMPLING + "_" + type, sampling);
+        }
+        long perSecond = EnvironmentHelper.getLong(Settings.LOG_REJECT_PER_SECOND, Settings.DEFAULT_LOG_REJECT_PER_SECOND);
+        this.rejectInterval = perSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / perSecond : Long.MAX_VALUE;
+        this.rejectBurst = perSecond > 0
+                ? rejectInterval * Math.max(0, EnvironmentHelper.getLong(Settings.LOG_REJECT_BURST, Settings.DEFAULT_LOG_REJECT_BURST) - 1)
+                : 0;
+        long now = System.nanoTime();
+        for (int i = 0; i < rejectAllowedAt.length; i++) {
+            rejectAllowedAt[i] = new AtomicLong(now - rejectBurst);
+            suppressed[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Init from settings, writing audit records on the audit thread and logging summaries of suppressed
+     * rejections every JWT_LOG_SUMMARY_INTERVAL_MS
+     *
+     * @param securityExecutors has the audit thread and scheduler
+     */
+    @Inject
+    public SecurityLog(SecurityExecutors securityExecutors) {
+        this(securityExecutors.audit());
+        long interval = EnvironmentHelper.getLong(Settings.LOG_SUMMARY_INTERVAL_MS, Settings.DEFAULT_LOG_SUMMARY_INTERVAL_MS);
+        if (interval > 0) {
+            securityExecutors.scheduler().scheduleWithFixedDelay(
+                    () -> summarize(interval), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Log an accepted request if it is sampled, and audit it
+     *
+     * @param tokenType the token type
+     * @param uri       the request uri
+     */
+    public void accepted(Token.Type tokenType, String uri) {
+        if (logger.isInfoEnabled() && sampled(acceptSampling[tokenType.ordinal()])) {
+            logger.info(ACCEPTED, tokenType, uri);
+        }
+        audit("accepted", tokenType, null, uri);
+    }
+
+    /**
+     * Log a rejected request unless too many were logged for this reason recently, and audit it
+     *
+     * @param reason    why it was rejected
+     * @param tokenType the token type, NONE if unknown
+     * @param uri       the request uri
+     * @param e         the cause
+     */
+    public void rejected(RejectReason reason, Token.Type tokenType, String uri, Throwable e) {
+        rejected(reason, tokenType, uri, e.getMessage());
+    }
+
+    /**
+     * Log a rejected request unless too many were logged for this reason recently, and audit it
+     *
+     * @param reason    why it was rejected
+     * @param tokenType the token type, NONE if unknown
+     * @param uri       the request uri
+     * @param cause     the cause
+     */
+    public void rejected(RejectReason reason, Token.Type tokenType, String uri, String cause) {
+        if (logger.isWarnEnabled()) {
+            if (acquire(reason)) {
+                logger.warn(REJECTED, uri, reason.getCode(), cause);
+            } else {
+                suppressed[reason.ordinal()].increment();
+            }
+        }
+        audit("rejected", tokenType, reason, uri);
+    }
+
+    /**
+     * Number of rejection logs suppressed since the last summary
+     *
+     * @param reason the reason
+     * @return the count
+     */
+    public long getSuppressedCount(RejectReason reason) {
+        return suppressed[reason.ordinal()].sum();
+    }
+
+    /**
+     * Number of audit records dropped since the last summary
+     *
+     * @return the count
+     */
+    public long getAuditDroppedCount() {
+        return auditDropped.sum();
+    }
+
+    /**
+     * Hand an audit record to the audit executor if auditing is enabled, dropping it if the executor is saturated
+     *
+     * @param outcome   accepted | rejected
+     * @param tokenType the token type
+     * @param reason    the reason, null if accepted
+     * @param uri       the request uri
+     */
+    protected void audit(String outcome, Token.Type tokenType, RejectReason reason, String uri) {
+        if (!auditEnabled || !audit.isInfoEnabled()) {
+            return;
+        }
+        try {
+            auditExecutor.execute(() -> audit.info(AUDIT_RECORD, outcome, tokenType, reason == null ? "" : reason.getCode(), uri));
+        } catch (RejectedExecutionException e) {
+            auditDropped.increment();
+        }
+    }
+
+    /**
+     * Pick 1 in n calls at random, without a shared counter
+     *
+     * @param n the sampling, 0 for none, 1 for all
+     * @return true | false
+     */
+    protected boolean sampled(int n) {
+        return n == 1 || n > 1 && ThreadLocalRandom.current().nextInt(n) == 0;
+    }
+
+    /**
+     * Take a token from the bucket of a reason. Lock free, the bucket is kept as the time it is full again.
+     *
+     * @param reason the reason
+     * @return true if the rejection may be logged
+     */
+    protected boolean acquire(RejectReason reason) {
+        if (rejectInterval == Long.MAX_VALUE) {
+            return false;
+        }
+        AtomicLong allowedAt = rejectAllowedAt[reason.ordinal()];
+        long now = System.nanoTime();
+        while (true) {
+            long current = allowedAt.get();
+            if (now - current < 0) {
+                return false;
+            }
+            long next = Math.max(current, now - rejectBurst) + rejectInterval;
+            if (allowedAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Log and reset the number of suppressed rejections and dropped audit records
+     *
+     * @param interval the summary interval in millis
+     */
+    protected void summarize(long interval) {
+        for (RejectReason reason : RejectReason.values()) {
+            long count = suppressed[reason.ordinal()].sumThenReset();
+            if (count > 0) {
+                logger.warn(SUPPRESSED, count, reason.getCode(), interval);
+            }
+        }
+        long dropped = auditDropped.sumThenReset();
+        if (dropped > 0) {
+            logger.warn(AUDIT_DROPPED, dropped, interval);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * TokenContextStore
+ */
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.validation.TokenContext;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands parsed and decrypted tokens from the filter to the @Secure action of the same request. Play's java
+ * RequestHeader cannot carry objects from a filter to the action, so contexts are kept by raw token for
+ * the short time between both.
+ */
+@Singleton
+public class TokenContextStore {
+
+    /**
+     * Upper bound of in flight requests we keep contexts for
+     */
+    protected static final long MAX_ENTRIES = 10000;
+
+    /**
+     * A request is expected to reach its action well within this time
+     */
+    protected static final long EXPIRY_SECONDS = 30;
+
+    /**
+     * Has contexts by raw token
+     */
+    protected final Cache<String, TokenContext> contexts;
+
+    /**
+     * Init with bounded cache
+     */
+    public TokenContextStore() {
+        this.contexts = CacheBuilder.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfterWrite(EXPIRY_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Keep a validated context
+     *
+     * @param tokenContext the context
+     */
+    public void put(TokenContext tokenContext) {
+        contexts.put(tokenContext.getToken(), tokenContext);
+    }
+
+    /**
+     * Find the context for a raw token
+     *
+     * @param token the raw token
+     * @return the context or empty if it was never stored or has expired
+     */
+    public Optional<TokenContext> get(String token) {
+        return Optional.ofNullable(contexts.getIfPresent(token));
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * VerifiedTokenCache
+ */
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.JwtValidationException;
+import com.bcgdv.play.jwt.validation.TokenContext;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Optional, size bounded cache of tokens whose signature has been verified and whose secret has been decrypted.
+ * Entries are keyed by a fingerprint of the signature segment and never outlive the token's own expiry.
+ * A hit is only served if the full token matches, so a copied signature on a different payload is verified
+ * as usual.
+ */
+@Singleton
+public class VerifiedTokenCache {
+
+    /**
+     * Number of signature characters used as fingerprint, 22 base64 characters carry 132 bits
+     */
+    protected static final int FINGERPRINT_LENGTH = 22;
+
+    /**
+     * Has verified tokens by fingerprint, null if disabled
+     */
+    protected final Cache<String, Entry> verified;
+
+    /**
+     * Has the max time an entry is kept
+     */
+    protected final long maxTtlMillis;
+
+    /**
+     * Has the max number of entries
+     */
+    protected final long maxEntries;
+
+    /**
+     * Has verifications in progress by fingerprint
+     */
+    protected final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+
+    /**
+     * Init from settings
+     */
+    public VerifiedTokenCache() {
+        this(EnvironmentHelper.getLong(Settings.VERIFIED_TOKEN_CACHE_SIZE, Settings.DEFAULT_VERIFIED_TOKEN_CACHE_SIZE),
+                EnvironmentHelper.getLong(Settings.VERIFIED_TOKEN_CACHE_TTL_MS, Settings.DEFAULT_VERIFIED_TOKEN_CACHE_TTL_MS));
+    }
+
+    /**
+     * Init with size and ttl
+     *
+     * @param maxEntries   max number of entries, 0 disables the cache
+     * @param maxTtlMillis max time an entry is kept
+     */
+    public VerifiedTokenCache(long maxEntries, long maxTtlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxTtlMillis = maxTtlMillis;
+        this.verified = maxEntries > 0
+                ? CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(maxTtlMillis, TimeUnit.MILLISECONDS)
+                .build()
+                : null;
+    }
+
+    /**
+     * Is caching switched on?
+     *
+     * @return true | false
+     */
+    public boolean isEnabled() {
+        return verified != null;
+    }
+
+    /**
+     * Find an earlier verified and decrypted copy of this token
+     *
+     * @param tokenContext the parsed token
+     * @return the verified token or empty
+     */
+    public Optional<TokenContext> get(TokenContext tokenContext) {
+        if (verified == null) {
+            return Optional.empty();
+        }
+        String fingerprint = fingerprint(tokenContext.getToken());
+        Entry entry = verified.getIfPresent(fingerprint);
+        if (entry != null && entry.matches(tokenContext.getToken())) {
+            if (System.currentTimeMillis() <= entry.deadline) {
+                hits.increment();
+                return Optional.of(entry.tokenContext);
+            }
+            verified.invalidate(fingerprint);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Run verification unless an identical token has been verified before. Concurrent calls for the same
+     * token share one verification.
+     *
+     * @param tokenContext the parsed and decrypted token
+     * @param verification throws if the token cannot be verified
+     * @throws JwtValidationException if verification fails
+     */
+    public void verify(TokenContext tokenContext, Consumer<TokenContext> verification) throws JwtValidationException {
+        if (verified == null) {
+            verification.accept(tokenContext);
+            return;
+        }
+        try {
+            verifyAsync(tokenContext, t -> {
+                verification.accept(t);
+                return CompletableFuture.completedFuture(null);
+            }).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JwtValidationException(e);
+        }
+    }
+
+    /**
+     * Run asynchronous verification unless an identical token has been verified before. Concurrent calls for
+     * the same token share one verification, calls for a different token with the same fingerprint do not.
+     *
+     * @param tokenContext the parsed and decrypted token
+     * @param verification completes exceptionally if the token cannot be verified
+     * @return completes when the token is verified
+     */
+    public CompletionStage<Void> verifyAsync(TokenContext tokenContext,
+                                             Function<TokenContext, CompletionStage<Void>> verification) {
+        if (verified == null) {
+            return run(tokenContext, verification);
+        }
+        String fingerprint = fingerprint(tokenContext.getToken());
+        InFlight mine = new InFlight(tokenContext.getToken());
+        InFlight running = inFlight.putIfAbsent(fingerprint, mine);
+        if (running != null) {
+            return running.token.equals(tokenContext.getToken())
+                    ? running.future
+                    : run(tokenContext, verification);
+        }
+        run(tokenContext, verification).whenComplete((v, e) -> {
+            if (e == null) {
+                verified.put(fingerprint, new Entry(tokenContext, deadline(tokenContext)));
+            }
+            inFlight.remove(fingerprint, mine);
+            if (e == null) {
+                mine.future.complete(null);
+            } else {
+                mine.future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        return mine.future;
+    }
+
+    /**
+     * Run a verification, turning synchronous failure into a failed stage
+     *
+     * @param tokenContext the token
+     * @param verification the verification
+     * @return the verification result
+     */
+    protected CompletionStage<Void> run(TokenContext tokenContext,
+                                        Function<TokenContext, CompletionStage<Void>> verification) {
+        try {
+            return verification.apply(tokenContext);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Latest time a verified token may be served from cache
+     *
+     * @param tokenContext the token
+     * @return as epoch millis
+     */
+    protected long deadline(TokenContext tokenContext) {
+        long cap = System.currentTimeMillis() + maxTtlMillis;
+        long expiry = tokenContext.getExpiryInMilliSeconds();
+        if (expiry == Token.EXPIRY_NEVER || expiry < 0) {
+            return cap;
+        }
+        return Math.min(cap, tokenContext.getDateCreated() + expiry);
+    }
+
+    /**
+     * Fingerprint of the signature segment. The signature already is a digest over header and payload,
+     * its trailing characters serve without hashing again.
+     *
+     * @param token the raw token
+     * @return the fingerprint
+     */
+    protected String fingerprint(String token) {
+        int end = token.length();
+        int start = Math.max(token.lastIndexOf('.') + 1, end - FINGERPRINT_LENGTH);
+        return token.substring(start, end);
+    }
+
+    /**
+     * Number of lookups answered from cache
+     *
+     * @return the count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups that required verification
+     *
+     * @return the count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of entries currently kept
+     *
+     * @return the size
+     */
+    public long size() {
+        return verified == null ? 0 : verified.size();
+    }
+
+    /**
+     * Max number of entries
+     *
+     * @return the setting
+     */
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * A verification in progress
+     */
+    protected static final class InFlight {
+        protected final String token;
+        protected final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        protected InFlight(String token) {
+            this.token = token;
+        }
+    }
+
+    /**
+     * A verified token and the time it must be dropped
+     */
+    protected static final class Entry {
+        protected final TokenContext tokenContext;
+        protected final long deadline;
+
+        protected Entry(TokenContext tokenContext, long deadline) {
+            this.tokenContext = tokenContext;
+            this.deadline = deadline;
+        }
+
+        protected boolean matches(String token) {
+            return tokenContext.getToken().equals(token);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * AssertionRuleValidation
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.AssertionRule;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.Environment;
+import play.libs.Json;
+import play.mvc.Http;
+import play.routing.Router;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Checks @AssertionRule annotations and rules from JWT_ASSERTION_RULES_FILE. Rules are parsed into matchers
+ * once, configured ones at startup and annotated ones on the first request of their route. Requests only
+ * walk the assertions map and read request parameters.
+ */
+@Singleton
+public class AssertionRuleValidation implements AssertionValidation {
+
+    protected static final Logger logger = LoggerFactory.getLogger(AssertionRuleValidation.class);
+
+    /**
+     * Rules only read assertions and the request, they run before custom validations
+     */
+    protected static final int COST = 10;
+
+    protected static final String EQUALS = " == ";
+    protected static final String CONTAINS = " contains ";
+    protected static final String PARAM = "param:";
+
+    protected static final String RULES_LOADED = "loaded assertion rules for {} routes from {}";
+    protected static final String RULES_INVALID = "invalid @AssertionRule on {}, route denies all requests, cause: {}";
+
+    /**
+     * Denies every request, used for routes whose annotations cannot be compiled
+     */
+    protected static final Rule[] DENY = {(assertions, request) -> false};
+
+    protected static final Rule[] NONE = {};
+
+    /**
+     * Index of route parameters whose path segment cannot be told for sure
+     */
+    protected static final int UNRESOLVED = -1;
+
+    /**
+     * Character class of play's :name parameters, matches anything but a slash
+     */
+    protected static final String SEGMENT_CLASS = "[^/]";
+
+    /**
+     * Has the rules from config by controller.method
+     */
+    protected final Map<String, Rule[]> configured;
+
+    /**
+     * Has the compiled rules by controller.method, configured and annotated
+     */
+    protected final ConcurrentMap<String, Rule[]> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Has the path segment index of each parameter, by route pattern
+     */
+    protected final ConcurrentMap<String, Map<String, Integer>> pathParams = new ConcurrentHashMap<>();
+
+    /**
+     * Has the classloader of controllers
+     */
+    protected final ClassLoader classLoader;
+
+    /**
+     * Create with play's classloader
+     *
+     * @param environment the environment
+     */
+    @Inject
+    public AssertionRuleValidation(Environment environment) {
+        this(environment.classLoader());
+    }
+
+    /**
+     * Create with a classloader for controllers and the rules file, if set
+     *
+     * @param classLoader the classloader
+     */
+    public AssertionRuleValidation(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+        String rulesFile = EnvironmentHelper.get(Settings.ASSERTION_RULES_FILE, null);
+        this.configured = rulesFile != null ? load(rulesFile) : Collections.<String, Rule[]>emptyMap();
+    }
+
+    /**
+     * Check all rules of the request's route
+     *
+     * @param annotatedTokens these annotated tokens
+     * @param requestTokenType the passed in token type from the http request
+     * @param requestAssertions the assertions made by the passed in token
+     * @param request the actual request if needed, i.e. headers or body
+     * @return true if all rules pass or the route has none
+     */
+    @Override
+    public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+        String controller = request.tags().get(Router.Tags.ROUTE_CONTROLLER);
+        String method = request.tags().get(Router.Tags.ROUTE_ACTION_METHOD);
+        if (controller == null || method == null) {
+            return true;
+        }
+        Rule[] rules = routes.computeIfAbsent(controller + "." + method, route -> compileRoute(controller, method));
+        for (Rule rule : rules) {
+            if (!rule.matches(requestAssertions, request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    /**
+     * Combine configured and annotated rules of a route
+     *
+     * @param controller the controller class name
+     * @param method the action method name
+     * @return the rules
+     */
+    protected Rule[] compileRoute(String controller, String method) {
+        List<Rule> rules = new ArrayList<>();
+        Rule[] fromConfig = configured.get(controller + "." + method);
+        if (fromConfig != null) {
+            Collections.addAll(rules, fromConfig);
+        }
+        try {
+            for (Method m : Class.forName(controller, false, classLoader).getMethods()) {
+                if (m.getName().equals(method)) {
+                    for (AssertionRule assertionRule : m.getAnnotationsByType(AssertionRule.class)) {
+                        rules.add(compile(assertionRule.value()));
+                    }
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // routes to unknown classes only have configured rules
+        } catch (IllegalArgumentException e) {
+            logger.error(RULES_INVALID, controller + "." + method, e.getMessage());
+            return DENY;
+        }
+        return rules.isEmpty() ? NONE : rules.toArray(new Rule[rules.size()]);
+    }
+
+    /**
+     * Parse a rules file
+     *
+     * @param rulesFile the path
+     * @return the rules by controller.method
+     * @throws IllegalArgumentException if the file cannot be read or has invalid rules
+     */
+    protected Map<String, Rule[]> load(String rulesFile) {
+        Map<String, Rule[]> rules = new HashMap<>();
+        try (InputStream in = Files.newInputStream(Paths.get(rulesFile))) {
+            Iterator<Map.Entry<String, JsonNode>> routes = Json.parse(in).fields();
+            while (routes.hasNext()) {
+                Map.Entry<String, JsonNode> route = routes.next();
+                List<Rule> compiled = new ArrayList<>();
+                for (JsonNode expression : route.getValue()) {
+                    compiled.add(compile(expression.asText()));
+                }
+                rules.put(route.getKey(), compiled.toArray(new Rule[compiled.size()]));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("unable to load assertion rules from " + rulesFile + ", cause: " + e.getMessage(), e);
+        }
+        logger.info(RULES_LOADED, rules.size(), rulesFile);
+        return Collections.unmodifiableMap(rules);
+    }
+
+    /**
+     * Parse a rule into a matcher
+     *
+     * @param expression the rule, i.e. "customerId == param:id"
+     * @return the matcher
+     * @throws IllegalArgumentException if the rule cannot be parsed
+     */
+    public Rule compile(String expression) {
+        int equals = expression.indexOf(EQUALS);
+        int contains = expression.indexOf(CONTAINS);
+        if (equals > 0) {
+            String[] claim = claimPath(expression.substring(0, equals));
+            String operand = literal(expression.substring(equals + EQUALS.length()));
+            if (operand.startsWith(PARAM)) {
+                String param = operand.substring(PARAM.length());
+                return (assertions, request) -> {
+                    Object value = claim(assertions, claim);
+                    return value != null && String.valueOf(value).equals(param(request, param));
+                };
+            }
+            return (assertions, request) -> {
+                Object value = claim(assertions, claim);
+                return value != null && String.valueOf(value).equals(operand);
+            };
+        }
+        if (contains > 0) {
+            String[] claim = claimPath(expression.substring(0, contains));
+            String operand = literal(expression.substring(contains + CONTAINS.length()));
+            return (assertions, request) -> {
+                Object value = claim(assertions, claim);
+                if (value instanceof Collection) {
+                    for (Object element : (Collection<?>) value) {
+                        if (element != null && String.valueOf(element).equals(operand)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                return value != null && String.valueOf(value).equals(operand);
+            };
+        }
+        throw new IllegalArgumentException("unsupported assertion rule: " + expression);
+    }
+
+    protected static String[] claimPath(String claim) {
+        String trimmed = claim.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("assertion rule without claim");
+        }
+        return trimmed.split("\\.");
+    }
+
+    protected static String literal(String operand) {
+        String trimmed = operand.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("assertion rule without operand");
+        }
+        return trimmed;
+    }
+
+    /**
+     * Walk a claim path through nested maps
+     *
+     * @param assertions the assertions
+     * @param path the claim path
+     * @return the value, null if absent
+     */
+    protected static Object claim(Map assertions, String[] path) {
+        Object value = assertions;
+        for (String segment : path) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map) value).get(segment);
+        }
+        return value;
+    }
+
+    /**
+     * Read a path parameter of the route, or a query parameter if the route has no parameter of that name.
+     * Route parameters whose segment cannot be told for sure, i.e. $id&lt;[^/]+&gt;.json or a regex that
+     * matches slashes, read as null so the rule fails rather than fall back to the caller controlled query.
+     *
+     * @param request the request
+     * @param name the parameter name
+     * @return the value, null if absent or not resolvable
+     */
+    protected String param(Http.Request request, String name) {
+        String pattern = request.tags().get(Router.Tags.ROUTE_PATTERN);
+        if (pattern != null) {
+            Integer index = pathParams.computeIfAbsent(pattern, AssertionRuleValidation::parsePathParams).get(name);
+            if (index != null) {
+                String segment = index >= 0 ? segment(request.path(), index) : null;
+                return segment != null ? decode(segment) : null;
+            }
+        }
+        return request.getQueryString(name);
+    }
+
+    /**
+     * Find the segment index of each parameter of a route pattern. Parameters that make up a whole segment
+     * with a regex that cannot match a slash get their index, all others get UNRESOLVED, as do parameters
+     * after one whose regex may match a slash.
+     *
+     * @param pattern the route pattern from Router.Tags, i.e. /customers/$id&lt;[^/]+&gt;
+     * @return the index by parameter name
+     */
+    protected static Map<String, Integer> parsePathParams(String pattern) {
+        Map<String, Integer> params = new HashMap<>();
+        int slashes = 0;
+        boolean spanning = false;
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            int open = c == '$' ? pattern.indexOf('<', i) : -1;
+            if (open < 0) {
+                if (c == '/') {
+                    slashes++;
+                }
+                i++;
+                continue;
+            }
+            String name = pattern.substring(i + 1, open);
+            int close = closingBracket(pattern, open);
+            if (close < 0) {
+                params.put(name, UNRESOLVED);
+                break;
+            }
+            String regex = pattern.substring(open + 1, close);
+            boolean wholeSegment = (i == 0 || pattern.charAt(i - 1) == '/')
+                    && (close == pattern.length() - 1 || pattern.charAt(close + 1) == '/');
+            boolean withinSegment = !matchesSlash(regex);
+            params.put(name, wholeSegment && withinSegment && !spanning ? slashes : UNRESOLVED);
+            spanning |= !withinSegment;
+            i = close + 1;
+        }
+        return params;
+    }
+
+    /**
+     * Find the &gt; that closes a parameter regex, skipping nested &lt;&gt; pairs
+     *
+     * @param pattern the route pattern
+     * @param open the index of the opening &lt;
+     * @return the index, -1 if unbalanced
+     */
+    protected static int closingBracket(String pattern, int open) {
+        int depth = 0;
+        for (int i = open; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '<') {
+                depth++;
+            } else if (c == '>' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * May a parameter regex match a slash? Errs on yes: only literals, plain character classes and quantifiers
+     * count as no, besides the [^/] play uses for :name parameters.
+     *
+     * @param regex the regex
+     * @return true | false
+     */
+    protected static boolean matchesSlash(String regex) {
+        String rest = regex.replace(SEGMENT_CLASS, "");
+        return rest.indexOf('/') >= 0 || rest.indexOf('.') >= 0 || rest.indexOf('\\') >= 0 || rest.contains("[^");
+    }
+
+    /**
+     * Get a path segment without splitting the path
+     *
+     * @param path the request path
+     * @param index the segment index, 0 before the first slash
+     * @return the segment, null if the path is shorter
+     */
+    protected static String segment(String path, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            start = path.indexOf('/', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        int end = path.indexOf('/', start);
+        return path.substring(start, end < 0 ? path.length() : end);
+    }
+
+    protected static String decode(String segment) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        try {
+            return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return segment;
+        }
+    }
+
+    /**
+     * A compiled rule
+     */
+    @FunctionalInterface
+    public interface Rule {
+
+        /**
+         * Does the request pass?
+         *
+         * @param assertions the assertions of the token
+         * @param request the request
+         * @return true | false
+         */
+        boolean matches(Map assertions, Http.Request request);
+    }
+}
@@ -13,6 +13,11 @@ import java.util.Map;
  */
 public interface AssertionValidation {
 
+    /**
+     * Cost of validations that do not declare their own
+     */
+    int DEFAULT_COST = 100;
+
     /**
      * Validate assertions for
      * @param annotatedTokens these annotated tokens
@@ -22,4 +27,26 @@ public interface AssertionValidation {
      * @return return true for pass and false for fail
      */
     boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request);
+
+    /**
+     * Validate typed assertions. Override to read single claims without decoding the others, defaults to
+     * the Map variant with a read only view that decodes claims as they are read.
+     * @param annotatedTokens these annotated tokens
+     * @param requestTokenType the passed in token type from the http request
+     * @param claims the assertions made by the passed in token
+     * @param request the actual request if needed, i.e. headers or body
+     * @return return true for pass and false for fail
+     */
+    default boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        return with(annotatedTokens, requestTokenType, claims.asMap(), request);
+    }
+
+    /**
+     * Relative cost of this validation. Validations run cheapest first and stop at the first failure, so
+     * checks that only read assertions should be cheaper than checks that read the body or call out.
+     * @return the cost, DEFAULT_COST unless overridden
+     */
+    default int getCost() {
+        return DEFAULT_COST;
+    }
 }
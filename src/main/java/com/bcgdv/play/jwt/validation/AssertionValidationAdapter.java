@@ -0,0 +1,60 @@
+/*
+ * AssertionValidationAdapter
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import play.mvc.Http;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Runs a synchronous AssertionValidation as AsyncAssertionValidation, on the calling thread.
+ */
+public class AssertionValidationAdapter implements AsyncAssertionValidation {
+
+    /**
+     * Has the adapted validation
+     */
+    protected final AssertionValidation assertionValidation;
+
+    /**
+     * Adapt a validation
+     * @param assertionValidation the validation
+     */
+    public AssertionValidationAdapter(AssertionValidation assertionValidation) {
+        this.assertionValidation = assertionValidation;
+    }
+
+    @Override
+    public CompletionStage<Boolean> withAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+        return CompletableFuture.completedFuture(
+                assertionValidation.with(annotatedTokens, requestTokenType, requestAssertions, request));
+    }
+
+    @Override
+    public CompletionStage<Boolean> withAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        return CompletableFuture.completedFuture(
+                assertionValidation.with(annotatedTokens, requestTokenType, claims, request));
+    }
+
+    @Override
+    public int getCost() {
+        return assertionValidation.getCost();
+    }
+
+    /**
+     * Get the adapted validation
+     * @return the validation
+     */
+    public AssertionValidation getAssertionValidation() {
+        return assertionValidation;
+    }
+
+    @Override
+    public String toString() {
+        return assertionValidation.getClass().getSimpleName();
+    }
+}
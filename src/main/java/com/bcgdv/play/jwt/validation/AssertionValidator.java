@@ -7,6 +7,8 @@ import com.bcgdv.jwt.models.Token;
 import play.mvc.Http;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Iterate over assertions and execute validation
@@ -22,4 +24,41 @@ public interface AssertionValidator {
      * @return true | false
      */
     boolean validate(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request);
+
+    /**
+     * Validate without blocking the calling thread on validations that wait for something. Defaults to
+     * the blocking variant.
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param requestAssertions the request assertions passed in
+     * @param request the actual request
+     * @return completes with true | false
+     */
+    default CompletionStage<Boolean> validateAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+        return CompletableFuture.completedFuture(validate(annotatedTokens, requestTokenType, requestAssertions, request));
+    }
+
+    /**
+     * Iterate over validators with typed assertions. Defaults to the Map variant.
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return true | false
+     */
+    default boolean validate(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        return validate(annotatedTokens, requestTokenType, claims.asMap(), request);
+    }
+
+    /**
+     * Validate typed assertions without blocking the calling thread. Defaults to the Map variant.
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return completes with true | false
+     */
+    default CompletionStage<Boolean> validateAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        return validateAsync(annotatedTokens, requestTokenType, claims.asMap(), request);
+    }
 }
@@ -4,35 +4,85 @@
 package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import play.mvc.Http;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Iterate over assertions and execute validation
+ * Iterate over assertions and execute validation. Validations are ordered by cost once, cheapest first,
+ * and a request fails on the first validation that does not pass. Asynchronous validations are composed
+ * without blocking, each within its timeout, independent ones run concurrently with the chain.
  */
 @Singleton
 public class AssertionValidatorImpl implements AssertionValidator {
 
+    protected static final Logger logger = LoggerFactory.getLogger(AssertionValidatorImpl.class);
+
+    protected static final String VALIDATION_FAILED = "assertion validation {} failed, I will reject this request, cause: {}";
+
     /**
      * Has AssertionValidators that are iterated over.
      */
     protected List<AssertionValidation> assertionValidations;
 
+    /**
+     * Has all validations ordered by cost, with their counters
+     */
+    protected Step[] chain;
+
+    /**
+     * Has the validations that run one after the other, and those that start right away
+     */
+    protected Step[] sequential;
+    protected Step[] independent;
+
+    /**
+     * Are all validations synchronous? Then there is nothing to compose.
+     */
+    protected boolean synchronous;
+
+    /**
+     * Are all validations asynchronous? Then none of them blocks the calling thread.
+     */
+    protected boolean asynchronous;
+
+    /**
+     * Has the scheduler for timeouts, null for none
+     */
+    protected ScheduledExecutorService scheduler;
+
     /**
      * Create with single validator
      * @param assertionValidation the assertion validation
      */
-    @Inject
     public AssertionValidatorImpl(AssertionValidation assertionValidation) {
-        this.assertionValidations = new ArrayList<>();
-        if(assertionValidation!=null) {
-            this.assertionValidations.add(assertionValidation);
-        }
+        this(assertionValidation != null
+                ? Collections.singletonList(assertionValidation)
+                : Collections.<AssertionValidation>emptyList());
     }
 
     /**
@@ -40,15 +90,54 @@ public class AssertionValidatorImpl implements AssertionValidator {
      * @param assertionValidations the validations
      */
     public AssertionValidatorImpl(List<AssertionValidation> assertionValidations) {
+        this(assertionValidations, Collections.<AsyncAssertionValidation>emptyList(), null);
+    }
+
+    /**
+     * Create with all validations registered through Multibinder. A validation bound directly to
+     * AssertionValidation, the way it was configured before, is added unless the set already has one of
+     * its class.
+     * @param assertionValidations the validations of the set binding
+     * @param asyncAssertionValidations the asynchronous validations of the set binding
+     * @param injector to find a direct binding
+     * @param securityExecutors has the scheduler for timeouts
+     */
+    @Inject
+    public AssertionValidatorImpl(Set<AssertionValidation> assertionValidations,
+                                  Set<AsyncAssertionValidation> asyncAssertionValidations,
+                                  Injector injector,
+                                  SecurityExecutors securityExecutors) {
+        this(withDirectBinding(assertionValidations, injector),
+                new ArrayList<>(asyncAssertionValidations),
+                securityExecutors.scheduler());
+    }
+
+    /**
+     * Create with synchronous and asynchronous validators
+     * @param assertionValidations the validations
+     * @param asyncAssertionValidations the asynchronous validations
+     * @param scheduler for timeouts, null to wait without
+     */
+    public AssertionValidatorImpl(List<AssertionValidation> assertionValidations,
+                                  List<AsyncAssertionValidation> asyncAssertionValidations,
+                                  ScheduledExecutorService scheduler) {
         if (assertionValidations!=null) {
             this.assertionValidations = assertionValidations;
         } else {
             this.assertionValidations = new ArrayList<>();
         }
+        this.scheduler = scheduler;
+        this.chain = compile(this.assertionValidations,
+                asyncAssertionValidations != null ? asyncAssertionValidations : Collections.<AsyncAssertionValidation>emptyList(),
+                EnvironmentHelper.getLong(Settings.ASSERTION_TIMEOUT_MS, Settings.DEFAULT_ASSERTION_TIMEOUT_MS));
+        this.sequential = Arrays.stream(chain).filter(step -> !step.validation.isIndependent()).toArray(Step[]::new);
+        this.independent = Arrays.stream(chain).filter(step -> step.validation.isIndependent()).toArray(Step[]::new);
+        this.synchronous = Arrays.stream(chain).allMatch(step -> step.sync != null);
+        this.asynchronous = Arrays.stream(chain).allMatch(step -> step.sync == null);
     }
 
     /**
-     * Iterate over validators and pass if all off them return true;
+     * Iterate over validators cheapest first, see validate(..., Claims, ...)
      * @param annotatedTokens the annotated tokens
      * @param requestTokenType the request token type passed in
      * @param requestAssertions the request assertions passed in
@@ -57,10 +146,316 @@ public class AssertionValidatorImpl implements AssertionValidator {
      */
     @Override
     public boolean validate(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
-        boolean validated = true;
-        for(AssertionValidation assertionValidation : assertionValidations) {
-            validated &= assertionValidation.with(annotatedTokens, requestTokenType, requestAssertions, request);
+        return validate(annotatedTokens, requestTokenType, Claims.of(requestAssertions), request);
+    }
+
+    /**
+     * Run the chain without blocking, see validateAsync(..., Claims, ...)
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param requestAssertions the request assertions passed in
+     * @param request the actual request
+     * @return completes with true | false
+     */
+    @Override
+    public CompletionStage<Boolean> validateAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+        return validateAsync(annotatedTokens, requestTokenType, Claims.of(requestAssertions), request);
+    }
+
+    /**
+     * Iterate over validators cheapest first and pass if all off them return true; Waits for asynchronous
+     * validations if there are any.
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return true | false
+     */
+    @Override
+    public boolean validate(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        if (!synchronous) {
+            CompletableFuture<Boolean> validated = validateAsync(annotatedTokens, requestTokenType, claims, request)
+                    .toCompletableFuture();
+            return !validated.isCompletedExceptionally() && Boolean.TRUE.equals(validated.join());
+        }
+        for (Step step : chain) {
+            long start = System.nanoTime();
+            boolean validated = step.sync.with(annotatedTokens, requestTokenType, claims, request);
+            step.record(System.nanoTime() - start, validated);
+            if (!validated) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /**
+     * Run the chain without blocking. Completes with false as soon as any validation fails, fails
+     * exceptionally or times out, and with true once all passed.
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return completes with true | false
+     */
+    @Override
+    public CompletionStage<Boolean> validateAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        if (synchronous) {
+            return CompletableFuture.completedFuture(validate(annotatedTokens, requestTokenType, claims, request));
+        }
+        if (independent.length == 0) {
+            return sequence(0, annotatedTokens, requestTokenType, claims, request);
+        }
+        CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(independent.length + 1);
+        for (Step step : independent) {
+            run(step, annotatedTokens, requestTokenType, claims, request)
+                    .whenComplete((validated, e) -> settle(outcome, pending, e == null && Boolean.TRUE.equals(validated)));
+        }
+        sequence(0, annotatedTokens, requestTokenType, claims, request)
+                .whenComplete((validated, e) -> settle(outcome, pending, e == null && Boolean.TRUE.equals(validated)));
+        return outcome;
+    }
+
+    /**
+     * Run the sequential validations from an index on, continuing synchronously while they complete
+     * synchronously
+     * @param from the index
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return completes with true if all passed, never exceptionally
+     */
+    protected CompletionStage<Boolean> sequence(int from, Token.Type[] annotatedTokens, Token.Type requestTokenType,
+                                                Claims claims, Http.Request request) {
+        for (int i = from; i < sequential.length; i++) {
+            CompletableFuture<Boolean> validated = run(sequential[i], annotatedTokens, requestTokenType, claims, request);
+            if (!validated.isDone()) {
+                int next = i + 1;
+                return validated.handle((ok, e) -> e == null && Boolean.TRUE.equals(ok)).thenCompose(ok -> ok
+                        ? sequence(next, annotatedTokens, requestTokenType, claims, request)
+                        : CompletableFuture.completedFuture(false));
+            }
+            if (validated.isCompletedExceptionally() || !Boolean.TRUE.equals(validated.join())) {
+                return CompletableFuture.completedFuture(false);
+            }
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * Start a validation, bound by its timeout, and count its outcome
+     * @param step the validation
+     * @param annotatedTokens the annotated tokens
+     * @param requestTokenType the request token type passed in
+     * @param claims the request assertions passed in
+     * @param request the actual request
+     * @return completes with true | false, exceptionally if the validation failed exceptionally, which is
+     * logged here with its cause
+     */
+    protected CompletableFuture<Boolean> run(Step step, Token.Type[] annotatedTokens, Token.Type requestTokenType,
+                                             Claims claims, Http.Request request) {
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> validated;
+        try {
+            validated = step.validation.withAsync(annotatedTokens, requestTokenType, claims, request)
+                    .toCompletableFuture();
+        } catch (RuntimeException e) {
+            validated = new CompletableFuture<>();
+            validated.completeExceptionally(e);
+        }
+        if (!validated.isDone() && scheduler != null && step.timeoutMillis > 0) {
+            validated = within(step, validated);
+        }
+        validated.whenComplete((ok, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                logger.error(VALIDATION_FAILED, step, cause.getMessage(), cause);
+            }
+            step.record(System.nanoTime() - start, e == null && Boolean.TRUE.equals(ok));
+        });
         return validated;
     }
+
+    /**
+     * Complete with false if a validation takes longer than its timeout
+     * @param step the validation
+     * @param validated its result
+     * @return the result or false on timeout
+     */
+    protected CompletableFuture<Boolean> within(Step step, CompletableFuture<Boolean> validated) {
+        CompletableFuture<Boolean> timed = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+            if (timed.complete(false)) {
+                step.timeouts.increment();
+            }
+        }, step.timeoutMillis, TimeUnit.MILLISECONDS);
+        validated.whenComplete((ok, e) -> {
+            timeout.cancel(false);
+            if (e != null) {
+                timed.completeExceptionally(e);
+            } else {
+                timed.complete(ok);
+            }
+        });
+        return timed;
+    }
+
+    /**
+     * Fail the outcome on the first failed part, pass it when the last part passed
+     * @param outcome the outcome
+     * @param pending parts not yet passed
+     * @param validated did this part pass?
+     */
+    protected void settle(CompletableFuture<Boolean> outcome, AtomicInteger pending, boolean validated) {
+        if (!validated) {
+            outcome.complete(false);
+        } else if (pending.decrementAndGet() == 0) {
+            outcome.complete(true);
+        }
+    }
+
+    /**
+     * Are all validations synchronous, so validateAsync completes before it returns?
+     * @return true | false
+     */
+    public boolean isSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Are all validations asynchronous, so the chain composes without blocking the calling thread?
+     * @return true | false
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Get timing and rejection counters per validation, in the order they run
+     * @return the stats
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(Arrays.asList(chain));
+    }
+
+    /**
+     * Order validations by cost, keeping the registration order for equal cost and synchronous before
+     * asynchronous validations
+     * @param assertionValidations the validations
+     * @param asyncAssertionValidations the asynchronous validations
+     * @param defaultTimeoutMillis timeout of validations that do not declare one
+     * @return the chain
+     */
+    protected static Step[] compile(List<AssertionValidation> assertionValidations,
+                                    List<AsyncAssertionValidation> asyncAssertionValidations,
+                                    long defaultTimeoutMillis) {
+        List<Step> steps = new ArrayList<>();
+        for (AssertionValidation assertionValidation : assertionValidations) {
+            steps.add(new Step(new AssertionValidationAdapter(assertionValidation), assertionValidation, 0));
+        }
+        for (AsyncAssertionValidation asyncAssertionValidation : asyncAssertionValidations) {
+            long timeout = asyncAssertionValidation.getTimeoutMillis();
+            steps.add(new Step(asyncAssertionValidation, null, timeout > 0 ? timeout : defaultTimeoutMillis));
+        }
+        steps.sort(Comparator.comparingInt(step -> step.validation.getCost()));
+        return steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Combine the set binding with a direct AssertionValidation binding, if there is one
+     * @param assertionValidations the set
+     * @param injector the injector
+     * @return the validations
+     */
+    protected static List<AssertionValidation> withDirectBinding(Set<AssertionValidation> assertionValidations,
+                                                                 Injector injector) {
+        List<AssertionValidation> validations = new ArrayList<>(assertionValidations);
+        Binding<AssertionValidation> direct = injector.getExistingBinding(Key.get(AssertionValidation.class));
+        if (direct != null) {
+            AssertionValidation validation = direct.getProvider().get();
+            if (validations.stream().noneMatch(v -> v.getClass() == validation.getClass())) {
+                validations.add(validation);
+            }
+        }
+        return validations;
+    }
+
+    /**
+     * A validation in the chain, with its counters
+     */
+    public static final class Step {
+        private final AsyncAssertionValidation validation;
+        private final AssertionValidation sync;
+        private final long timeoutMillis;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        protected Step(AsyncAssertionValidation validation, AssertionValidation sync, long timeoutMillis) {
+            this.validation = validation;
+            this.sync = sync;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        protected void record(long elapsed, boolean validated) {
+            invocations.increment();
+            nanos.add(elapsed);
+            if (!validated) {
+                rejections.increment();
+            }
+        }
+
+        /**
+         * Get the validation, synchronous ones wrapped in AssertionValidationAdapter
+         * @return the validation
+         */
+        public AsyncAssertionValidation getValidation() {
+            return validation;
+        }
+
+        /**
+         * How often it ran
+         * @return the count
+         */
+        public long getInvocationCount() {
+            return invocations.sum();
+        }
+
+        /**
+         * How often it failed a request, including timeouts
+         * @return the count
+         */
+        public long getRejectionCount() {
+            return rejections.sum();
+        }
+
+        /**
+         * How often it took longer than its timeout
+         * @return the count
+         */
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+
+        /**
+         * Total time spent in it
+         * @return in nanoseconds
+         */
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return (sync != null ? sync.getClass() : validation.getClass()).getSimpleName()
+                    + "{cost=" + validation.getCost()
+                    + ", invocations=" + getInvocationCount()
+                    + ", rejections=" + getRejectionCount()
+                    + ", timeouts=" + getTimeoutCount()
+                    + ", totalNanos=" + getTotalNanos() + "}";
+        }
+    }
 }
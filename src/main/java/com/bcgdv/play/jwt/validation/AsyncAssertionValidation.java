@@ -0,0 +1,64 @@
+/**
+ * AsyncAssertionValidation
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import play.mvc.Http;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Check assertions without blocking, i.e. against a backend. Register with a Multibinder set next to
+ * AssertionValidation implementations.
+ */
+public interface AsyncAssertionValidation {
+
+    /**
+     * Validate assertions for
+     * @param annotatedTokens these annotated tokens
+     * @param requestTokenType the passed in token type from the http request
+     * @param requestAssertions the assertions made by the passed in token
+     * @param request the actual request if needed, i.e. headers or body
+     * @return completes with true for pass and false for fail. Failing exceptionally fails the request.
+     */
+    CompletionStage<Boolean> withAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request);
+
+    /**
+     * Validate typed assertions, see AssertionValidation.with(..., Claims, ...)
+     * @param annotatedTokens these annotated tokens
+     * @param requestTokenType the passed in token type from the http request
+     * @param claims the assertions made by the passed in token
+     * @param request the actual request if needed, i.e. headers or body
+     * @return completes with true for pass and false for fail
+     */
+    default CompletionStage<Boolean> withAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Claims claims, Http.Request request) {
+        return withAsync(annotatedTokens, requestTokenType, claims.asMap(), request);
+    }
+
+    /**
+     * Relative cost of this validation, see AssertionValidation.getCost()
+     * @return the cost
+     */
+    default int getCost() {
+        return AssertionValidation.DEFAULT_COST;
+    }
+
+    /**
+     * Max time to wait for this validation, the request fails if it takes longer
+     * @return the timeout in millis, 0 for the JWT_ASSERTION_TIMEOUT_MS setting
+     */
+    default long getTimeoutMillis() {
+        return 0;
+    }
+
+    /**
+     * Does this validation not depend on others passing first? Independent validations start together
+     * with the first one in the chain instead of waiting for the cheaper ones to pass.
+     * @return true | false
+     */
+    default boolean isIndependent() {
+        return false;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * ClaimExtractor
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pulls a fixed set of fields out of a JSON document in one streaming pass, without building a tree.
+ * A field resolves to its first occurrence in document order at any depth, the same node JsonNode.findPath
+ * returns. Objects and arrays are not materialized, only their position in the input is kept so they can
+ * be parsed later if needed. A field repeated in the object it was found in is rejected, a tree would keep
+ * the last value and the token would read differently depending on who parses it.
+ */
+public final class ClaimExtractor {
+    protected static final Logger logger = LoggerFactory.getLogger(ClaimExtractor.class);
+
+    protected static final String DUPLICATE_FIELD = "duplicate field {} in token, I will reject this request";
+
+    /**
+     * don't use me
+     */
+    private ClaimExtractor() {
+    }
+
+    /**
+     * Read the parser to the end and close it. The whole document is read, a duplicate may follow the
+     * last field found.
+     *
+     * @param parser the parser over the document
+     * @param names  the field names
+     * @return one claim per name, in the same order
+     * @throws IOException if the document is not valid JSON
+     * @throws JwtValidationException if a field is repeated in the same object
+     */
+    public static Claim[] extract(JsonParser parser, String... names) throws IOException, JwtValidationException {
+        Claim[] claims = new Claim[names.length];
+        for (int i = 0; i < names.length; i++) {
+            claims[i] = new Claim();
+        }
+        int[] objects = new int[8];
+        int created = 0;
+        int open = 0;
+        int depth = 0;
+        try (JsonParser p = parser) {
+            JsonToken token;
+            while ((token = p.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME) {
+                    Claim claim = unresolved(claims, names, p.getCurrentName(), objects[depth]);
+                    if (claim == null) {
+                        continue;
+                    }
+                    token = p.nextToken();
+                    claim.found = true;
+                    claim.object = objects[depth];
+                    if (token.isStructStart()) {
+                        claim.start = offset(p.getTokenLocation());
+                        claim.depth = depth;
+                        open++;
+                    } else {
+                        claim.text = token == JsonToken.VALUE_NULL ? null : p.getText();
+                        claim.longValue = p.getValueAsLong(0);
+                        continue;
+                    }
+                }
+                if (token.isStructStart()) {
+                    depth++;
+                    if (depth == objects.length) {
+                        objects = Arrays.copyOf(objects, depth * 2);
+                    }
+                    objects[depth] = ++created;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                    if (open > 0 && close(claims, depth, offset(p.getTokenLocation()) + 1)) {
+                        open--;
+                    }
+                }
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Find the claim a field resolves to
+     *
+     * @param claims the claims
+     * @param names  the field names
+     * @param name   the field
+     * @param object the object the field is in
+     * @return the claim, null if the field is not wanted or already resolved elsewhere
+     * @throws JwtValidationException if the field was resolved in the same object
+     */
+    private static Claim unresolved(Claim[] claims, String[] names, String name, int object) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                if (!claims[i].found) {
+                    return claims[i];
+                }
+                if (claims[i].object == object) {
+                    logger.debug(DUPLICATE_FIELD, name);
+                    throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, "duplicate field " + name);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean close(Claim[] claims, int depth, int end) {
+        for (Claim claim : claims) {
+            if (claim.start >= 0 && claim.end < 0 && claim.depth == depth) {
+                claim.end = end;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int offset(JsonLocation location) {
+        return (int) (location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset());
+    }
+
+    /**
+     * A field found in the document, or not
+     */
+    public static final class Claim {
+        private boolean found;
+        private String text;
+        private long longValue;
+        private int start = -1;
+        private int end = -1;
+        private int depth;
+        private int object;
+
+        /**
+         * Was the field present?
+         *
+         * @return true | false
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        /**
+         * Get the value as text, like JsonNode.asText
+         *
+         * @param defaultValue returned if the field is missing or null
+         * @return the text, blank for objects and arrays
+         */
+        public String asText(String defaultValue) {
+            if (!found || isNull()) {
+                return defaultValue;
+            }
+            return text != null ? text : "";
+        }
+
+        /**
+         * Is the value JSON null?
+         *
+         * @return true | false
+         */
+        public boolean isNull() {
+            return found && text == null && start < 0;
+        }
+
+        /**
+         * Get the value as text, blank if missing
+         *
+         * @return the text
+         */
+        public String asText() {
+            return asText("");
+        }
+
+        /**
+         * Get the value as long, like JsonNode.asLong
+         *
+         * @return the number, 0 if missing or not a number
+         */
+        public long asLong() {
+            return longValue;
+        }
+
+        /**
+         * Is the value an object or array?
+         *
+         * @return true | false
+         */
+        public boolean isContainer() {
+            return start >= 0 && end > start;
+        }
+
+        /**
+         * First byte or char offset of an object or array in the input
+         *
+         * @return the offset, -1 for scalars
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Offset after the end of an object or array in the input
+         *
+         * @return the offset, -1 for scalars
+         */
+        public int getEnd() {
+            return end;
+        }
+    }
+}
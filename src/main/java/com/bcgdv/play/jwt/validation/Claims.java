@@ -0,0 +1,326 @@
+/*
+ * Claims
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read only, typed view of the assertions of a token. The assertions object is indexed on first access in one
+ * streaming pass that keeps scalar values and only the position of objects and arrays. Objects and arrays are
+ * decoded one claim at a time when asked for and kept for later calls. An assertion repeated in the object is
+ * rejected as malformed token, like ClaimExtractor does.
+ */
+public final class Claims {
+
+    /**
+     * Has no claims
+     */
+    public static final Claims EMPTY = of(Collections.emptyMap());
+
+    /**
+     * Stands for JSON null in the maps below, which cannot hold null
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * Has the assertions object as JSON, null if backed by a map
+     */
+    private final String json;
+
+    /**
+     * Has the values of a map backed view
+     */
+    private final Map<?, ?> map;
+
+    /**
+     * Has scalar values and the position of objects and arrays by name, built on first access
+     */
+    private volatile Map<String, Object> index;
+
+    /**
+     * Has decoded objects and arrays by name
+     */
+    private final ConcurrentMap<String, Object> decoded = new ConcurrentHashMap<>();
+
+    /**
+     * Has the map adapter, built on first request
+     */
+    private volatile Map<Object, Object> view;
+
+    private Claims(String json, Map<?, ?> map) {
+        this.json = json;
+        this.map = map;
+    }
+
+    /**
+     * View an assertions object inside a JSON document
+     *
+     * @param json  the document
+     * @param start offset of the object's opening brace
+     * @param end   offset after the object's closing brace
+     * @return the claims
+     */
+    public static Claims of(String json, int start, int end) {
+        return new Claims(json.substring(start, end), null);
+    }
+
+    /**
+     * View an already decoded map, i.e. to call a typed AssertionValidation from the map based one
+     *
+     * @param assertions the map
+     * @return the claims
+     */
+    public static Claims of(Map<?, ?> assertions) {
+        return new Claims(null, assertions != null ? assertions : Collections.emptyMap());
+    }
+
+    /**
+     * Is the claim present?
+     *
+     * @param name the claim
+     * @return true | false
+     */
+    public boolean has(String name) {
+        return map != null ? map.containsKey(name) : index().containsKey(name);
+    }
+
+    /**
+     * Get a claim as decoded by Jackson, objects as Map and arrays as List, both read only
+     *
+     * @param name the claim
+     * @return the value, null if absent or null
+     */
+    public Object get(String name) {
+        if (map != null) {
+            return map.get(name);
+        }
+        Object value = index().get(name);
+        if (value instanceof Range) {
+            value = decoded.computeIfAbsent(name, n -> decode((Range) index().get(n)));
+        }
+        return value == NULL ? null : value;
+    }
+
+    /**
+     * Get a claim as text
+     *
+     * @param name the claim
+     * @return the text of scalars, null if absent, null, an object or an array
+     */
+    public String getString(String name) {
+        Object value = get(name);
+        return value == null || value instanceof Map || value instanceof List ? null : String.valueOf(value);
+    }
+
+    /**
+     * Get a claim as long
+     *
+     * @param name         the claim
+     * @param defaultValue returned if absent or not a number
+     * @return the number
+     */
+    public long getLong(String name, long defaultValue) {
+        Object value = get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get a claim as boolean
+     *
+     * @param name         the claim
+     * @param defaultValue returned if absent or not a boolean
+     * @return true | false
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Object value = get(name);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof String) {
+            return Boolean.parseBoolean((String) value);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get an array claim
+     *
+     * @param name the claim
+     * @return the elements, empty if absent or not an array
+     */
+    public List<?> getList(String name) {
+        Object value = get(name);
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    /**
+     * Get an object claim
+     *
+     * @param name the claim
+     * @return the object, empty if absent or not an object
+     */
+    public Map<?, ?> getMap(String name) {
+        Object value = get(name);
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    /**
+     * Get the names of all claims
+     *
+     * @return the names in document order
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> names() {
+        return map != null ? (Set<String>) map.keySet() : index().keySet();
+    }
+
+    /**
+     * Read only map over the claims. Single claims are decoded as they are read, iterating decodes all.
+     *
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Object, Object> asMap() {
+        if (map != null) {
+            return Collections.unmodifiableMap((Map<Object, Object>) (Map) map);
+        }
+        Map<Object, Object> adapter = this.view;
+        if (adapter == null) {
+            adapter = new ClaimsMap();
+            this.view = adapter;
+        }
+        return adapter;
+    }
+
+    /**
+     * Index the assertions object on first call
+     *
+     * @return scalar values and positions by name
+     */
+    private Map<String, Object> index() {
+        Map<String, Object> fields = this.index;
+        if (fields == null) {
+            fields = scan();
+            this.index = fields;
+        }
+        return fields;
+    }
+
+    private Map<String, Object> scan() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        try (JsonParser p = Json.mapper().getFactory().createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return Collections.emptyMap();
+            }
+            JsonToken token;
+            while ((token = p.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                token = p.nextToken();
+                Object value;
+                if (token == null) {
+                    break;
+                } else if (token.isStructStart()) {
+                    int start = (int) p.getTokenLocation().getCharOffset();
+                    p.skipChildren();
+                    value = new Range(start, (int) p.getTokenLocation().getCharOffset() + 1);
+                } else if (token == JsonToken.VALUE_STRING) {
+                    value = p.getText();
+                } else if (token.isNumeric()) {
+                    value = p.getNumberValue();
+                } else if (token.isBoolean()) {
+                    value = p.getBooleanValue();
+                } else {
+                    value = NULL;
+                }
+                if (fields.put(name, value) != null) {
+                    throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, "duplicate assertion " + name);
+                }
+            }
+        } catch (IOException e) {
+            throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, e);
+        }
+        return Collections.unmodifiableMap(fields);
+    }
+
+    private Object decode(Range range) {
+        try {
+            Object value = Json.mapper().readValue(json.substring(range.start, range.end), Object.class);
+            if (value instanceof Map) {
+                return Collections.unmodifiableMap((Map<?, ?>) value);
+            }
+            if (value instanceof List) {
+                return Collections.unmodifiableList((List<?>) value);
+            }
+            return value;
+        } catch (IOException e) {
+            throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return json != null ? json : String.valueOf(map);
+    }
+
+    /**
+     * Position of an object or array in the assertions object
+     */
+    private static final class Range {
+        private final int start;
+        private final int end;
+
+        private Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Map adapter for AssertionValidation implementations that take the assertions as Map
+     */
+    private final class ClaimsMap extends AbstractMap<Object, Object> {
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? Claims.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && has((String) key);
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            Set<Entry<Object, Object>> entries = new LinkedHashSet<>();
+            for (String name : names()) {
+                entries.add(new SimpleImmutableEntry<>(name, Claims.this.get(name)));
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+    }
+}
@@ -27,4 +27,13 @@ public class DefaultAssertionValidation implements AssertionValidation {
     public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
         return true;
     }
+
+    /**
+     * Free, runs first
+     * @return 0
+     */
+    @Override
+    public int getCost() {
+        return 0;
+    }
 }
@@ -6,6 +6,8 @@ package com.bcgdv.play.jwt.validation;
 import play.mvc.Http;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Provides methods to secure requests via HTTP Header inspection
@@ -20,4 +22,26 @@ public interface HttpRequestValidator {
      * errors, "no news is good news"
      */
     Optional<String> validate(Http.RequestHeader requestHeader);
+
+    /**
+     * Validate a request without blocking the calling thread on remote calls. Defaults to the blocking
+     * variant for implementations that have nothing to wait for.
+     *
+     * @param requestHeader The current http request header
+     * @return Optional String with validation errors, completes when validation is done
+     */
+    default CompletionStage<Optional<String>> validateAsync(Http.RequestHeader requestHeader) {
+        return CompletableFuture.completedFuture(validate(requestHeader));
+    }
+
+    /**
+     * Validate a request like validateAsync, but tell why it was rejected instead of describing it.
+     * Defaults to UNKNOWN for implementations that do not distinguish reasons.
+     *
+     * @param requestHeader The current http request header
+     * @return Optional reject reason, empty if request has no validation errors
+     */
+    default CompletionStage<Optional<RejectReason>> rejectReasonAsync(Http.RequestHeader requestHeader) {
+        return validateAsync(requestHeader).thenApply(error -> error.map(message -> RejectReason.UNKNOWN));
+    }
 }
@@ -1,10 +1,18 @@
 package com.bcgdv.play.jwt.validation;
 
+import com.bcgdv.jwt.models.Token;
 import com.bcgdv.play.jwt.Anonymous;
 import com.bcgdv.play.jwt.Secure;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
 import com.bcgdv.play.jwt.model.AnnotationInfo;
 import com.bcgdv.play.jwt.model.Play;
-import com.bcgdv.play.jwt.util.JwtAnnotationHelper;
+import com.bcgdv.play.jwt.model.RoutePolicy;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.bcgdv.play.jwt.util.RouteSecurityRegistry;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.SecurityLog;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.reflections.Reflections;
@@ -21,7 +29,17 @@ import play.routing.Router;
 
 import java.net.URL;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * Validates incoming HTTP requests for JWT Tokens. Note this class lazy loads and initializes
@@ -35,8 +53,10 @@ public class HttpRequestValidatorJwtAuthorizationHeaderImpl implements HttpReque
     /**
      * Error messages
      */
-    protected static final String SECURE_REQUEST_VALIDATION_FAILURE = "request detected as secureable for URI %s, but failed token validation, cause: %s";
-    protected static final String NONSECURE_REQUEST = "request detected as not secureable, no token required for URI: ";
+    protected static final String NONSECURE_REQUEST = "request detected as not secureable, no token required for URI: {}";
+    protected static final String GENERATED_REGISTRY_LOADED = "loaded route security from generated registries {}";
+    protected static final String VALIDATION_QUEUE_FULL = "validation queue is full";
+    protected static final String GENERATED_REGISTRY_MISSING = "no generated registry service or {}, scanning package {} for route security";
 
     /**
      * has service to validate integrity of jwt
@@ -53,11 +73,36 @@ public class HttpRequestValidatorJwtAuthorizationHeaderImpl implements HttpReque
      */
     protected Reflections reflections;
 
+    /**
+     * lazy builds the route policy index once, after reflections become available
+     */
+    protected volatile RouteSecurityIndex routeSecurityIndex;
+
     /**
      * has access to environment for play classloader
      */
     protected Environment environment;
 
+    /**
+     * counts accepted and rejected tokens
+     */
+    protected SecurityMetrics securityMetrics;
+
+    /**
+     * logs outcomes sampled and rate limited
+     */
+    protected SecurityLog securityLog;
+
+    /**
+     * validates tokens off the calling thread if set, see JWT_VALIDATION_THREADS and JWT_VIRTUAL_THREADS
+     */
+    protected Executor validationExecutor;
+
+    /**
+     * Name of the validation queue depth gauge
+     */
+    public static final String VALIDATION_QUEUE_DEPTH = "validation queue depth";
+
 
     /**
      * Build with services and environment
@@ -66,13 +111,73 @@ public class HttpRequestValidatorJwtAuthorizationHeaderImpl implements HttpReque
      * @param jwtPayloadValidationService   to check token payload
      * @param environment                   to access classloader
      */
-    @Inject
     public HttpRequestValidatorJwtAuthorizationHeaderImpl(JwtIntegrityValidationService jwtIntegrityValidationService,
                                                           JwtPayloadValidationService jwtPayloadValidationService,
                                                           Environment environment) {
+        this(jwtIntegrityValidationService, jwtPayloadValidationService, environment, new NoopSecurityMetrics());
+    }
+
+
+    /**
+     * Build with services, environment and metrics
+     *
+     * @param jwtIntegrityValidationService to check token integrity
+     * @param jwtPayloadValidationService   to check token payload
+     * @param environment                   to access classloader
+     * @param securityMetrics               to count outcomes
+     */
+    public HttpRequestValidatorJwtAuthorizationHeaderImpl(JwtIntegrityValidationService jwtIntegrityValidationService,
+                                                          JwtPayloadValidationService jwtPayloadValidationService,
+                                                          Environment environment,
+                                                          SecurityMetrics securityMetrics) {
+        this(jwtIntegrityValidationService, jwtPayloadValidationService, environment, securityMetrics, new SecurityLog());
+    }
+
+
+    /**
+     * Build with services, environment and metrics
+     *
+     * @param jwtIntegrityValidationService to check token integrity
+     * @param jwtPayloadValidationService   to check token payload
+     * @param environment                   to access classloader
+     * @param securityMetrics               to count outcomes
+     * @param securityLog                   to log outcomes
+     */
+    public HttpRequestValidatorJwtAuthorizationHeaderImpl(JwtIntegrityValidationService jwtIntegrityValidationService,
+                                                          JwtPayloadValidationService jwtPayloadValidationService,
+                                                          Environment environment,
+                                                          SecurityMetrics securityMetrics,
+                                                          SecurityLog securityLog) {
         this.jwtIntegrityValidationService = jwtIntegrityValidationService;
         this.jwtPayloadValidationService = jwtPayloadValidationService;
         this.environment = environment;
+        this.securityMetrics = securityMetrics;
+        this.securityLog = securityLog;
+    }
+
+
+    /**
+     * Build with services, environment, metrics and the validation pool, if JWT_VALIDATION_THREADS is set
+     *
+     * @param jwtIntegrityValidationService to check token integrity
+     * @param jwtPayloadValidationService   to check token payload
+     * @param environment                   to access classloader
+     * @param securityMetrics               to count outcomes
+     * @param securityLog                   to log outcomes
+     * @param securityExecutors             has the validation pool
+     */
+    @Inject
+    public HttpRequestValidatorJwtAuthorizationHeaderImpl(JwtIntegrityValidationService jwtIntegrityValidationService,
+                                                          JwtPayloadValidationService jwtPayloadValidationService,
+                                                          Environment environment,
+                                                          SecurityMetrics securityMetrics,
+                                                          SecurityLog securityLog,
+                                                          SecurityExecutors securityExecutors) {
+        this(jwtIntegrityValidationService, jwtPayloadValidationService, environment, securityMetrics, securityLog);
+        this.validationExecutor = securityExecutors.validation();
+        if (validationExecutor != null) {
+            securityMetrics.registerGauge(VALIDATION_QUEUE_DEPTH, securityExecutors::getValidationQueueDepth);
+        }
     }
 
 
@@ -102,47 +207,277 @@ public class HttpRequestValidatorJwtAuthorizationHeaderImpl implements HttpReque
 
 
     /**
-     * Validate request by looking for and validating contents of JWT token.
+     * Lazy loading of the route policy index. Uses the compile time registry if present, otherwise scans
+     * annotations once and keeps the result.
+     *
+     * @return the RouteSecurityIndex
+     */
+    public RouteSecurityIndex getRouteSecurityIndex() {
+        RouteSecurityIndex index = this.routeSecurityIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = this.routeSecurityIndex;
+                if (index == null) {
+                    index = generatedRouteSecurityIndex()
+                            .orElseGet(() -> RouteSecurityIndex.of(filterAnnotationInfo()));
+                    this.routeSecurityIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * Load the registries generated by RouteSecurityProcessor from the play classloader, one per module compiled
+     * with it, and merge them. Registries are listed as services, a registry generated by an earlier version
+     * under the fixed name is added too.
+     *
+     * @return the index, or empty if the application was compiled without the processor
+     */
+    protected Optional<RouteSecurityIndex> generatedRouteSecurityIndex() {
+        RouteSecurityIndex.Builder builder = new RouteSecurityIndex.Builder();
+        Set<String> loaded = new LinkedHashSet<>();
+        try {
+            for (RouteSecurityRegistry registry : ServiceLoader.load(RouteSecurityRegistry.class, playClassLoader())) {
+                if (loaded.add(registry.getClass().getName())) {
+                    registry.register(builder);
+                }
+            }
+            if (!loaded.contains(RouteSecurityRegistry.GENERATED_CLASS_NAME)) {
+                ((RouteSecurityRegistry) Class
+                        .forName(RouteSecurityRegistry.GENERATED_CLASS_NAME, true, playClassLoader())
+                        .newInstance())
+                        .register(builder);
+                loaded.add(RouteSecurityRegistry.GENERATED_CLASS_NAME);
+            }
+        } catch (ClassNotFoundException e) {
+            // compiled without the processor, or with a version that lists its registry as a service
+        } catch (InstantiationException | IllegalAccessException | ServiceConfigurationError e) {
+            throw new IllegalStateException("unable to load generated route security registry", e);
+        }
+        if (loaded.isEmpty()) {
+            logger.info(GENERATED_REGISTRY_MISSING, RouteSecurityRegistry.GENERATED_CLASS_NAME, playControllerPackage());
+            return Optional.empty();
+        }
+        logger.info(GENERATED_REGISTRY_LOADED, loaded);
+        return Optional.of(builder.build());
+    }
+
+
+    /**
+     * Validate request by looking for and validating contents of JWT token. Runs the same validation as
+     * validateAsync, with key fetches on the calling thread.
      *
      * @param requestHeader The current http request header
      * @return empty String for success or error message included.
      */
     @Override
     public Optional<String> validate(Http.RequestHeader requestHeader) {
+        return failureAsync(requestHeader, true)
+                .toCompletableFuture()
+                .join()
+                .map(e -> failureMessage(requestHeader, e));
+    }
+
+
+    /**
+     * Validate request like validate, but hand remote key fetches to an executor instead of blocking.
+     *
+     * @param requestHeader The current http request header
+     * @return completes with empty for success or error message included.
+     */
+    @Override
+    public CompletionStage<Optional<String>> validateAsync(Http.RequestHeader requestHeader) {
+        return failureAsync(requestHeader)
+                .thenApply(failure -> failure.map(e -> failureMessage(requestHeader, e)));
+    }
+
+
+    /**
+     * Validate request like validateAsync, but complete with the reason of a rejection
+     *
+     * @param requestHeader The current http request header
+     * @return completes with empty for success or the reject reason.
+     */
+    @Override
+    public CompletionStage<Optional<RejectReason>> rejectReasonAsync(Http.RequestHeader requestHeader) {
+        return failureAsync(requestHeader)
+                .thenApply(failure -> failure.map(RejectReason::of));
+    }
+
+
+    /**
+     * Validate request without blocking, logging and counting the outcome
+     *
+     * @param requestHeader The current http request header
+     * @return completes with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> failureAsync(Http.RequestHeader requestHeader) {
+        return failureAsync(requestHeader, false);
+    }
+
+
+    /**
+     * Validate request, logging and counting the outcome
+     *
+     * @param requestHeader The current http request header
+     * @param blocking      validate on the calling thread, fetching keys there too, and complete before returning
+     * @return completes with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> failureAsync(Http.RequestHeader requestHeader, boolean blocking) {
         try {
-            AnnotationInfo filterAnnotationInfo = filterAnnotationInfo();
             String className = requestHeader.tags().get(Router.Tags.ROUTE_CONTROLLER);
             String methodName = requestHeader.tags().get(Router.Tags.ROUTE_ACTION_METHOD);
 
             if (requestIsNotForAPlayControllerButAResource(className, methodName)) {
-                logger.debug(NONSECURE_REQUEST + requestHeader.uri());
-                return Optional.empty();
+                logger.debug(NONSECURE_REQUEST, requestHeader.uri());
+                return CompletableFuture.completedFuture(Optional.empty());
             }
 
-            if (JwtAnnotationHelper.hasAnonymousAnnotation(
-                    filterAnnotationInfo.getAnonymousAnnotationInfo(),
-                    className,
-                    methodName)) {
-                logger.debug(NONSECURE_REQUEST + requestHeader.uri());
-                return Optional.empty();
-            } else {
-                jwtIntegrityValidationService
-                        .requestHasWellFormedToken(requestHeader);
-                jwtPayloadValidationService
-                        .validateJwtPayload(requestHeader, filterAnnotationInfo);
-                return Optional.empty();
+            RoutePolicy routePolicy = getRouteSecurityIndex().lookup(className, methodName);
+            if (routePolicy.isAnonymous()) {
+                logger.debug(NONSECURE_REQUEST, requestHeader.uri());
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            if (blocking) {
+                return tokenFailure(requestHeader, routePolicy);
             }
+            return validationExecutor != null
+                    ? tokenFailureOffloaded(requestHeader, routePolicy)
+                    : tokenFailureAsync(requestHeader, routePolicy);
         } catch (Exception e) {
-            String message = String.format(
-                    SECURE_REQUEST_VALIDATION_FAILURE,
-                    requestHeader.uri(),
-                    e.getMessage());
-            logger.warn(message);
-            return Optional.of(message);
+            return CompletableFuture.completedFuture(Optional.of(rejected(requestHeader, null, e)));
         }
     }
 
 
+    /**
+     * Validate the token of a secured route on the validation pool. Refuses the request with reason
+     * OVERLOADED if the pool's queue is full, instead of waiting.
+     *
+     * @param requestHeader The current http request header
+     * @param routePolicy   the policy of the route
+     * @return completes with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> tokenFailureOffloaded(Http.RequestHeader requestHeader, RoutePolicy routePolicy) {
+        CompletableFuture<Optional<Throwable>> failure = new CompletableFuture<>();
+        try {
+            validationExecutor.execute(() -> tokenFailureAsync(requestHeader, routePolicy)
+                    .whenComplete((cause, e) -> failure.complete(e != null ? Optional.of(e) : cause)));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Optional.of(rejected(requestHeader, null,
+                    new JwtValidationException(RejectReason.OVERLOADED, VALIDATION_QUEUE_FULL))));
+        }
+        return failure;
+    }
+
+
+    /**
+     * Validate the token of a secured route without blocking, logging and counting the outcome
+     *
+     * @param requestHeader The current http request header
+     * @param routePolicy   the policy of the route
+     * @return completes with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> tokenFailureAsync(Http.RequestHeader requestHeader, RoutePolicy routePolicy) {
+        return tokenFailure(requestHeader, routePolicy, tokenContext -> jwtPayloadValidationService
+                .validateJwtPayloadAsync(tokenContext, requestHeader, routePolicy));
+    }
+
+
+    /**
+     * Validate the token of a secured route on the calling thread, logging and counting the outcome
+     *
+     * @param requestHeader The current http request header
+     * @param routePolicy   the policy of the route
+     * @return completed with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> tokenFailure(Http.RequestHeader requestHeader, RoutePolicy routePolicy) {
+        return tokenFailure(requestHeader, routePolicy, tokenContext -> {
+            jwtPayloadValidationService.validateJwtPayload(tokenContext, requestHeader, routePolicy);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+
+    /**
+     * Parse the token of a secured route and run a payload validation, logging and counting the outcome
+     *
+     * @param requestHeader The current http request header
+     * @param routePolicy   the policy of the route
+     * @param validator     validates the payload of the parsed token
+     * @return completes with empty for success or the cause of the failure.
+     */
+    protected CompletionStage<Optional<Throwable>> tokenFailure(Http.RequestHeader requestHeader,
+                                                                RoutePolicy routePolicy,
+                                                                Function<TokenContext, CompletionStage<Void>> validator) {
+        try {
+            TokenContext tokenContext = jwtIntegrityValidationService
+                    .requestHasWellFormedToken(requestHeader);
+            CompletionStage<Void> payloadValidation;
+            try {
+                payloadValidation = validator.apply(tokenContext);
+            } catch (Exception e) {
+                return CompletableFuture.completedFuture(Optional.of(rejected(requestHeader, tokenContext, e)));
+            }
+            return payloadValidation.handle((ok, e) -> {
+                if (e != null) {
+                    return Optional.of(rejected(
+                            requestHeader, tokenContext, e instanceof CompletionException ? e.getCause() : e));
+                }
+                validationSuccess(requestHeader, tokenContext);
+                return Optional.<Throwable>empty();
+            });
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(Optional.of(rejected(requestHeader, null, e)));
+        }
+    }
+
+
+    /**
+     * Log and count a successful validation
+     *
+     * @param requestHeader the request header
+     * @param tokenContext  the validated token
+     */
+    protected void validationSuccess(Http.RequestHeader requestHeader, TokenContext tokenContext) {
+        Token.Type tokenType = jwtPayloadValidationService.tokenTypeOf(tokenContext);
+        securityMetrics.recordAccepted(tokenType);
+        securityLog.accepted(tokenType, requestHeader.uri());
+    }
+
+
+    /**
+     * Log and count a failed validation
+     *
+     * @param requestHeader the request header
+     * @param tokenContext  the token if it could be parsed, otherwise null
+     * @param e             the cause
+     * @return the cause
+     */
+    protected Throwable rejected(Http.RequestHeader requestHeader, TokenContext tokenContext, Throwable e) {
+        RejectReason reason = RejectReason.of(e);
+        Token.Type tokenType = tokenContext == null ? Token.Type.NONE : jwtPayloadValidationService.tokenTypeOf(tokenContext);
+        securityMetrics.recordRejected(reason, tokenType);
+        securityLog.rejected(reason, tokenType, requestHeader.uri(), e);
+        return e;
+    }
+
+
+    /**
+     * Describe a failed validation
+     *
+     * @param requestHeader the request header
+     * @param e             the cause
+     * @return the error message
+     */
+    protected String failureMessage(Http.RequestHeader requestHeader, Throwable e) {
+        return "request detected as secureable for URI " + requestHeader.uri()
+                + ", but failed token validation, cause: " + e.getMessage();
+    }
+
+
     /**
      * Requests for resources have null class and method names as Tags, because only controllers
      * are annotated. Allows URLs that map to other things than controllers to pass
@@ -216,13 +551,6 @@ public class HttpRequestValidatorJwtAuthorizationHeaderImpl implements HttpReque
      * @return as String
      */
     protected String playControllerPackage() {
-        String controllerPackage = System.getProperty(Play.CONTROLLER_PACKAGE);
-        if (controllerPackage == null) {
-            controllerPackage = System.getenv(Play.CONTROLLER_PACKAGE);
-        }
-        if (controllerPackage == null) {
-            controllerPackage = Play.DEFAULT_CONTROLLER_PACKAGE;
-        }
-        return controllerPackage;
+        return EnvironmentHelper.get(Play.CONTROLLER_PACKAGE, Play.DEFAULT_CONTROLLER_PACKAGE);
     }
 }
@@ -1,19 +1,23 @@
 package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import play.libs.Json;
 import play.mvc.Http;
 
-import static com.bcgdv.play.jwt.validation.JwtUtil.extractJwtPayloadAsJson;
 import static com.bcgdv.play.jwt.validation.JwtUtil.getAuthorizationHeaderContents;
 
 /**
- * Validates JWT Token integrity, not specific to TokenType
+ * Validates JWT Token integrity, not specific to TokenType. Checks run cheapest first and each rejects with its
+ * own reason: header presence, length, segment shape, base64 alphabet, payload parsing and expiry. Tokens
+ * that fail any of them never reach decryption or signature verification in JwtPayloadValidationService.
  */
 @Singleton
 public class JwtIntegrityValidationService {
@@ -21,16 +25,56 @@ public class JwtIntegrityValidationService {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtIntegrityValidationService.class);
 
+    /**
+     * Has metrics for header parsing and expiry check
+     */
+    protected SecurityMetrics securityMetrics;
+
+    /**
+     * Has the longest token accepted, 0 for no limit
+     */
+    protected int maxTokenLength;
+
+    /**
+     * Create without metrics
+     */
+    public JwtIntegrityValidationService() {
+        this(new NoopSecurityMetrics());
+    }
+
+    /**
+     * Create with metrics
+     *
+     * @param securityMetrics the metrics
+     */
+    @Inject
+    public JwtIntegrityValidationService(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+        this.maxTokenLength = EnvironmentHelper.getInt(Settings.MAX_TOKEN_LENGTH, Settings.DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
     /**
      * Checks for integrity of JWT Token
      *
      * @param requestHeader the request headers
+     * @return the token, split and decoded once for the following validation steps
      * @throws JwtValidationException if token is not well formed
      */
-    public void requestHasWellFormedToken(Http.RequestHeader requestHeader) throws JwtValidationException {
-        hasAuthHeader(requestHeader)
-                .andHasJWTToken(requestHeader)
-                .thatIsNotExpired(requestHeader);
+    public TokenContext requestHasWellFormedToken(Http.RequestHeader requestHeader) throws JwtValidationException {
+        if (!securityMetrics.isEnabled()) {
+            TokenContext tokenContext = hasAuthHeader(requestHeader)
+                    .andHasJWTToken(requestHeader);
+            thatIsNotExpired(tokenContext);
+            return tokenContext;
+        }
+        long start = System.nanoTime();
+        TokenContext tokenContext = hasAuthHeader(requestHeader)
+                .andHasJWTToken(requestHeader);
+        long parsed = System.nanoTime();
+        securityMetrics.recordStage(SecurityMetrics.Stage.HEADER_PARSING, parsed - start);
+        thatIsNotExpired(tokenContext);
+        securityMetrics.recordStage(SecurityMetrics.Stage.EXPIRY_CHECK, System.nanoTime() - parsed);
+        return tokenContext;
     }
 
     /**
@@ -43,45 +87,73 @@ public class JwtIntegrityValidationService {
     protected JwtIntegrityValidationService hasAuthHeader(Http.RequestHeader requestHeader) throws JwtValidationException {
         logger.debug("Validating Authorization Header for given request {}", requestHeader.uri());
         if (getAuthorizationHeaderContents(requestHeader.headers()).isEmpty()) {
-            throw new JwtValidationException("unable to locate HTTP Authorization header");
+            throw new JwtValidationException(RejectReason.MISSING_HEADER, "unable to locate HTTP Authorization header");
         }
         return this;
     }
 
     /**
-     * Does the http request have a valid JWT token? Split it into three pieces to find out. Note
-     * this could be implemented much nicer.
+     * Does the http request have a valid JWT token? Split it into three pieces once to find out, and decode
+     * the payload while at it.
      *
      * @param requestHeader the http request header
-     * @return service for builder pattern
+     * @return the parsed token
      * @throws JwtValidationException if token cannot be tested
      */
-    protected JwtIntegrityValidationService andHasJWTToken(Http.RequestHeader requestHeader) throws JwtValidationException {
+    protected TokenContext andHasJWTToken(Http.RequestHeader requestHeader) throws JwtValidationException {
         logger.debug("Validating jwt length for given request {}", requestHeader.uri());
-        String jwt = getAuthorizationHeaderContents(requestHeader.headers());
-        if (jwt.split("\\.").length != Token.LENGTH) {
-            throw new JwtValidationException("JWT token not made up of three required components, header, payload, signature");
+        return wellFormedToken(getAuthorizationHeaderContents(requestHeader.headers()));
+    }
+
+    /**
+     * Check the raw token cheapest first, before anything is decoded: length, then three segments, then the
+     * base64 alphabet of all three. Only then is the payload decoded and parsed.
+     *
+     * @param token the raw token
+     * @return the parsed token
+     * @throws JwtValidationException with TOKEN_TOO_LARGE or MALFORMED_TOKEN
+     */
+    protected TokenContext wellFormedToken(String token) throws JwtValidationException {
+        thatIsWithinLengthLimit(token);
+        TokenView view = TokenView.of(token);
+        thatIsBase64(view);
+        return TokenContext.parse(view);
+    }
+
+    /**
+     * Is the token no longer than JWT_MAX_TOKEN_LENGTH?
+     *
+     * @param token the raw token
+     * @throws JwtValidationException if the token is longer
+     */
+    protected void thatIsWithinLengthLimit(String token) throws JwtValidationException {
+        if (maxTokenLength > 0 && token.length() > maxTokenLength) {
+            throw new JwtValidationException(RejectReason.TOKEN_TOO_LARGE,
+                    "JWT token of " + token.length() + " characters exceeds " + maxTokenLength);
+        }
+    }
+
+    /**
+     * Are all segments made of base64 characters? Catches a garbage signature before the token is decrypted.
+     *
+     * @param view the scanned token
+     * @throws JwtValidationException if a segment is not base64
+     */
+    protected void thatIsBase64(TokenView view) throws JwtValidationException {
+        if (!view.isBase64()) {
+            throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, "JWT token segments are not base64 encoded");
         }
-        return this;
     }
 
     /**
      * Does the http request JWT token have a valid token that has not expired?
      *
-     * @param requestHeader the http request header
+     * @param tokenContext the parsed token
      * @throws JwtValidationException if the token is expired
      */
-    protected void thatIsNotExpired(Http.RequestHeader requestHeader) throws JwtValidationException {
-        JsonNode jsonNode =
-                extractJwtPayloadAsJson(
-                    getAuthorizationHeaderContents(
-                            requestHeader.headers()));
-
-        Long expiryTimeInMilliSeconds =
-                jsonNode.findPath(Token.Fields.expiryInMilliSeconds.toString()).asLong();
-        Long createdTime = JwtUtil.getDateCreated(jsonNode);
-        if (isExpired(createdTime, expiryTimeInMilliSeconds)) {
-            throw new JwtValidationException("JWT token is expired");
+    protected void thatIsNotExpired(TokenContext tokenContext) throws JwtValidationException {
+        if (isExpired(tokenContext.getDateCreated(), tokenContext.getExpiryInMilliSeconds())) {
+            throw new JwtValidationException(RejectReason.EXPIRED, "JWT token is expired");
         }
     }
 
@@ -1,27 +1,38 @@
 package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
 import com.bcgdv.play.jwt.model.AnnotationInfo;
-import com.bcgdv.play.jwt.util.JwtAnnotationHelper;
+import com.bcgdv.play.jwt.model.RoutePolicy;
 import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.TokenContextStore;
+import com.bcgdv.play.jwt.util.VerifiedTokenCache;
 import com.bcgdv.play.services.Api;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.simonmittag.cryptoutils.SimpleCipher;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import play.libs.Json;
 import play.mvc.Http;
 import play.routing.Router;
 
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.bcgdv.play.jwt.validation.JwtUtil.*;
 
@@ -35,6 +46,15 @@ public class JwtPayloadValidationService {
     protected Api api;
     protected SimpleCipher simpleCipher;
     protected PublicKeyCache publicKeyCache;
+    protected TokenContextStore tokenContextStore;
+    protected VerifiedTokenCache verifiedTokenCache;
+    protected SecurityExecutors securityExecutors;
+    protected SecurityMetrics securityMetrics;
+
+    /**
+     * Has one signature validation service per token type, created once
+     */
+    protected Map<Token.Type, JwtSignatureValidationService> signatureValidationServices;
 
     /**
      * Needs Api for callbacks, SimpleCipher for crypto operation and publicKeyCache for managing keys.
@@ -43,17 +63,83 @@ public class JwtPayloadValidationService {
      * @param simpleCipher   The cipher used for JWT operation
      * @param publicKeyCache key cache
      */
+    public JwtPayloadValidationService(Api api,
+                                       SimpleCipher simpleCipher,
+                                       PublicKeyCache publicKeyCache) {
+        this(api, simpleCipher, publicKeyCache, new TokenContextStore(), new VerifiedTokenCache(),
+                SecurityExecutors.shared());
+    }
+
+    /**
+     * Needs Api for callbacks, SimpleCipher for crypto operation, publicKeyCache for managing keys,
+     * tokenContextStore to hand decrypted tokens from filter to action, verifiedTokenCache to skip
+     * verification of known tokens and securityExecutors to fetch keys off the calling thread.
+     *
+     * @param api                The Microservice Api
+     * @param simpleCipher       The cipher used for JWT operation
+     * @param publicKeyCache     key cache
+     * @param tokenContextStore  validated token hand over
+     * @param verifiedTokenCache verified tokens
+     * @param securityExecutors  thread pools for blocking work
+     */
+    public JwtPayloadValidationService(Api api,
+                                       SimpleCipher simpleCipher,
+                                       PublicKeyCache publicKeyCache,
+                                       TokenContextStore tokenContextStore,
+                                       VerifiedTokenCache verifiedTokenCache,
+                                       SecurityExecutors securityExecutors) {
+        this(api, simpleCipher, publicKeyCache, tokenContextStore, verifiedTokenCache, securityExecutors,
+                new NoopSecurityMetrics());
+    }
+
+    /**
+     * Like the above, with metrics for decryption and signature verification
+     *
+     * @param api                The Microservice Api
+     * @param simpleCipher       The cipher used for JWT operation
+     * @param publicKeyCache     key cache
+     * @param tokenContextStore  validated token hand over
+     * @param verifiedTokenCache verified tokens
+     * @param securityExecutors  thread pools for blocking work
+     * @param securityMetrics    stage timings
+     */
     @Inject
     public JwtPayloadValidationService(Api api,
                                        @Named("symmetricCipher") SimpleCipher simpleCipher,
-                                       PublicKeyCache publicKeyCache) {
+                                       PublicKeyCache publicKeyCache,
+                                       TokenContextStore tokenContextStore,
+                                       VerifiedTokenCache verifiedTokenCache,
+                                       SecurityExecutors securityExecutors,
+                                       SecurityMetrics securityMetrics) {
         this.api = api;
+        this.securityMetrics = securityMetrics;
         this.simpleCipher = simpleCipher;
         this.publicKeyCache = publicKeyCache;
+        this.tokenContextStore = tokenContextStore;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.securityExecutors = securityExecutors;
+        this.signatureValidationServices = signatureValidationServices(api, publicKeyCache);
     }
 
     /**
-     * Validate tokens match the current method's annotations
+     * Create the signature validation services for all signed token types
+     *
+     * @param api            The Microservice Api
+     * @param publicKeyCache key cache
+     * @return services by token type
+     */
+    protected Map<Token.Type, JwtSignatureValidationService> signatureValidationServices(Api api,
+                                                                                        PublicKeyCache publicKeyCache) {
+        Map<Token.Type, JwtSignatureValidationService> services = new EnumMap<>(Token.Type.class);
+        services.put(Token.Type.CLIENT, new JwtSignatureValidationService.ForClientToken(api, publicKeyCache, securityMetrics));
+        services.put(Token.Type.SESSION, new JwtSignatureValidationService.ForSessionToken(api, publicKeyCache, securityMetrics));
+        services.put(Token.Type.SERVER, new JwtSignatureValidationService.ForServerToken(api, publicKeyCache, securityMetrics));
+        return services;
+    }
+
+    /**
+     * Validate tokens match the current method's annotations. Builds a throwaway index, prefer the
+     * RoutePolicy variant on the request path.
      *
      * @param tokentype the token type
      * @param requestHeader all http request headers
@@ -63,21 +149,53 @@ public class JwtPayloadValidationService {
     public void validateTokenType(String tokentype,
                                   Http.RequestHeader requestHeader,
                                   AnnotationInfo annotationInfo) throws JwtValidationException {
+        validateTokenType(tokentype, requestHeader, routePolicy(requestHeader, annotationInfo));
+    }
+
+    /**
+     * Validate tokens match the current route's precomputed policy
+     *
+     * @param tokentype the token type
+     * @param requestHeader all http request headers
+     * @param routePolicy the route policy
+     * @throws JwtValidationException if token type for annotation not valid, i.e. @Secure(NOT_VALID)
+     */
+    public void validateTokenType(String tokentype,
+                                  Http.RequestHeader requestHeader,
+                                  RoutePolicy routePolicy) throws JwtValidationException {
+        if (routePolicy.accepts(tokentype)) {
+            return;
+        }
+        logger.debug("For given request {} allowed tokens in method are {} but got {}", requestHeader.uri(), routePolicy, tokentype);
+        throw new JwtValidationException(RejectReason.WRONG_TOKEN_TYPE, "token type " + tokentype + " not accepted");
+    }
+
+    /**
+     * Resolve the route policy from annotation info
+     *
+     * @param requestHeader the request header with route tags
+     * @param annotationInfo the annotation info
+     * @return the route policy
+     */
+    protected RoutePolicy routePolicy(Http.RequestHeader requestHeader, AnnotationInfo annotationInfo) {
         String className = Preconditions.checkNotNull(requestHeader.tags().get(Router.Tags.ROUTE_CONTROLLER));
         String methodName = Preconditions.checkNotNull(requestHeader.tags().get(Router.Tags.ROUTE_ACTION_METHOD));
-        Optional<Token.Type[]> tokens =
-                JwtAnnotationHelper.findTokenTypesForSecureAnnotation(
-                        annotationInfo.getSecure(), className, methodName);
-
-        if (tokens.isPresent()) {
-            for (Token.Type t : tokens.get()) {
-                if (t != Token.Type.NONE && t.name().equalsIgnoreCase(tokentype)) {
-                    return;
-                }
-            }
-        }
-        logger.warn("For given request {} allowed tokens in method are {} but got {}", requestHeader.uri(), ArrayUtils.toString(tokens.get()), tokentype);
-        throw new JwtValidationException();
+        return RouteSecurityIndex.of(annotationInfo).lookup(className, methodName);
+    }
+
+    /**
+     * Find the token validated by the filter for these headers, or parse and decrypt it if the filter
+     * did not leave one behind.
+     *
+     * @param headers headers from HTTP request
+     * @return the decrypted token
+     * @throws JwtValidationException if the token cannot be parsed or decrypted
+     */
+    public TokenContext tokenContext(Map<String, String[]> headers) throws JwtValidationException {
+        String token = getAuthorizationHeaderContents(headers);
+        TokenContext tokenContext = tokenContextStore.get(token).orElseGet(() -> TokenContext.parse(token));
+        tokenContext.getContext(simpleCipher);
+        return tokenContext;
     }
 
     /**
@@ -88,19 +206,18 @@ public class JwtPayloadValidationService {
      * @throws JwtValidationException if token type cannot be established
      */
     public Token.Type extractTokenType(Map<String, String[]> headers) throws JwtValidationException {
-        String token =
-                getAuthorizationHeaderContents(headers);
-        JsonNode payloadNode =
-                extractAndDecryptSecret(
-                        simpleCipher,
-                        extractJwtPayloadAsJson(token));
-        try {
-            return Token.Type.valueOf(
-                    payloadNode.findPath(
-                            Token.Fields.tokenType.toString()).asText());
-        } catch (Exception e) {
-            return Token.Type.NONE;
-        }
+        return extractTokenType(tokenContext(headers));
+    }
+
+    /**
+     * Extract tokenType from an already parsed token
+     *
+     * @param tokenContext the token
+     * @return the token type, NONE if it cannot be established
+     * @throws JwtValidationException if the secret cannot be decrypted
+     */
+    public Token.Type extractTokenType(TokenContext tokenContext) throws JwtValidationException {
+        return tokenContext.getTokenType(simpleCipher);
     }
 
     /**
@@ -111,13 +228,29 @@ public class JwtPayloadValidationService {
      * @throws JwtValidationException if token type cannot be established
      */
     public Map extractAssertions(Map<String, String[]> headers) throws JwtValidationException {
-        JsonNode secret = extractAndDecryptSecret(
-                        simpleCipher,
-                        extractJwtPayloadAsJson(
-                                getAuthorizationHeaderContents(headers)));
-        return new ObjectMapper().convertValue(
-                secret.findPath(Token.Fields.assertions.toString()),
-                Map.class);
+        return extractAssertions(tokenContext(headers));
+    }
+
+    /**
+     * Extract assertions from an already parsed token
+     *
+     * @param tokenContext the token
+     * @return the assertions as Map
+     * @throws JwtValidationException if the secret cannot be decrypted
+     */
+    public Map extractAssertions(TokenContext tokenContext) throws JwtValidationException {
+        return tokenContext.getAssertions(simpleCipher);
+    }
+
+    /**
+     * Extract typed assertions from an already parsed token, claims are decoded as they are read
+     *
+     * @param tokenContext the token
+     * @return the assertions as Claims
+     * @throws JwtValidationException if the secret cannot be decrypted
+     */
+    public Claims extractClaims(TokenContext tokenContext) throws JwtValidationException {
+        return tokenContext.getClaims(simpleCipher);
     }
 
     /**
@@ -129,16 +262,138 @@ public class JwtPayloadValidationService {
      */
     public void validateJwtPayload(Http.RequestHeader requestHeader,
                                    AnnotationInfo annotationInfo) throws JwtValidationException {
-        String token = getAuthorizationHeaderContents(requestHeader.headers());
-        JsonNode payloadNode = extractAndDecryptSecret(
-                simpleCipher,
-                extractJwtPayloadAsJson(token));
-        String tokenType = payloadNode.findPath(Token.Fields.tokenType.toString()).asText();
+        validateJwtPayload(requestHeader, routePolicy(requestHeader, annotationInfo));
+    }
+
+    /**
+     * Get tokentype and payloadsignature, validate both against a precomputed route policy
+     *
+     * @param requestHeader the request header
+     * @param routePolicy   the route policy
+     * @throws JwtValidationException if payload cannot be validated
+     */
+    public void validateJwtPayload(Http.RequestHeader requestHeader,
+                                   RoutePolicy routePolicy) throws JwtValidationException {
+        validateJwtPayload(
+                TokenContext.parse(getAuthorizationHeaderContents(requestHeader.headers())),
+                requestHeader,
+                routePolicy);
+    }
+
+    /**
+     * Decrypt once, validate tokentype and payloadsignature, then keep the token for the @Secure action.
+     * Tokens found in the verified token cache skip decryption and signature verification. Runs
+     * validateJwtPayloadAsync with key fetches on the calling thread and waits for its outcome.
+     *
+     * @param tokenContext  the token parsed by JwtIntegrityValidationService
+     * @param requestHeader the request header
+     * @param routePolicy   the route policy
+     * @throws JwtValidationException if payload cannot be validated
+     */
+    public void validateJwtPayload(TokenContext tokenContext,
+                                   Http.RequestHeader requestHeader,
+                                   RoutePolicy routePolicy) throws JwtValidationException {
+        await(validateJwtPayloadAsync(tokenContext, requestHeader, routePolicy, Runnable::run));
+    }
+
+    /**
+     * Like validateJwtPayload, but never blocks on a remote key fetch. Decryption and checks against cached
+     * keys run on the calling thread, key fetches run on the key fetch executor.
+     *
+     * @param tokenContext  the token parsed by JwtIntegrityValidationService
+     * @param requestHeader the request header
+     * @param routePolicy   the route policy
+     * @return completes exceptionally if payload cannot be validated
+     */
+    public CompletionStage<Void> validateJwtPayloadAsync(TokenContext tokenContext,
+                                                         Http.RequestHeader requestHeader,
+                                                         RoutePolicy routePolicy) {
+        return validateJwtPayloadAsync(tokenContext, requestHeader, routePolicy, securityExecutors.keyFetch());
+    }
+
+    /**
+     * Decrypt once, validate tokentype and payloadsignature, then keep the token for the @Secure action
+     *
+     * @param tokenContext     the token parsed by JwtIntegrityValidationService
+     * @param requestHeader    the request header
+     * @param routePolicy      the route policy
+     * @param keyFetchExecutor runs remote key fetches
+     * @return completes exceptionally if payload cannot be validated
+     * @throws JwtValidationException if the token type cannot be established or is not accepted
+     */
+    protected CompletionStage<Void> validateJwtPayloadAsync(TokenContext tokenContext,
+                                                            Http.RequestHeader requestHeader,
+                                                            RoutePolicy routePolicy,
+                                                            Executor keyFetchExecutor) throws JwtValidationException {
+        Optional<TokenContext> verified = verifiedTokenCache.get(tokenContext);
+        TokenContext token = verified.orElse(tokenContext);
+        String tokenType = decryptTokenType(token);
         if (StringUtils.isBlank(tokenType)) {
-            throw new JwtValidationException("token type not specified");
+            throw new JwtValidationException(RejectReason.MISSING_TOKEN_TYPE, "token type not specified");
+        }
+        validateTokenType(tokenType, requestHeader, routePolicy);
+        if (verified.isPresent()) {
+            tokenContextStore.put(token);
+            return CompletableFuture.completedFuture(null);
+        }
+        return verifiedTokenCache
+                .verifyAsync(token, t -> validatePayloadSignatureInContextAsync(
+                        tokenType, t.getToken(), t.getContext(simpleCipher), keyFetchExecutor))
+                .thenRun(() -> tokenContextStore.put(token));
+    }
+
+    /**
+     * Wait for a validation. Work on the calling thread is done when it returns, only a key fetch started by
+     * another request is waited for, up to the key fetch wait.
+     *
+     * @param validation the validation
+     * @throws JwtValidationException with the cause of the failed validation
+     */
+    protected void await(CompletionStage<Void> validation) throws JwtValidationException {
+        try {
+            validation.toCompletableFuture().get(publicKeyCache.getFetchWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new JwtValidationException(cause instanceof Exception ? (Exception) cause : e);
+        } catch (TimeoutException e) {
+            throw new JwtValidationException(RejectReason.KEY_UNAVAILABLE, "timed out waiting for public key");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JwtValidationException(RejectReason.KEY_UNAVAILABLE, e);
+        }
+    }
+
+    /**
+     * Get the type of a token validated by this service without decrypting it again
+     *
+     * @param tokenContext the token
+     * @return the token type, NONE if it has not been decrypted
+     */
+    public Token.Type tokenTypeOf(TokenContext tokenContext) {
+        TokenContext token = tokenContextStore.get(tokenContext.getToken()).orElse(tokenContext);
+        return token.isDecrypted() ? token.getTokenType(simpleCipher) : Token.Type.NONE;
+    }
+
+    /**
+     * Decrypt the secret if not done yet, timing decryption, and get the token type
+     *
+     * @param tokenContext the token
+     * @return the token type as String, blank if absent
+     * @throws JwtValidationException if the secret cannot be decrypted
+     */
+    protected String decryptTokenType(TokenContext tokenContext) throws JwtValidationException {
+        if (tokenContext.isDecrypted() || !securityMetrics.isEnabled()) {
+            return tokenContext.getTokenTypeName(simpleCipher);
+        }
+        long start = System.nanoTime();
+        try {
+            return tokenContext.getTokenTypeName(simpleCipher);
+        } finally {
+            securityMetrics.recordStage(SecurityMetrics.Stage.DECRYPTION, System.nanoTime() - start);
         }
-        validateTokenType(tokenType, requestHeader, annotationInfo);
-        validatePayloadSignature(tokenType, token, payloadNode);
     }
 
     /**
@@ -152,26 +407,81 @@ public class JwtPayloadValidationService {
     public void validatePayloadSignature(String type,
                                          String token,
                                          JsonNode payloadNode) throws JwtValidationException {
-        String context = extractContext(payloadNode);
-        switch (Token.Type.valueOf(type)) {
-            case CLIENT:
-                new JwtSignatureValidationService
-                        .ForClientToken(api, publicKeyCache)
-                        .checkSignatureInContext(token, context);
-                break;
-            case SESSION:
-                new JwtSignatureValidationService
-                        .ForSessionToken(api, publicKeyCache)
-                        .checkSignatureInContext(token, context);
-                break;
-            case SERVER:
-                new JwtSignatureValidationService
-                        .ForServerToken(api, publicKeyCache)
-                        .checkSignatureInContext(token, context);
-                break;
-            default:
-                throw new JwtValidationException();
+        validatePayloadSignatureInContext(type, token, extractContext(payloadNode));
+    }
+
+    /**
+     * Validate payload signature against the key of the sender's context
+     *
+     * @param type    the type
+     * @param token   the token
+     * @param context the sender's context from the decrypted payload, may be null
+     * @throws JwtValidationException if content validation fails for any reason
+     */
+    protected void validatePayloadSignatureInContext(String type,
+                                                     String token,
+                                                     String context) throws JwtValidationException {
+        signatureValidationService(type).checkSignatureInContext(token, requireContext(context));
+    }
+
+    /**
+     * Validate payload signature, fetching keys asynchronously
+     *
+     * @param type        the type
+     * @param token       the token
+     * @param payloadNode the decrypted payload
+     * @return completes exceptionally if content validation fails for any reason
+     */
+    public CompletionStage<Void> validatePayloadSignatureAsync(String type,
+                                                               String token,
+                                                               JsonNode payloadNode) {
+        return validatePayloadSignatureInContextAsync(type, token, extractContext(payloadNode));
+    }
+
+    /**
+     * Validate payload signature against the key of the sender's context, fetching keys asynchronously
+     *
+     * @param type    the type
+     * @param token   the token
+     * @param context the sender's context from the decrypted payload, may be null
+     * @return completes exceptionally if content validation fails for any reason
+     */
+    protected CompletionStage<Void> validatePayloadSignatureInContextAsync(String type,
+                                                                           String token,
+                                                                           String context) {
+        return validatePayloadSignatureInContextAsync(type, token, context, securityExecutors.keyFetch());
+    }
+
+    /**
+     * Validate payload signature against the key of the sender's context, fetching keys on the given executor
+     *
+     * @param type             the type
+     * @param token            the token
+     * @param context          the sender's context from the decrypted payload, may be null
+     * @param keyFetchExecutor runs remote key fetches
+     * @return completes exceptionally if content validation fails for any reason
+     */
+    protected CompletionStage<Void> validatePayloadSignatureInContextAsync(String type,
+                                                                           String token,
+                                                                           String context,
+                                                                           Executor keyFetchExecutor) {
+        return signatureValidationService(type)
+                .checkSignatureInContextAsync(token, requireContext(context), keyFetchExecutor);
+    }
+
+    /**
+     * Find the signature validation service of a token type
+     *
+     * @param type the type
+     * @return the service
+     * @throws JwtValidationException if the type has no signature
+     */
+    protected JwtSignatureValidationService signatureValidationService(String type) throws JwtValidationException {
+        JwtSignatureValidationService service = signatureValidationServices.get(Token.Type.valueOf(type));
+        if (service == null) {
+            throw new JwtValidationException(RejectReason.WRONG_TOKEN_TYPE, "token type " + type + " is not signed");
         }
+        return service;
     }
 
     /**
@@ -182,11 +492,19 @@ public class JwtPayloadValidationService {
      * @throws JwtValidationException if the payload does not contain context.
      */
     protected String extractContext(JsonNode payloadNode) throws JwtValidationException {
-        String senderContextPath = payloadNode.findPath(Token.Fields.context.toString()).asText(null);
+        return requireContext(payloadNode.findPath(Token.Fields.context.toString()).asText(null));
+    }
+
+    /**
+     * Reject tokens without context path
+     *
+     * @param senderContextPath the context from the decrypted payload
+     * @return context as String
+     * @throws JwtValidationException if the payload does not contain context.
+     */
+    protected String requireContext(String senderContextPath) throws JwtValidationException {
         if (senderContextPath == null) {
-            String message = "Verification context for server token cannot be null";
-            logger.warn(message);
-            throw new JwtValidationException(message);
+            throw new JwtValidationException(RejectReason.MISSING_CONTEXT, "Verification context for server token cannot be null");
         }
         return senderContextPath;
     }
@@ -4,26 +4,33 @@
 package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
 import com.bcgdv.play.jwt.util.PublicKeyCache;
 import com.bcgdv.play.services.Api;
-import com.simonmittag.cryptoutils.asymmetric.KeyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
 /**
  * Verifies a JWT token signature with the sender's public key.
  */
 public abstract class JwtSignatureValidationService {
     protected static final String PUBKEY_CONTEXT_PATH = "/pubkey";
-    protected static final String VALIDATED_TOKEN = "validated %s token integrity for {} from {} ";
-    protected static final String NOT_VALIDATED_TOKEN = "unable to verify %s token, cause: ";
-    protected static final String NOT_VALIDATED_CACHED_TOKEN = "unable to verify %s token, but since this key was cached we will try fetch a new one";
+    protected static final String VALIDATED_TOKEN = "validated {} token integrity for {} from {} ";
+    protected static final String NOT_VALIDATED_TOKEN = "unable to verify {} token, cause: {}";
+    protected static final String NOT_VALIDATED_CACHED_TOKEN = "unable to verify {} token, but since this key was cached we will try fetch a new one";
 
     protected static final Logger logger = LoggerFactory.getLogger(JwtSignatureValidationService.class);
     protected static final String DOTS = "...";
 
     protected PublicKeyCache publicKeyCache;
     protected Api api;
+    protected SecurityMetrics securityMetrics;
 
 
     /**
@@ -33,8 +40,21 @@ public abstract class JwtSignatureValidationService {
      * @param publicKeyCache the public key cache.
      */
     public JwtSignatureValidationService(Api api, PublicKeyCache publicKeyCache) {
+        this(api, publicKeyCache, new NoopSecurityMetrics());
+    }
+
+
+    /**
+     * Initialize with api for remote callbacks, common public key cache and metrics
+     *
+     * @param api             the remote api
+     * @param publicKeyCache  the public key cache.
+     * @param securityMetrics times signature verification
+     */
+    public JwtSignatureValidationService(Api api, PublicKeyCache publicKeyCache, SecurityMetrics securityMetrics) {
         this.publicKeyCache = publicKeyCache;
         this.api = api;
+        this.securityMetrics = securityMetrics;
     }
 
 
@@ -42,18 +62,63 @@ public abstract class JwtSignatureValidationService {
      * Fetch a public key and do so from remote service if it's not in local cache.
      *
      * @param context the token's context is the cache key
-     * @return the key type.
+     * @return the deserialized key
      */
-    protected String fetchCachedPublicKey(String context) {
-        String serverPubkey = publicKeyCache.getKey(context);
+    protected PublicKey fetchCachedPublicKey(String context) {
+        PublicKey serverPubkey = publicKeyCache.getPublicKey(context);
         if (serverPubkey == null) {
-            serverPubkey = fetchRemoteServerPublicKey(context);
-            publicKeyCache.addKey(context, serverPubkey);
+            serverPubkey = refreshPublicKey(context);
         }
         return serverPubkey;
     }
 
 
+    /**
+     * Fetch the key from remote service and replace the cached copy
+     *
+     * @param context the token's context
+     * @return the deserialized key
+     */
+    protected PublicKey refreshPublicKey(String context) {
+        return publicKeyCache.fetchKeyAndWait(context, this::fetchRemoteContextPublicKey);
+    }
+
+
+    /**
+     * Fetch the key for a context from remote service into the cache ahead of the first request
+     *
+     * @param context          the token's context
+     * @param keyFetchExecutor runs the blocking remote fetch
+     * @return completes with the deserialized key
+     */
+    public CompletableFuture<PublicKey> preloadPublicKey(String context, Executor keyFetchExecutor) {
+        return publicKeyCache.fetchKey(context, this::fetchRemoteContextPublicKey, keyFetchExecutor);
+    }
+
+
+    /**
+     * Cache a key obtained elsewhere, i.e. from a local bundle. It is refreshed from remote service like
+     * any fetched key once it turns stale.
+     *
+     * @param context the token's context
+     * @param key     the pubkey as base64 encoded string
+     */
+    public void addPublicKey(String context, String key) {
+        publicKeyCache.addKey(context, key, this::fetchRemoteContextPublicKey);
+    }
+
+
+    /**
+     * Fetch the key for a context from remote service
+     *
+     * @param context the token's context
+     * @return the pubkey as base64 encoded string
+     */
+    protected String fetchRemoteContextPublicKey(String context) {
+        return fetchRemoteServerPublicKey(buildKeyPath(context));
+    }
+
+
     /**
      * Visit remote service/pubkey url and fetch key object from JSON response
      *
@@ -92,21 +157,88 @@ public abstract class JwtSignatureValidationService {
      * @throws JwtValidationException if signature cannot be validated
      */
     public void checkSignatureInContext(String token, String context) throws JwtValidationException {
-        String serverPubkey = null;
         try {
-            serverPubkey = fetchCachedPublicKey(buildKeyPath(context));
-            JwtUtil.validateSignatureWithKey(token, KeyHelper.deserializePublicKey(serverPubkey));
+            verify(token, fetchCachedPublicKey(context));
         } catch (Exception e) {
-            logger.debug(String.format(NOT_VALIDATED_CACHED_TOKEN, getTokenType()));
-            serverPubkey = fetchRemoteServerPublicKey(buildKeyPath(context));
+            logger.debug(NOT_VALIDATED_CACHED_TOKEN, getTokenType());
             try {
-                JwtUtil.validateSignatureWithKey(token, KeyHelper.deserializePublicKey(serverPubkey));
+                verify(token, refreshPublicKey(context));
             } catch (Exception e1) {
-                logger.warn(String.format(NOT_VALIDATED_TOKEN, getTokenType()) + e.getMessage());
-                throw new RuntimeException(e);
+                logger.debug(NOT_VALIDATED_TOKEN, getTokenType(), e.getMessage());
+                throw new JwtValidationException(RejectReason.of(e1) != RejectReason.UNKNOWN
+                        ? RejectReason.of(e1)
+                        : RejectReason.BAD_SIGNATURE, e);
             }
         }
-        logger.debug(String.format(VALIDATED_TOKEN, getTokenType()), scramble(token), context);
+        logValidated(token, context);
+    }
+
+
+    /**
+     * Valides a JWT token like checkSignatureInContext, but fetches missing or stale keys on the given executor
+     * instead of the calling thread. Completes synchronously when the cached key verifies the token.
+     *
+     * @param token            the token
+     * @param context          the verification key
+     * @param keyFetchExecutor runs blocking remote key fetches
+     * @return completes exceptionally with JwtValidationException if signature cannot be validated
+     */
+    public CompletionStage<Void> checkSignatureInContextAsync(String token, String context, Executor keyFetchExecutor) {
+        PublicKey cachedPubkey = publicKeyCache.getPublicKey(context);
+        if (cachedPubkey != null) {
+            try {
+                verify(token, cachedPubkey);
+                logValidated(token, context);
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                logger.debug(NOT_VALIDATED_CACHED_TOKEN, getTokenType());
+            }
+        }
+        return publicKeyCache
+                .fetchKey(context, this::fetchRemoteContextPublicKey, keyFetchExecutor)
+                .thenAccept(serverPubkey -> {
+                    try {
+                        verify(token, serverPubkey);
+                    } catch (JwtValidationException e) {
+                        logger.debug(NOT_VALIDATED_TOKEN, getTokenType(), e.getMessage());
+                        throw e;
+                    }
+                    logValidated(token, context);
+                });
+    }
+
+
+    /**
+     * Verify the signature with a key and time it
+     *
+     * @param token the token
+     * @param key   the key
+     * @throws JwtValidationException if the signature does not match
+     */
+    protected void verify(String token, PublicKey key) throws JwtValidationException {
+        if (!securityMetrics.isEnabled()) {
+            JwtUtil.validateSignatureWithKey(token, key);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            JwtUtil.validateSignatureWithKey(token, key);
+        } finally {
+            securityMetrics.recordStage(SecurityMetrics.Stage.SIGNATURE_VERIFICATION, System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Log a validated token at debug level without formatting it otherwise
+     *
+     * @param token   the token
+     * @param context the context
+     */
+    protected void logValidated(String token, String context) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(VALIDATED_TOKEN, getTokenType(), scramble(token), context);
+        }
     }
 
 
@@ -139,6 +271,10 @@ public abstract class JwtSignatureValidationService {
             super(api, publicKeyCache);
         }
 
+        public ForClientToken(Api api, PublicKeyCache publicKeyCache, SecurityMetrics securityMetrics) {
+            super(api, publicKeyCache, securityMetrics);
+        }
+
         @Override
         protected String getTokenType() {
             return Token.Type.CLIENT.toString();
@@ -158,6 +294,10 @@ public abstract class JwtSignatureValidationService {
             super(api, publicKeyCache);
         }
 
+        public ForServerToken(Api api, PublicKeyCache publicKeyCache, SecurityMetrics securityMetrics) {
+            super(api, publicKeyCache, securityMetrics);
+        }
+
         @Override
         protected String getTokenType() {
             return Token.Type.SERVER.toString();
@@ -175,6 +315,10 @@ public abstract class JwtSignatureValidationService {
             super(api, publicKeyCache);
         }
 
+        public ForSessionToken(Api api, PublicKeyCache publicKeyCache, SecurityMetrics securityMetrics) {
+            super(api, publicKeyCache, securityMetrics);
+        }
+
         @Override
         protected String getTokenType() {
             return Token.Type.SESSION.toString();
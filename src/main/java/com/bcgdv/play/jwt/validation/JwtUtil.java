@@ -1,6 +1,8 @@
 package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Preconditions;
 import com.google.common.net.HttpHeaders;
@@ -12,8 +14,11 @@ import org.slf4j.LoggerFactory;
 import play.libs.Json;
 import play.mvc.Http;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
-import java.util.Base64;
+import java.security.PublicKey;
 import java.util.Map;
 
 /**
@@ -22,6 +27,17 @@ import java.util.Map;
 public final class JwtUtil {
     public static final Logger logger = LoggerFactory.getLogger(JwtUtil.class);
 
+    protected static final String ALG = "alg";
+    protected static final String EXP = "exp";
+    protected static final String NBF = "nbf";
+    protected static final String SIGNATURE_MISMATCH = "JWT signature does not match locally computed signature";
+
+    /**
+     * Verify RSA signatures with the per thread engines of SignatureEngines, see Settings.SIGNATURE_ENGINES
+     */
+    protected static final boolean SIGNATURE_ENGINES =
+            EnvironmentHelper.getBoolean(Settings.SIGNATURE_ENGINES, Settings.DEFAULT_SIGNATURE_ENGINES);
+
     /**
      * Default, don't use
      */
@@ -90,11 +106,11 @@ public final class JwtUtil {
      * @return the payload as String
      */
     public static String extractJwtPayload(String token) {
+        TokenView view = TokenView.scan(token);
         Preconditions.checkArgument(
-                token.split("\\.").length == 3,
+                view != null,
                 "Invalid Jwt token , Jwt token should have header,claims and signature");
-        String payload = token.split("\\.")[1];
-        return new String(Base64.getDecoder().decode(payload));
+        return new String(view.decodePayload(), StandardCharsets.UTF_8);
     }
 
     /**
@@ -116,11 +132,60 @@ public final class JwtUtil {
      * @throws JwtValidationException if something goes wrong.
      */
     public static void validateSignatureWithKey(String token, Key key) throws JwtValidationException {
+        TokenView view = SIGNATURE_ENGINES ? TokenView.scan(token) : null;
+        String algorithm = view != null ? algorithm(view) : null;
+        if (algorithm != null && SignatureEngines.supports(algorithm, key) && !hasTimeClaims(view)) {
+            boolean verified;
+            try {
+                verified = SignatureEngines.verify(algorithm, view, (PublicKey) key);
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                logger.debug("Cannot verify the signature, I will reject this request, cause: {}", e.getMessage());
+                throw new JwtValidationException(RejectReason.BAD_SIGNATURE, e);
+            }
+            if (!verified) {
+                logger.debug("Cannot verify the signature, I will reject this request, cause: {}", SIGNATURE_MISMATCH);
+                throw new JwtValidationException(RejectReason.BAD_SIGNATURE, SIGNATURE_MISMATCH);
+            }
+            return;
+        }
         try {
             Jwts.parser().setSigningKey(key).parse(token);
         } catch (Exception e) {
-            logger.warn("Cannot verify the signature, I will reject this request, cause: ", e.getMessage());
-            throw new JwtValidationException(e);
+            logger.debug("Cannot verify the signature, I will reject this request, cause: {}", e.getMessage());
+            throw new JwtValidationException(RejectReason.BAD_SIGNATURE, e);
+        }
+    }
+
+
+    /**
+     * Does the payload carry exp or nbf? jjwt rejects tokens outside of them, the engines only verify the
+     * signature, so such tokens are left to jjwt.
+     *
+     * @param view the token
+     * @return true if either is present or the payload is not JSON
+     */
+    protected static boolean hasTimeClaims(TokenView view) {
+        try {
+            ClaimExtractor.Claim[] claims = ClaimExtractor.extract(
+                    Json.mapper().getFactory().createParser(view.decodePayload()), EXP, NBF);
+            return claims[0].isFound() || claims[1].isFound();
+        } catch (IOException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+
+    /**
+     * Read the signature algorithm from the token header
+     *
+     * @param view the token
+     * @return the algorithm, null if the header has none or is not base64 encoded JSON
+     */
+    protected static String algorithm(TokenView view) {
+        try {
+            return ClaimExtractor.extract(Json.mapper().getFactory().createParser(view.decodeHeader()), ALG)[0].asText(null);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
         }
     }
 
@@ -142,8 +207,8 @@ public final class JwtUtil {
             String decryptedPayload = simpleCipher.decrypt(secret);
             return Json.parse(decryptedPayload);
         } catch (Exception e) {
-            logger.warn("Cannot decrypt given secret, cause: ", e.getMessage());
-            throw new JwtValidationException(e);
+            logger.debug("Cannot decrypt given secret, cause: {}", e.getMessage());
+            throw new JwtValidationException(RejectReason.DECRYPTION_FAILED, e);
         }
     }
 
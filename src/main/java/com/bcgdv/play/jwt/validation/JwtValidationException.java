@@ -8,12 +8,17 @@ package com.bcgdv.play.jwt.validation;
  */
 public class JwtValidationException extends RuntimeException {
 
+    /**
+     * Has the reason for rejecting the request
+     */
+    protected final RejectReason reason;
 
     /**
      * Default
      */
     public JwtValidationException() {
         super();
+        this.reason = RejectReason.UNKNOWN;
     }
 
 
@@ -24,6 +29,7 @@ public class JwtValidationException extends RuntimeException {
      */
     public JwtValidationException(Exception e) {
         super(e);
+        this.reason = RejectReason.of(e);
     }
 
 
@@ -34,5 +40,40 @@ public class JwtValidationException extends RuntimeException {
      */
     public JwtValidationException(String message) {
         super(message);
+        this.reason = RejectReason.UNKNOWN;
+    }
+
+
+    /**
+     * With reason
+     *
+     * @param reason  why the request is rejected
+     * @param message as String
+     */
+    public JwtValidationException(RejectReason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+
+    /**
+     * With reason and Exception
+     *
+     * @param reason why the request is rejected
+     * @param e      as nested Exception
+     */
+    public JwtValidationException(RejectReason reason, Exception e) {
+        super(e);
+        this.reason = reason;
+    }
+
+
+    /**
+     * Get the reason for rejecting the request
+     *
+     * @return the reason, UNKNOWN if not given
+     */
+    public RejectReason getReason() {
+        return reason;
     }
 }
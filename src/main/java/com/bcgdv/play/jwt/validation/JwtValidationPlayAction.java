@@ -2,10 +2,15 @@ package com.bcgdv.play.jwt.validation;
 
 import com.bcgdv.jwt.models.Token;
 import com.bcgdv.play.jwt.Secure;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
 import com.bcgdv.play.jwt.util.JSONResponseHelper;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.SecurityLog;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import play.libs.concurrent.HttpExecution;
 import play.mvc.Action;
 import play.mvc.Http;
 import play.mvc.Result;
@@ -13,7 +18,10 @@ import play.mvc.Result;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * Action is a decorator for the action method call that is run for all @Token annotated methods.
@@ -44,15 +52,74 @@ public class JwtValidationPlayAction extends Action<Secure> {
 
 
     /**
-     * Build with Guice
+     * Has metrics for assertion validation
+     */
+    protected SecurityMetrics securityMetrics;
+
+
+    /**
+     * Has rate limited logging of rejections
+     */
+    protected SecurityLog securityLog;
+
+
+    /**
+     * Runs assertion validation off play's dispatcher if set, see JWT_VIRTUAL_THREADS. Not set for a chain of
+     * asynchronous validations only, those compose without blocking the calling thread.
+     */
+    protected Executor virtualThreads;
+
+
+    /**
+     * Build without metrics
      *
      * @param jwtPayloadValidationService the payload validation service
+     * @param assertionValidator the assertion validator
      */
-    @Inject
     public JwtValidationPlayAction(JwtPayloadValidationService jwtPayloadValidationService,
                                    AssertionValidator assertionValidator) {
+        this(jwtPayloadValidationService, assertionValidator, new NoopSecurityMetrics(), new SecurityLog());
+    }
+
+
+    /**
+     * Build with Guice
+     *
+     * @param jwtPayloadValidationService the payload validation service
+     * @param assertionValidator the assertion validator
+     * @param securityMetrics times assertion validation
+     * @param securityLog logs rejections
+     */
+    public JwtValidationPlayAction(JwtPayloadValidationService jwtPayloadValidationService,
+                                   AssertionValidator assertionValidator,
+                                   SecurityMetrics securityMetrics,
+                                   SecurityLog securityLog) {
         this.jwtPayloadValidationService = jwtPayloadValidationService;
         this.assertionValidator=assertionValidator;
+        this.securityMetrics = securityMetrics;
+        this.securityLog = securityLog;
+    }
+
+
+    /**
+     * Build with Guice
+     *
+     * @param jwtPayloadValidationService the payload validation service
+     * @param assertionValidator the assertion validator
+     * @param securityMetrics times assertion validation
+     * @param securityLog logs rejections
+     * @param securityExecutors has virtual threads for blocking validations, if enabled
+     */
+    @Inject
+    public JwtValidationPlayAction(JwtPayloadValidationService jwtPayloadValidationService,
+                                   AssertionValidator assertionValidator,
+                                   SecurityMetrics securityMetrics,
+                                   SecurityLog securityLog,
+                                   SecurityExecutors securityExecutors) {
+        this(jwtPayloadValidationService, assertionValidator, securityMetrics, securityLog);
+        boolean asynchronous = assertionValidator instanceof AssertionValidatorImpl
+                && ((AssertionValidatorImpl) assertionValidator).isAsynchronous();
+        this.virtualThreads = asynchronous ? null : securityExecutors.virtualThreads();
     }
 
 
@@ -64,28 +131,79 @@ public class JwtValidationPlayAction extends Action<Secure> {
      */
     @Override
     public CompletionStage<Result> call(Http.Context context) {
-        logger.debug(EXECUTING_ACTION, Arrays.toString(configuration.value()), uri(context));
+        if (logger.isDebugEnabled()) {
+            logger.debug(EXECUTING_ACTION, Arrays.toString(configuration.value()), uri(context));
+        }
+        long start = securityMetrics.isEnabled() ? System.nanoTime() : 0L;
+        CompletableFuture<Boolean> validation;
+        Token.Type tokenType;
         try {
-            if(!assertionValidator.validate(
-                    configuration.value(),
-                    requestTokenType(context),
-                    requestAssertions(context),
-                    context.request())) {
-                return forbiddenAsFuture();
-            }
+            TokenContext tokenContext = requestTokenContext(context);
+            context.args.put(TokenContext.ARGS_KEY, tokenContext);
+            tokenType = jwtPayloadValidationService.extractTokenType(tokenContext);
+            validation = validateAssertions(tokenType, jwtPayloadValidationService.extractClaims(tokenContext), context);
         } catch (JwtValidationException e) {
-            logger.warn("JWT Validation Exception, cause: " + e.getMessage());
+            securityMetrics.recordRejected(e.getReason(), Token.Type.NONE);
+            securityLog.rejected(e.getReason(), Token.Type.NONE, uri(context), e);
             try {
-                return forbiddenAsFuture();
+                return forbiddenAsFuture(e.getReason());
             } catch (Exception e1) {
                 throw new RuntimeException("unable to process request, cause: " + e.getMessage());
             }
         } catch (Exception e) {
-            logger.error("i got an error while decrypting an already validated token, this should never happen" + e.getMessage());
+            logger.error("i got an error while decrypting an already validated token, this should never happen {}", e.getMessage());
             return forbiddenAsFuture();
 
         }
-        return delegate.call(context);
+
+        Function<Boolean, CompletionStage<Result>> next = valid -> {
+            if (securityMetrics.isEnabled()) {
+                securityMetrics.recordStage(SecurityMetrics.Stage.ASSERTION_VALIDATION, System.nanoTime() - start);
+            }
+            if (!valid) {
+                securityMetrics.recordRejected(RejectReason.ASSERTION_FAILED, tokenType);
+                securityLog.rejected(RejectReason.ASSERTION_FAILED, tokenType, uri(context), "assertions not met");
+                return forbiddenAsFuture(RejectReason.ASSERTION_FAILED);
+            }
+            return delegate.call(context);
+        };
+
+        // validations that waited for a backend resume on play's http context, the delegate needs it
+        CompletableFuture<Boolean> validated = validation.handle((valid, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                logger.error("i got an error while validating assertions, i will reject this request {}", cause.getMessage(), cause);
+            }
+            return e == null && Boolean.TRUE.equals(valid);
+        });
+        return validated.isDone()
+                ? validated.thenCompose(next)
+                : validated.thenComposeAsync(next, HttpExecution.defaultContext());
+    }
+
+    /**
+     * Validate assertions, on a virtual thread if JWT_VIRTUAL_THREADS is set, so validations that block do
+     * not hold a dispatcher thread. The virtual thread sees the request's http context as current.
+     * @param tokenType the token type
+     * @param claims the assertions of the token
+     * @param context http context
+     * @return completes with true | false
+     */
+    protected CompletableFuture<Boolean> validateAssertions(Token.Type tokenType, Claims claims, Http.Context context) {
+        Http.Request request = context.request();
+        if (virtualThreads == null) {
+            return assertionValidator.validateAsync(configuration.value(), tokenType, claims, request).toCompletableFuture();
+        }
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    Http.Context.current.set(context);
+                    try {
+                        return assertionValidator.validateAsync(configuration.value(), tokenType, claims, request);
+                    } finally {
+                        Http.Context.current.remove();
+                    }
+                }, virtualThreads)
+                .thenCompose(Function.identity());
     }
 
     /**
@@ -96,6 +214,24 @@ public class JwtValidationPlayAction extends Action<Secure> {
         return CompletableFuture.completedFuture(JSONResponseHelper.forbiddenAsJSON());
     }
 
+    /**
+     * Canned forbidden response with reject reason as Completeable Future
+     * @param reason why the request was rejected
+     * @return the 403 as JSON, wrapped in future.
+     */
+    protected CompletableFuture<Result> forbiddenAsFuture(RejectReason reason) {
+        return CompletableFuture.completedFuture(JSONResponseHelper.forbiddenAsJSON(reason));
+    }
+
+    /**
+     * Get the token decoded and decrypted by the filter for this request
+     * @param context http context
+     * @return the token context
+     */
+    protected TokenContext requestTokenContext(Http.Context context) {
+        return jwtPayloadValidationService.tokenContext(headers(context));
+    }
+
     /**
      * Get JWT assertions from request
      * @param context http context
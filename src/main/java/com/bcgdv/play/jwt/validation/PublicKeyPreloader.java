@@ -0,0 +1,178 @@
+/*
+ * PublicKeyPreloader
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.EnvironmentHelper;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.services.Api;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fills the public key cache at startup so the first request of a context does not pay for a remote /pubkey
+ * call. Keys are read from a local JSON key bundle first, then the configured contexts not in the bundle are
+ * fetched in parallel, skipping those still fresh from the cache snapshot. Bound as eager singleton, startup
+ * waits for the keys up to a configured time.
+ * Contexts that fail to load are logged and fetched on first use as before.
+ */
+@Singleton
+public class PublicKeyPreloader {
+    protected static final Logger logger = LoggerFactory.getLogger(PublicKeyPreloader.class);
+
+    protected static final String BUNDLE_LOADED = "loaded {} public keys from key bundle {}";
+    protected static final String BUNDLE_FAILED = "unable to load public key bundle {}, cause: {}";
+    protected static final String BUNDLE_KEY_FAILED = "unable to load public key of context {} from key bundle, cause: {}";
+    protected static final String PRELOADED = "preloaded {} of {} public keys in {}ms";
+    protected static final String PRELOAD_FAILED = "unable to preload public key of context {}, cause: {}";
+    protected static final String PRELOAD_TIMEOUT = "gave up waiting for public keys after {}ms, missing keys are fetched on first use";
+
+    protected final JwtSignatureValidationService signatureValidationService;
+    protected final SecurityExecutors securityExecutors;
+    protected final PublicKeyCache publicKeyCache;
+
+    /**
+     * Has the number of keys loaded at startup
+     */
+    protected int loaded;
+
+    /**
+     * Load keys on creation and tell the cache how to refresh keys it loaded from its snapshot
+     *
+     * @param api               the remote api
+     * @param publicKeyCache    the public key cache
+     * @param securityExecutors runs the remote fetches
+     */
+    @Inject
+    public PublicKeyPreloader(Api api, PublicKeyCache publicKeyCache, SecurityExecutors securityExecutors) {
+        this.signatureValidationService = new JwtSignatureValidationService.ForServerToken(api, publicKeyCache);
+        this.securityExecutors = securityExecutors;
+        this.publicKeyCache = publicKeyCache;
+        publicKeyCache.setDefaultRemoteFetch(signatureValidationService::fetchRemoteContextPublicKey);
+        preload(EnvironmentHelper.get(Settings.KEY_BUNDLE_FILE, null),
+                contexts(EnvironmentHelper.get(Settings.KEY_PRELOAD_CONTEXTS, null)),
+                EnvironmentHelper.getLong(Settings.KEY_PRELOAD_WAIT_MS, Settings.DEFAULT_KEY_PRELOAD_WAIT_MS));
+    }
+
+    /**
+     * Load the bundle, then fetch remaining contexts and wait for them
+     *
+     * @param bundleFile path of the key bundle, null if none
+     * @param contexts   contexts to fetch
+     * @param waitMillis max time to wait for fetches
+     */
+    protected void preload(String bundleFile, List<String> contexts, long waitMillis) {
+        List<String> bundled = StringUtils.isBlank(bundleFile) ? new ArrayList<>() : loadBundle(bundleFile);
+        List<String> remaining = new ArrayList<>(contexts);
+        remaining.removeAll(bundled);
+        remaining.removeIf(publicKeyCache::containsFresh);
+        if (remaining.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<?>> fetches = new ArrayList<>();
+        for (String context : remaining) {
+            fetches.add(signatureValidationService
+                    .preloadPublicKey(context, securityExecutors.keyFetch())
+                    .handle((key, e) -> {
+                        if (e != null) {
+                            logger.warn(PRELOAD_FAILED, context, e.getMessage());
+                            return false;
+                        }
+                        synchronized (this) {
+                            loaded++;
+                        }
+                        return true;
+                    }));
+        }
+        try {
+            CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn(PRELOAD_TIMEOUT, waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // failures are logged per context
+        }
+        logger.info(PRELOADED, getLoadedCount(), remaining.size() + bundled.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Put all keys of a bundle into the cache
+     *
+     * @param bundleFile path of the key bundle
+     * @return the contexts loaded
+     */
+    protected List<String> loadBundle(String bundleFile) {
+        List<String> contexts = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(Paths.get(bundleFile))) {
+            Iterator<Map.Entry<String, JsonNode>> keys = Json.parse(in).fields();
+            while (keys.hasNext()) {
+                Map.Entry<String, JsonNode> entry = keys.next();
+                String key = entry.getValue().isTextual()
+                        ? entry.getValue().asText()
+                        : entry.getValue().findPath("key").asText();
+                try {
+                    signatureValidationService.addPublicKey(entry.getKey(), key);
+                    contexts.add(entry.getKey());
+                } catch (IllegalArgumentException e) {
+                    logger.warn(BUNDLE_KEY_FAILED, entry.getKey(), e.getMessage());
+                }
+            }
+            synchronized (this) {
+                loaded += contexts.size();
+            }
+            logger.info(BUNDLE_LOADED, contexts.size(), bundleFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn(BUNDLE_FAILED, bundleFile, e.getMessage());
+        }
+        return contexts;
+    }
+
+    /**
+     * Split the configured contexts
+     *
+     * @param setting comma separated contexts
+     * @return the contexts, without blanks
+     */
+    protected static List<String> contexts(String setting) {
+        List<String> contexts = new ArrayList<>();
+        if (setting != null) {
+            for (String context : setting.split(",")) {
+                if (StringUtils.isNotBlank(context) && !contexts.contains(context.trim())) {
+                    contexts.add(context.trim());
+                }
+            }
+        }
+        return contexts;
+    }
+
+    /**
+     * Number of keys loaded at startup, from bundle and remote
+     *
+     * @return the count
+     */
+    public synchronized int getLoadedCount() {
+        return loaded;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * RejectReason
+ */
+package com.bcgdv.play.jwt.validation;
+
+/**
+ * Why a request was rejected. Codes are stable and meant for metrics, logs and clients.
+ */
+public enum RejectReason {
+    MISSING_HEADER("missing_header"),
+    TOKEN_TOO_LARGE("token_too_large"),
+    MALFORMED_TOKEN("malformed_token"),
+    EXPIRED("expired"),
+    DECRYPTION_FAILED("decryption_failed"),
+    MISSING_TOKEN_TYPE("missing_token_type"),
+    WRONG_TOKEN_TYPE("wrong_token_type"),
+    MISSING_CONTEXT("missing_context"),
+    KEY_UNAVAILABLE("key_unavailable"),
+    BAD_SIGNATURE("bad_signature"),
+    ASSERTION_FAILED("assertion_failed"),
+    OVERLOADED("overloaded"),
+    UNKNOWN("unknown");
+
+    private final String code;
+
+    RejectReason(String code) {
+        this.code = code;
+    }
+
+    /**
+     * Get the machine readable code
+     *
+     * @return the code
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Find the reason of a failure
+     *
+     * @param e the failure, possibly wrapped
+     * @return the reason, UNKNOWN if none was given
+     */
+    public static RejectReason of(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JwtValidationException
+                    && ((JwtValidationException) cause).getReason() != UNKNOWN) {
+                return ((JwtValidationException) cause).getReason();
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return UNKNOWN;
+    }
+}
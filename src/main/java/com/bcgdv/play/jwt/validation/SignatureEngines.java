@@ -0,0 +1,172 @@
+/*
+ * SignatureEngines
+ */
+package com.bcgdv.play.jwt.validation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Verifies RSA signatures of JWT tokens with JCA engines kept per thread. Signature.getInstance looks the
+ * algorithm up in the provider list, which synchronizes inside the JDK and contends across cores when every
+ * request does it. Engines here are created once per thread and algorithm and only re-initialized with the
+ * key. The signing input is copied into a per thread buffer, the token is not split or re-encoded.
+ * Virtual threads run one task each, engines kept per virtual thread would be created for every token. They
+ * borrow engines from a small striped pool instead.
+ */
+public final class SignatureEngines {
+
+    /**
+     * JWS algorithms verified here, anything else is left to jjwt
+     */
+    protected static final String[] ALGORITHMS = {"RS256", "RS384", "RS512"};
+    protected static final String[] JCA_ALGORITHMS = {"SHA256withRSA", "SHA384withRSA", "SHA512withRSA"};
+
+    protected static final ThreadLocal<Engines> ENGINES = ThreadLocal.withInitial(Engines::new);
+
+    /**
+     * Has engines for virtual threads, a thread takes the engines of its stripe or creates new ones if another
+     * thread holds them, and puts them back when done
+     */
+    protected static final AtomicReferenceArray<Engines> STRIPES =
+            new AtomicReferenceArray<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4);
+
+    /**
+     * Has Thread.isVirtual() on JDKs that have it, otherwise null. Looked up reflectively, the library is
+     * built for Java 8.
+     */
+    protected static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    /**
+     * don't use me
+     */
+    private SignatureEngines() {
+    }
+
+    /**
+     * Can a token signed with an algorithm be verified here?
+     *
+     * @param algorithm the JWS algorithm, i.e. "RS256"
+     * @param key       the verification key
+     * @return true for RSA algorithms and keys
+     */
+    public static boolean supports(String algorithm, Key key) {
+        return indexOf(algorithm) >= 0 && key instanceof RSAPublicKey;
+    }
+
+    /**
+     * Verify the signature of a token
+     *
+     * @param algorithm the JWS algorithm from the token header, see supports()
+     * @param view      the token
+     * @param key       the verification key
+     * @return true if the signature matches
+     * @throws GeneralSecurityException if the key or signature cannot be used
+     * @throws IllegalArgumentException if the algorithm is not supported or the token is not base64
+     */
+    public static boolean verify(String algorithm, TokenView view, PublicKey key) throws GeneralSecurityException {
+        int index = indexOf(algorithm);
+        if (index < 0) {
+            throw new IllegalArgumentException("unsupported signature algorithm " + algorithm);
+        }
+        byte[] signature = view.decodeSignature();
+        if (!isVirtual(Thread.currentThread())) {
+            return verify(ENGINES.get(), index, view, signature, key);
+        }
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES.length() - 1));
+        Engines engines = STRIPES.getAndSet(stripe, null);
+        if (engines == null) {
+            engines = new Engines();
+        }
+        try {
+            return verify(engines, index, view, signature, key);
+        } finally {
+            STRIPES.set(stripe, engines);
+        }
+    }
+
+    protected static boolean verify(Engines engines, int index, TokenView view, byte[] signature, PublicKey key)
+            throws GeneralSecurityException {
+        Signature engine = engines.signature(index);
+        byte[] signingInput = engines.buffer(view.getSigningInputLength());
+        view.copySigningInput(signingInput, 0);
+        engine.initVerify(key);
+        engine.update(signingInput, 0, view.getSigningInputLength());
+        return engine.verify(signature);
+    }
+
+    /**
+     * Is a thread virtual?
+     *
+     * @param thread the thread
+     * @return true on JDKs with virtual threads if it is one
+     */
+    protected static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    protected static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    protected static int indexOf(String algorithm) {
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equals(algorithm)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The engines and signing input buffer of one thread
+     */
+    protected static final class Engines {
+
+        /**
+         * Tokens are small, larger signing inputs get a buffer of their own
+         */
+        protected static final int MAX_BUFFER = 16384;
+
+        private final Signature[] signatures = new Signature[ALGORITHMS.length];
+        private byte[] buffer = new byte[1024];
+
+        protected Signature signature(int index) throws GeneralSecurityException {
+            Signature signature = signatures[index];
+            if (signature == null) {
+                signature = Signature.getInstance(JCA_ALGORITHMS[index]);
+                signatures[index] = signature;
+            }
+            return signature;
+        }
+
+        protected byte[] buffer(int length) {
+            if (length <= buffer.length) {
+                return buffer;
+            }
+            if (length > MAX_BUFFER) {
+                return new byte[length];
+            }
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            return buffer;
+        }
+    }
+}
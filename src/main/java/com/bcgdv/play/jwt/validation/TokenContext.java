@@ -0,0 +1,299 @@
+/*
+ * TokenContext
+ */
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Preconditions;
+import com.simonmittag.cryptoutils.SimpleCipher;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A JWT token that has been split and decoded once, and decrypted at most once. Created by the filter and
+ * handed to the @Secure action so neither has to repeat the work. Claims are pulled from payload and secret
+ * with one streaming pass each, JSON trees are only built if asked for.
+ */
+public final class TokenContext {
+    protected static final Logger logger = LoggerFactory.getLogger(TokenContext.class);
+
+    /**
+     * Key under which the context is placed into Http.Context.args for AssertionValidation implementations
+     */
+    public static final String ARGS_KEY = TokenContext.class.getName();
+
+    protected static final String[] PAYLOAD_FIELDS = {
+            Token.Fields.dateCreated.toString(),
+            Token.Fields.expiryInMilliSeconds.toString(),
+            Token.Fields.secret.toString()};
+
+    protected static final String[] SECRET_FIELDS = {
+            Token.Fields.tokenType.toString(),
+            Token.Fields.context.toString(),
+            Token.Fields.assertions.toString()};
+
+    /**
+     * Has the raw token and its segment offsets
+     */
+    private final TokenView view;
+
+    private final long dateCreated;
+    private final long expiryInMilliSeconds;
+    private final String encryptedSecret;
+
+    /**
+     * Has the payload as tree, built on first request
+     */
+    private volatile JsonNode payload;
+
+    /**
+     * Has the decrypted secret, set on first decryption
+     */
+    private volatile Secret secret;
+
+    /**
+     * Build with token and the claims of its decoded payload
+     *
+     * @param view    the raw token
+     * @param claims  the payload claims in PAYLOAD_FIELDS order
+     */
+    protected TokenContext(TokenView view, ClaimExtractor.Claim[] claims) {
+        this.view = view;
+        this.dateCreated = claims[0].asLong();
+        this.expiryInMilliSeconds = claims[1].asLong();
+        this.encryptedSecret = claims[2].asText();
+    }
+
+    /**
+     * Scan the token once and pull the claims from its payload straight from the decoded bytes
+     *
+     * @param token the raw token from the Authorization header
+     * @return the context
+     * @throws JwtValidationException if the token is not made up of header, payload and signature, or the
+     *                                payload is not base64 encoded JSON
+     */
+    public static TokenContext parse(String token) throws JwtValidationException {
+        return parse(TokenView.of(token));
+    }
+
+    /**
+     * Pull the claims from the payload of an already scanned token straight from the decoded bytes
+     *
+     * @param view the scanned token
+     * @return the context
+     * @throws JwtValidationException if the payload is not base64 encoded JSON
+     */
+    public static TokenContext parse(TokenView view) throws JwtValidationException {
+        try {
+            return new TokenContext(view, ClaimExtractor.extract(
+                    Json.mapper().getFactory().createParser(view.decodePayload()), PAYLOAD_FIELDS));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, e);
+        }
+    }
+
+    /**
+     * Get the raw token
+     *
+     * @return as String
+     */
+    public String getToken() {
+        return view.getToken();
+    }
+
+    /**
+     * Get the segment offsets of the token
+     *
+     * @return the view
+     */
+    public TokenView getView() {
+        return view;
+    }
+
+    /**
+     * Get the decoded, still encrypted payload. Built on first call, validation itself does not need it.
+     *
+     * @return as JsonNode
+     */
+    public JsonNode getPayload() {
+        JsonNode tree = this.payload;
+        if (tree == null) {
+            try {
+                tree = Json.mapper().readTree(view.decodePayload());
+            } catch (IOException e) {
+                throw new JwtValidationException(e);
+            }
+            this.payload = tree;
+        }
+        return tree;
+    }
+
+    /**
+     * When was the token created?
+     *
+     * @return the creation date as long millis
+     */
+    public long getDateCreated() {
+        return dateCreated;
+    }
+
+    /**
+     * When does the token expire, relative to creation?
+     *
+     * @return expiry in milliseconds
+     */
+    public long getExpiryInMilliSeconds() {
+        return expiryInMilliSeconds;
+    }
+
+    /**
+     * Decrypt the secret on first call and pull its claims, return the cached result afterwards
+     *
+     * @param simpleCipher the cipher used to create the token
+     * @return the decrypted secret
+     * @throws JwtValidationException if secret cannot be extracted or decrypted
+     */
+    protected Secret secret(SimpleCipher simpleCipher) throws JwtValidationException {
+        Secret decrypted = this.secret;
+        if (decrypted == null) {
+            decrypted = new Secret(decrypt(simpleCipher));
+            this.secret = decrypted;
+        }
+        return decrypted;
+    }
+
+    /**
+     * Decrypt the secret of the payload
+     *
+     * @param simpleCipher the cipher
+     * @return the secret as JSON String
+     * @throws JwtValidationException if secret cannot be extracted or decrypted
+     */
+    protected String decrypt(SimpleCipher simpleCipher) throws JwtValidationException {
+        try {
+            Preconditions.checkArgument(
+                    !StringUtils.isBlank(encryptedSecret),
+                    "Secret should be present in payload");
+            return simpleCipher.decrypt(encryptedSecret);
+        } catch (Exception e) {
+            logger.debug("Cannot decrypt given secret, cause: {}", e.getMessage());
+            throw new JwtValidationException(RejectReason.DECRYPTION_FAILED, e);
+        }
+    }
+
+    /**
+     * Decrypt the secret on first call and return it as tree
+     *
+     * @param simpleCipher the cipher used to create the token
+     * @return decrypted secret as JsonNode
+     * @throws JwtValidationException if secret cannot be extracted or decrypted
+     */
+    public JsonNode decryptSecret(SimpleCipher simpleCipher) throws JwtValidationException {
+        return secret(simpleCipher).tree();
+    }
+
+    /**
+     * Has the secret been decrypted?
+     *
+     * @return true | false
+     */
+    public boolean isDecrypted() {
+        return secret != null;
+    }
+
+    /**
+     * Get the token type as written in the decrypted secret
+     *
+     * @param simpleCipher the cipher
+     * @return the token type as String, blank if absent
+     */
+    public String getTokenTypeName(SimpleCipher simpleCipher) {
+        return secret(simpleCipher).tokenType;
+    }
+
+    /**
+     * Get the token type
+     *
+     * @param simpleCipher the cipher
+     * @return the token type, NONE if it cannot be established
+     */
+    public Token.Type getTokenType(SimpleCipher simpleCipher) {
+        try {
+            return Token.Type.valueOf(getTokenTypeName(simpleCipher));
+        } catch (IllegalArgumentException e) {
+            return Token.Type.NONE;
+        }
+    }
+
+    /**
+     * Get the context of the sender, the path its public key is fetched from
+     *
+     * @param simpleCipher the cipher
+     * @return the context, null if absent
+     */
+    public String getContext(SimpleCipher simpleCipher) {
+        return secret(simpleCipher).context;
+    }
+
+    /**
+     * Get the assertions from the decrypted secret. Claims are decoded as they are read, routes that never
+     * read them never pay for it.
+     *
+     * @param simpleCipher the cipher
+     * @return the assertions as Claims
+     */
+    public Claims getClaims(SimpleCipher simpleCipher) {
+        return secret(simpleCipher).assertions;
+    }
+
+    /**
+     * Get the assertions from the decrypted secret as read only Map over getClaims()
+     *
+     * @param simpleCipher the cipher
+     * @return the assertions as Map
+     */
+    public Map getAssertions(SimpleCipher simpleCipher) {
+        return secret(simpleCipher).assertions.asMap();
+    }
+
+    /**
+     * A decrypted secret with the claims validation needs
+     */
+    protected static final class Secret {
+        protected final String json;
+        protected final String tokenType;
+        protected final String context;
+        protected final Claims assertions;
+        private volatile JsonNode tree;
+
+        protected Secret(String json) {
+            ClaimExtractor.Claim[] claims;
+            try {
+                claims = ClaimExtractor.extract(Json.mapper().getFactory().createParser(json), SECRET_FIELDS);
+            } catch (IOException e) {
+                throw new JwtValidationException(RejectReason.DECRYPTION_FAILED, e);
+            }
+            this.json = json;
+            this.tokenType = claims[0].asText();
+            this.context = claims[1].asText(null);
+            this.assertions = claims[2].isContainer()
+                    ? Claims.of(json, claims[2].getStart(), claims[2].getEnd())
+                    : Claims.EMPTY;
+        }
+
+        protected JsonNode tree() {
+            JsonNode parsed = this.tree;
+            if (parsed == null) {
+                parsed = Json.parse(json);
+                this.tree = parsed;
+            }
+            return parsed;
+        }
+    }
+}
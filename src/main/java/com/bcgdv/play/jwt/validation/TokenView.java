@@ -0,0 +1,253 @@
+/*
+ * TokenView
+ */
+package com.bcgdv.play.jwt.validation;
+
+import java.util.Arrays;
+
+/**
+ * Offsets of the header, payload and signature segments of a raw JWT token, found in one pass without
+ * splitting the token into Strings. Segments are decoded straight from the token's characters, accepting
+ * both base64 and base64url alphabets with or without padding.
+ */
+public final class TokenView {
+
+    protected static final String NOT_THREE_COMPONENTS =
+            "JWT token not made up of three required components, header, payload, signature";
+
+    /**
+     * Has the 6 bit value of each base64 and base64url character, -1 for all others
+     */
+    private static final byte[] BASE64 = new byte[128];
+
+    static {
+        Arrays.fill(BASE64, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64['+'] = 62;
+        BASE64['-'] = 62;
+        BASE64['/'] = 63;
+        BASE64['_'] = 63;
+    }
+
+    private final String token;
+    private final int firstDot;
+    private final int secondDot;
+
+    private TokenView(String token, int firstDot, int secondDot) {
+        this.token = token;
+        this.firstDot = firstDot;
+        this.secondDot = secondDot;
+    }
+
+    /**
+     * Find both dots of a token
+     *
+     * @param token the raw token
+     * @return the view
+     * @throws JwtValidationException if the token is not made up of three non empty segments
+     */
+    public static TokenView of(String token) throws JwtValidationException {
+        TokenView view = scan(token);
+        if (view == null) {
+            throw new JwtValidationException(RejectReason.MALFORMED_TOKEN, NOT_THREE_COMPONENTS);
+        }
+        return view;
+    }
+
+    /**
+     * Find both dots of a token
+     *
+     * @param token the raw token
+     * @return the view, null if the token is not made up of three non empty segments
+     */
+    public static TokenView scan(String token) {
+        if (token == null) {
+            return null;
+        }
+        int firstDot = -1;
+        int secondDot = -1;
+        for (int i = 0, length = token.length(); i < length; i++) {
+            if (token.charAt(i) == '.') {
+                if (firstDot < 0) {
+                    firstDot = i;
+                } else if (secondDot < 0) {
+                    secondDot = i;
+                } else {
+                    return null;
+                }
+            }
+        }
+        if (firstDot <= 0 || secondDot <= firstDot + 1 || secondDot == token.length() - 1) {
+            return null;
+        }
+        return new TokenView(token, firstDot, secondDot);
+    }
+
+    /**
+     * Get the raw token
+     *
+     * @return as String
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Index of the first payload character
+     *
+     * @return the offset
+     */
+    public int getPayloadStart() {
+        return firstDot + 1;
+    }
+
+    /**
+     * Index of the dot after the payload
+     *
+     * @return the offset
+     */
+    public int getPayloadEnd() {
+        return secondDot;
+    }
+
+    /**
+     * Index of the first signature character
+     *
+     * @return the offset
+     */
+    public int getSignatureStart() {
+        return secondDot + 1;
+    }
+
+    /**
+     * Length of header, dot and payload, the input the signature was computed over
+     *
+     * @return number of ASCII characters
+     */
+    public int getSigningInputLength() {
+        return secondDot;
+    }
+
+    /**
+     * Copy the signing input as ASCII bytes into a caller owned buffer
+     *
+     * @param dst    the buffer, at least getSigningInputLength() from offset
+     * @param offset where to start in dst
+     * @throws IllegalArgumentException if the signing input has non ASCII characters
+     */
+    public void copySigningInput(byte[] dst, int offset) {
+        for (int i = 0; i < secondDot; i++) {
+            char c = token.charAt(i);
+            if (c > 127) {
+                throw new IllegalArgumentException("JWT token contains non ASCII characters");
+            }
+            dst[offset + i] = (byte) c;
+        }
+    }
+
+    /**
+     * Are header, payload and signature all made of base64 or base64url characters?
+     *
+     * @return true | false
+     */
+    public boolean isBase64() {
+        return isBase64(0, firstDot) && isBase64(firstDot + 1, secondDot) && isBase64(secondDot + 1, token.length());
+    }
+
+    /**
+     * Decode the header
+     *
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the segment is not base64 encoded
+     */
+    public byte[] decodeHeader() {
+        return decode(token, 0, firstDot);
+    }
+
+    /**
+     * Decode the payload
+     *
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the segment is not base64 encoded
+     */
+    public byte[] decodePayload() {
+        return decode(token, firstDot + 1, secondDot);
+    }
+
+    /**
+     * Decode the signature
+     *
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the segment is not base64 encoded
+     */
+    public byte[] decodeSignature() {
+        return decode(token, secondDot + 1, token.length());
+    }
+
+    protected boolean isBase64(int start, int end) {
+        end = unpadded(token, start, end);
+        if ((end - start) % 4 == 1) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = token.charAt(i);
+            if (c > 127 || BASE64[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode base64 or base64url characters of a range, padding optional
+     *
+     * @param chars the characters
+     * @param start first character
+     * @param end   character after the last
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the range is not base64 encoded
+     */
+    public static byte[] decode(CharSequence chars, int start, int end) {
+        end = unpadded(chars, start, end);
+        int length = end - start;
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Illegal base64 length " + length);
+        }
+        byte[] out = new byte[length / 4 * 3 + Math.max(0, length % 4 - 1)];
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            int value = c > 127 ? -1 : BASE64[c];
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                out[o++] = (byte) (bits >> 16);
+                out[o++] = (byte) (bits >> 8);
+                out[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            out[o++] = (byte) (bits >> 10);
+            out[o] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            out[o] = (byte) (bits >> 4);
+        }
+        return out;
+    }
+
+    private static int unpadded(CharSequence chars, int start, int end) {
+        while (end > start && chars.charAt(end - 1) == '=') {
+            end--;
+        }
+        return end;
+    }
+}
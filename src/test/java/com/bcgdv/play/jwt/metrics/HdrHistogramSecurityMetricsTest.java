@@ -0,0 +1,65 @@
+package com.bcgdv.play.jwt.metrics;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Counters must be kept per token type and reason, and the report must show what was recorded.
+ */
+public class HdrHistogramSecurityMetricsTest {
+
+    @Test
+    public void givenOutcomesShouldCountPerTypeAndReason() {
+        HdrHistogramSecurityMetrics metrics = new HdrHistogramSecurityMetrics();
+        metrics.recordAccepted(Token.Type.SERVER);
+        metrics.recordAccepted(Token.Type.SERVER);
+        metrics.recordRejected(RejectReason.EXPIRED, Token.Type.CLIENT);
+        metrics.recordKeyCacheHit();
+        metrics.recordKeyCacheMiss();
+        metrics.recordKeyCacheMiss();
+
+        assertThat(metrics.getAcceptedCount(Token.Type.SERVER), is(2L));
+        assertThat(metrics.getAcceptedCount(Token.Type.CLIENT), is(0L));
+        assertThat(metrics.getRejectedCount(RejectReason.EXPIRED, Token.Type.CLIENT), is(1L));
+        assertThat(metrics.getRejectedCount(RejectReason.EXPIRED, Token.Type.SERVER), is(0L));
+        assertThat(metrics.getKeyCacheHitCount(), is(1L));
+        assertThat(metrics.getKeyCacheMissCount(), is(2L));
+    }
+
+    @Test
+    public void givenStagesShouldKeepAllValues() {
+        HdrHistogramSecurityMetrics metrics = new HdrHistogramSecurityMetrics();
+        metrics.recordStage(SecurityMetrics.Stage.DECRYPTION, TimeUnit.MICROSECONDS.toNanos(10));
+        assertThat(metrics.getHistogram(SecurityMetrics.Stage.DECRYPTION).getTotalCount(), is(1L));
+        metrics.recordStage(SecurityMetrics.Stage.DECRYPTION, TimeUnit.MICROSECONDS.toNanos(20));
+        metrics.recordStage(SecurityMetrics.Stage.DECRYPTION, TimeUnit.HOURS.toNanos(1));
+        assertThat(metrics.getHistogram(SecurityMetrics.Stage.DECRYPTION).getTotalCount(), is(3L));
+        assertThat(metrics.getHistogram(SecurityMetrics.Stage.TOTAL).getTotalCount(), is(0L));
+    }
+
+    @Test
+    public void givenRecordedValuesShouldReportThem() {
+        HdrHistogramSecurityMetrics metrics = new HdrHistogramSecurityMetrics();
+        metrics.recordStage(SecurityMetrics.Stage.TOTAL, TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.recordAccepted(Token.Type.SESSION);
+        metrics.recordRejected(RejectReason.BAD_SIGNATURE, Token.Type.SERVER);
+        metrics.registerGauge("queue depth", () -> 7);
+
+        String report = metrics.report();
+        assertThat(report, containsString("TOTAL count=1"));
+        assertThat(report, not(containsString("DECRYPTION")));
+        assertThat(report, containsString("accepted SESSION=1"));
+        assertThat(report, containsString("rejected bad_signature SERVER=1"));
+        assertThat(report, containsString("queue depth=7"));
+        assertThat(metrics.getGauge("queue depth"), is(7L));
+        assertThat(metrics.getGauge("missing"), is(0L));
+    }
+}
@@ -0,0 +1,134 @@
+package com.bcgdv.play.jwt.processor;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.RoutePolicy;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.bcgdv.play.jwt.util.RouteSecurityRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The processor must generate a registry per module that is found as a service and merges earlier output.
+ */
+public class RouteSecurityProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected static final String USER_CONTROLLER = "package controllers.admin;\n"
+            + "import com.bcgdv.jwt.models.Token;\n"
+            + "import com.bcgdv.play.jwt.Anonymous;\n"
+            + "import com.bcgdv.play.jwt.Secure;\n"
+            + "public class UserController {\n"
+            + "    @Secure({Token.Type.CLIENT}) public void get() {}\n"
+            + "    @Anonymous public void open() {}\n"
+            + "}\n";
+
+    protected static final String HEALTH_CONTROLLER = "package controllers.admin.health;\n"
+            + "import com.bcgdv.play.jwt.Anonymous;\n"
+            + "public class HealthController {\n"
+            + "    @Anonymous public void ping() {}\n"
+            + "}\n";
+
+    protected JavaCompiler compiler;
+
+    @Before
+    public void compiler() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue(compiler != null);
+    }
+
+    protected boolean compile(File out, String... sources) throws IOException {
+        File src = folder.newFolder();
+        File generated = folder.newFolder();
+        List<File> files = new ArrayList<>();
+        for (String source : sources) {
+            String pkg = source.substring("package ".length(), source.indexOf(';'));
+            String name = source.substring(source.indexOf("public class ") + 13, source.indexOf(" {"));
+            Path file = src.toPath().resolve(pkg.replace('.', '/')).resolve(name + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            files.add(file.toFile());
+        }
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", out.getPath(), "-s", generated.getPath(),
+                            "-classpath", System.getProperty("java.class.path")),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new RouteSecurityProcessor()));
+            return task.call();
+        }
+    }
+
+    protected RouteSecurityIndex load(File out) throws IOException {
+        RouteSecurityIndex.Builder builder = new RouteSecurityIndex.Builder();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader())) {
+            for (RouteSecurityRegistry registry : ServiceLoader.load(RouteSecurityRegistry.class, loader)) {
+                assertThat(registry.getClass().getName(), is("controllers.admin.GeneratedRouteSecurityRegistry"));
+                registry.register(builder);
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void givenAnnotatedControllerShouldGenerateRegistryService() throws Exception {
+        File out = folder.newFolder();
+        assertThat(compile(out, USER_CONTROLLER, HEALTH_CONTROLLER), is(true));
+
+        RouteSecurityIndex index = load(out);
+        RoutePolicy get = index.lookup("controllers.admin.UserController", "get");
+        assertThat(get.getDecision(), is(RoutePolicy.Decision.SECURE));
+        assertThat(get.accepts(Token.Type.CLIENT), is(true));
+        assertThat(get.accepts(Token.Type.SERVER), is(false));
+        assertThat(index.lookup("controllers.admin.UserController", "open").isAnonymous(), is(true));
+        assertThat(index.lookup("controllers.admin.health.HealthController", "ping").isAnonymous(), is(true));
+    }
+
+    @Test
+    public void givenEarlierIndexShouldKeepEntriesOfClassesNotCompiledAgain() throws Exception {
+        File out = folder.newFolder();
+        Path index = out.toPath().resolve(RouteSecurityProcessor.INDEX_RESOURCE);
+        Files.createDirectories(index.getParent());
+        Files.write(index, ("A\tcontrollers.admin.LegacyController\tlegacy\n"
+                + "S\tcontrollers.admin.LegacyController\ttruncated\n"
+                + "S\tcontrollers.admin.UserController\topen\tSERVER\n").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(compile(out, USER_CONTROLLER), is(true));
+
+        RouteSecurityIndex merged = load(out);
+        assertThat(merged.lookup("controllers.admin.LegacyController", "legacy").isAnonymous(), is(true));
+        assertThat(merged.lookup("controllers.admin.LegacyController", "truncated").getDecision(),
+                is(merged.lookup("controllers.admin.LegacyController", "missing").getDecision()));
+        assertThat(merged.lookup("controllers.admin.UserController", "open").isAnonymous(), is(true));
+        assertThat(merged.lookup("controllers.admin.UserController", "open").accepts(Token.Type.SERVER), is(false));
+    }
+
+    @Test
+    public void givenPackagesShouldFindCommonPackage() {
+        assertThat(RouteSecurityProcessor.commonPackage("controllers.admin", "controllers.admin.health"), is("controllers.admin"));
+        assertThat(RouteSecurityProcessor.commonPackage("controllers", "admin"), is(""));
+    }
+}
@@ -0,0 +1,106 @@
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.validation.RejectReason;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+import play.http.HttpEntity;
+import play.libs.Json;
+import play.mvc.Result;
+
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Canned responses must carry status, message and, if enabled, the reject reason.
+ */
+public class JSONResponseHelperTest {
+
+    protected static JsonNode body(Result result) {
+        return Json.parse(((HttpEntity.Strict) result.body()).data().utf8String());
+    }
+
+    @Test
+    public void givenCannedResultShouldHaveStatusAndMessage() {
+        Result result = JSONResponseHelper.forbiddenAsJSON();
+        assertThat(result.status(), is(403));
+        assertThat(body(result).path("status").asText(), is("403"));
+        assertThat(body(result).path("message").asText(), is(JSONResponseHelper.httpResponseCodes.get("403")));
+        assertThat(body(result).has("reason"), is(false));
+        assertThat(JSONResponseHelper.forbiddenAsJSON(), is(sameInstance(result)));
+    }
+
+    @Test
+    public void givenReasonCodesShouldAddReasonToBody() {
+        Map<RejectReason, Result> forbidden = JSONResponseHelper.forbiddenResults(true);
+        JsonNode body = body(forbidden.get(RejectReason.EXPIRED));
+        assertThat(forbidden.get(RejectReason.EXPIRED).status(), is(403));
+        assertThat(body.path("status").asText(), is("403"));
+        assertThat(body.path("reason").asText(), is("expired"));
+    }
+
+    @Test
+    public void givenReasonCodesShouldSkipUnknownAndOverloaded() {
+        Map<RejectReason, Result> forbidden = JSONResponseHelper.forbiddenResults(true);
+        assertThat(forbidden.containsKey(RejectReason.UNKNOWN), is(false));
+        assertThat(forbidden.containsKey(RejectReason.OVERLOADED), is(false));
+        assertThat(forbidden.size(), is(RejectReason.values().length - 2));
+    }
+
+    @Test
+    public void givenNoReasonCodesShouldServePlainForbidden() {
+        assertThat(JSONResponseHelper.forbiddenResults(false).isEmpty(), is(true));
+    }
+
+    @Test
+    public void givenOverloadShouldAnswerWithOverloadStatus() {
+        assertThat(JSONResponseHelper.overloadedAsJSON().status(), is(503));
+        assertThat(body(JSONResponseHelper.overloadedAsJSON()).path("status").asText(), is("503"));
+    }
+
+    @Test
+    public void givenOtherOverloadStatusShouldServeOneResultWithMessage() {
+        Result result = JSONResponseHelper.overloadedResult("429");
+        assertThat(result.status(), is(429));
+        assertThat(body(result).path("status").asText(), is("429"));
+        assertThat(body(result).path("message").asText(), is("HTTP 429 - Service is overloaded, try again later"));
+        assertThat(JSONResponseHelper.overloadedAsJSON(), is(sameInstance(JSONResponseHelper.overloadedAsJSON())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNonNumericOverloadStatusShouldFail() {
+        JSONResponseHelper.overloadedResult("busy");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenOutOfRangeOverloadStatusShouldFail() {
+        JSONResponseHelper.overloadedResult("42");
+    }
+
+    @Test
+    public void givenChangedMessageShouldServeIt() {
+        String message = JSONResponseHelper.httpResponseCodes.get("404");
+        Result canned = JSONResponseHelper.notFoundAsJSON();
+        try {
+            JSONResponseHelper.httpResponseCodes.put("404", "HTTP 404 - No such order");
+            assertThat(body(JSONResponseHelper.notFoundAsJSON()).path("message").asText(), is("HTTP 404 - No such order"));
+        } finally {
+            JSONResponseHelper.httpResponseCodes.put("404", message);
+        }
+        assertThat(JSONResponseHelper.notFoundAsJSON(), is(sameInstance(canned)));
+    }
+
+    @Test
+    public void givenAddedCodeShouldServeIt() {
+        try {
+            JSONResponseHelper.httpResponseCodes.put("418", "HTTP 418 - I'm a teapot");
+            Result result = JSONResponseHelper.resultAsJSON("418");
+            assertThat(result.status(), is(418));
+            assertThat(body(result).path("message").asText(), is("HTTP 418 - I'm a teapot"));
+        } finally {
+            JSONResponseHelper.httpResponseCodes.remove("418");
+        }
+    }
+}
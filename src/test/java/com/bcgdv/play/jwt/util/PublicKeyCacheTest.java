@@ -0,0 +1,283 @@
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.JwtValidationException;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Keys must be fetched once per context and interval, concurrent misses must share that fetch, failures must back off, keys must be refreshed before they turn stale and served stale only
+ * for a bounded time.
+ */
+public class PublicKeyCacheTest {
+
+    protected static final String CONTEXT = "http://cache.local/api";
+    protected static final String OTHER_CONTEXT = "http://other.local/api";
+    protected static final long TTL = 60000;
+
+    protected static String encodedKey;
+
+    protected SecurityExecutors securityExecutors = new SecurityExecutors();
+
+    @BeforeClass
+    public static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        encodedKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded());
+    }
+
+    @After
+    public void shutdown() {
+        securityExecutors.shutdown();
+        System.clearProperty(Settings.KEY_TTL_MS);
+        System.clearProperty(Settings.KEY_REFRESH_AHEAD_MS);
+        System.clearProperty(Settings.KEY_MAX_STALE_MS);
+        System.clearProperty(Settings.KEY_CACHE_SIZE);
+        System.clearProperty(Settings.KEY_FAILURE_BACKOFF_MS);
+    }
+
+    protected PublicKeyCache cache(long refreshAhead, long maxStale) {
+        System.setProperty(Settings.KEY_TTL_MS, String.valueOf(TTL));
+        System.setProperty(Settings.KEY_REFRESH_AHEAD_MS, String.valueOf(refreshAhead));
+        System.setProperty(Settings.KEY_MAX_STALE_MS, String.valueOf(maxStale));
+        return new PublicKeyCache(securityExecutors);
+    }
+
+    /**
+     * Serves the key once released, so a test can see the fetch in flight
+     */
+    protected static Function<String, String> blocking(AtomicInteger calls, CountDownLatch release) {
+        return context -> {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return encodedKey;
+        };
+    }
+
+    protected static Function<String, String> failing(AtomicInteger calls) {
+        return context -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("pubkey endpoint down");
+        };
+    }
+
+    protected static Function<String, String> serving(AtomicInteger calls) {
+        return context -> {
+            calls.incrementAndGet();
+            return encodedKey;
+        };
+    }
+
+    protected static void assertUnavailable(PublicKeyCache cache, Function<String, String> remoteFetch) {
+        try {
+            cache.fetchKeyAndWait(CONTEXT, remoteFetch);
+            fail("fetched a key");
+        } catch (JwtValidationException e) {
+            assertThat(e.getReason(), is(RejectReason.KEY_UNAVAILABLE));
+        }
+    }
+
+    @Test
+    public void givenFailedFetchShouldRejectFromMemoryUntilBackoffPassed() throws Exception {
+        System.setProperty(Settings.KEY_FAILURE_BACKOFF_MS, "200");
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        AtomicInteger calls = new AtomicInteger();
+        assertUnavailable(cache, failing(calls));
+        assertUnavailable(cache, serving(calls));
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getRateLimitedFetchCount(), is(1L));
+
+        Thread.sleep(300);
+        assertThat(cache.fetchKeyAndWait(CONTEXT, serving(calls)), is(notNullValue()));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void givenFailedFetchShouldNotHoldTheRefetchInterval() throws Exception {
+        System.setProperty(Settings.KEY_FAILURE_BACKOFF_MS, "0");
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        AtomicInteger calls = new AtomicInteger();
+        assertUnavailable(cache, failing(calls));
+        assertThat(cache.fetchKeyAndWait(CONTEXT, serving(calls)), is(notNullValue()));
+        assertThat(calls.get(), is(2));
+        assertThat(cache.getRateLimitedFetchCount(), is(0L));
+    }
+
+    @Test
+    public void givenSuccessfulFetchShouldRateLimitRefetch() {
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        AtomicInteger calls = new AtomicInteger();
+        cache.fetchKeyAndWait(CONTEXT, serving(calls));
+        assertUnavailable(cache, serving(calls));
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getRateLimitedFetchCount(), is(1L));
+    }
+
+    @Test
+    public void givenConcurrentMissesShouldFetchOnce() throws Exception {
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Function<String, String> remoteFetch = blocking(calls, release);
+        int requests = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<CompletableFuture<PublicKey>>> fetches = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                fetches.add(callers.submit(() -> {
+                    start.await(5, TimeUnit.SECONDS);
+                    return cache.fetchKey(CONTEXT, remoteFetch, securityExecutors.keyFetch());
+                }));
+            }
+            start.countDown();
+            List<CompletableFuture<PublicKey>> keys = new ArrayList<>();
+            for (Future<CompletableFuture<PublicKey>> fetch : fetches) {
+                keys.add(fetch.get(5, TimeUnit.SECONDS));
+            }
+            assertThat(cache.getCoalescedFetchCount(), is((long) requests - 1));
+
+            release.countDown();
+            for (CompletableFuture<PublicKey> key : keys) {
+                assertThat(key.get(5, TimeUnit.SECONDS), is(notNullValue()));
+            }
+            assertThat(calls.get(), is(1));
+            assertThat(cache.getRateLimitedFetchCount(), is(0L));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void givenFreshKeyShouldServeWithoutRefresh() {
+        PublicKeyCache cache = cache(10000, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        cache.addKey(CONTEXT, encodedKey, serving(calls));
+        assertThat(cache.getPublicKey(CONTEXT), is(notNullValue()));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getStaleHitCount(), is(0L));
+        assertThat(cache.getRefreshCount(), is(0L));
+        assertThat(calls.get(), is(0));
+    }
+
+    @Test
+    public void givenKeyPastTtlShouldServeStaleWhileRefreshing() throws Exception {
+        PublicKeyCache cache = cache(10000, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        cache.addKey(CONTEXT, encodedKey, blocking(calls, release), System.currentTimeMillis() - TTL - 1000);
+        assertThat(cache.containsFresh(CONTEXT), is(false));
+
+        PublicKey stale = cache.getPublicKey(CONTEXT);
+        assertThat(stale, is(notNullValue()));
+        assertThat(cache.getStaleHitCount(), is(1L));
+        assertThat(cache.getRefreshCount(), is(1L));
+        CompletableFuture<PublicKey> refresh = cache.inFlight.get(CONTEXT);
+        assertThat(refresh, is(notNullValue()));
+        assertThat(cache.getPublicKey(CONTEXT), is(stale));
+        assertThat(cache.getRefreshCount(), is(1L));
+
+        release.countDown();
+        assertThat(refresh.get(5, TimeUnit.SECONDS), is(notNullValue()));
+        assertThat(cache.containsFresh(CONTEXT), is(true));
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void givenKeyStaleBeyondMaxStaleShouldMiss() {
+        PublicKeyCache cache = cache(10000, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        cache.addKey(CONTEXT, encodedKey, failing(calls), System.currentTimeMillis() - TTL - 60000 - 1000);
+        assertThat(cache.getPublicKey(CONTEXT), is(nullValue()));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(0L));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void givenNoMaxStaleShouldServeStaleKeys() {
+        PublicKeyCache cache = cache(10000, 0);
+        AtomicInteger calls = new AtomicInteger();
+        cache.addKey(CONTEXT, encodedKey, failing(calls), System.currentTimeMillis() - 100 * TTL);
+        assertThat(cache.getPublicKey(CONTEXT), is(notNullValue()));
+        assertThat(cache.getStaleHitCount(), is(1L));
+    }
+
+    @Test
+    public void givenKeyAboutToTurnStaleShouldRefreshAhead() throws Exception {
+        PublicKeyCache cache = cache(30000, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        cache.addKey(CONTEXT, encodedKey, blocking(calls, release), System.currentTimeMillis() - TTL + 15000);
+        cache.addKey(OTHER_CONTEXT, encodedKey, serving(calls));
+
+        cache.refreshExpiring();
+        CompletableFuture<PublicKey> refresh = cache.inFlight.get(CONTEXT);
+        assertThat(refresh, is(notNullValue()));
+        assertThat(cache.inFlight.containsKey(OTHER_CONTEXT), is(false));
+        assertThat(cache.getRefreshCount(), is(1L));
+
+        release.countDown();
+        refresh.get(5, TimeUnit.SECONDS);
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getStaleHitCount(), is(0L));
+    }
+
+    @Test
+    public void givenRateLimitedRefreshShouldNotCountRefresh() {
+        PublicKeyCache cache = cache(10000, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        cache.addKey(CONTEXT, encodedKey, serving(calls), System.currentTimeMillis() - TTL - 1000);
+        cache.recentFetches.put(CONTEXT, Boolean.TRUE);
+        assertThat(cache.getPublicKey(CONTEXT), is(notNullValue()));
+        assertThat(cache.getRefreshCount(), is(0L));
+        assertThat(cache.getRateLimitedFetchCount(), is(1L));
+        assertThat(calls.get(), is(0));
+    }
+
+    @Test
+    public void givenFullCacheShouldEvictLeastRecentlyUsed() {
+        System.setProperty(Settings.KEY_CACHE_SIZE, "2");
+        PublicKeyCache cache = cache(10000, 60000);
+        cache.addKey("a", encodedKey);
+        cache.addKey("b", encodedKey);
+        cache.cache.get("a").lastAccess = 2;
+        cache.cache.get("b").lastAccess = 1;
+
+        cache.addKey("c", encodedKey);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.cache.containsKey("b"), is(false));
+        assertThat(cache.cache.containsKey("a"), is(true));
+
+        cache.addKey("a", encodedKey);
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+}
@@ -0,0 +1,132 @@
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.model.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import play.libs.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The key snapshot must survive a restart with the original fetch times and never be left half written.
+ */
+public class PublicKeySnapshotTest {
+
+    protected static final String CONTEXT = "http://cache.local/api";
+    protected static final String OTHER_CONTEXT = "http://other.local/api";
+    protected static final long TTL = 60000;
+
+    protected static String encodedKey;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected SecurityExecutors securityExecutors = new SecurityExecutors();
+
+    protected Path snapshotFile;
+
+    @BeforeClass
+    public static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        encodedKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded());
+    }
+
+    @Before
+    public void configure() {
+        snapshotFile = folder.getRoot().toPath().resolve("keys.json");
+        System.setProperty(Settings.KEY_SNAPSHOT_FILE, snapshotFile.toString());
+        System.setProperty(Settings.KEY_TTL_MS, String.valueOf(TTL));
+    }
+
+    @After
+    public void shutdown() {
+        securityExecutors.shutdown();
+        System.clearProperty(Settings.KEY_SNAPSHOT_FILE);
+        System.clearProperty(Settings.KEY_TTL_MS);
+    }
+
+    @Test
+    public void givenSnapshotShouldReloadKeysWithFetchTime() {
+        long stale = System.currentTimeMillis() - TTL - 1000;
+        PublicKeyCache written = new PublicKeyCache(securityExecutors);
+        written.addKey(CONTEXT, encodedKey);
+        written.addKey(OTHER_CONTEXT, encodedKey, null, stale);
+        written.writeSnapshot();
+        assertThat(written.modified, is(false));
+
+        PublicKeyCache loaded = new PublicKeyCache(securityExecutors);
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.getKey(CONTEXT), is(encodedKey));
+        assertThat(loaded.cache.get(OTHER_CONTEXT).fetchedAt, is(stale));
+        assertThat(loaded.cache.get(CONTEXT).fetchedAt, is(written.cache.get(CONTEXT).fetchedAt));
+        assertThat(loaded.modified, is(false));
+    }
+
+    @Test
+    public void givenUnmodifiedCacheShouldNotWrite() {
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        cache.writeSnapshot();
+        assertThat(Files.exists(snapshotFile), is(false));
+    }
+
+    @Test
+    public void givenExistingSnapshotShouldReplaceWithoutLeftovers() throws Exception {
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        cache.addKey(CONTEXT, encodedKey);
+        cache.writeSnapshot();
+        cache.addKey(OTHER_CONTEXT, encodedKey);
+        cache.invalidate(CONTEXT);
+        cache.writeSnapshot();
+
+        String[] files = folder.getRoot().list();
+        assertThat(files.length, is(1));
+        assertThat(files[0], is(snapshotFile.getFileName().toString()));
+        assertThat(Json.parse(new String(Files.readAllBytes(snapshotFile), StandardCharsets.UTF_8))
+                .path("keys").get(0).path("context").asText(), is(OTHER_CONTEXT));
+        assertThat(new PublicKeyCache(securityExecutors).cache.keySet().contains(CONTEXT), is(false));
+    }
+
+    @Test
+    public void givenCorruptSnapshotShouldStartEmptyAndOverwrite() throws Exception {
+        Files.write(snapshotFile, "{\"keys\":[{\"context\":".getBytes(StandardCharsets.UTF_8));
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        assertThat(cache.size(), is(0));
+
+        cache.addKey(CONTEXT, encodedKey);
+        cache.writeSnapshot();
+        assertThat(new PublicKeyCache(securityExecutors).size(), is(1));
+    }
+
+    @Test
+    public void givenUndecodableKeyShouldSkipOnlyThatKey() throws Exception {
+        String snapshot = "{\"keys\":["
+                + "{\"context\":\"" + CONTEXT + "\",\"key\":\"bm90IGEga2V5\",\"fetchedAt\":1},"
+                + "{\"context\":\"" + OTHER_CONTEXT + "\",\"key\":\"" + encodedKey + "\",\"fetchedAt\":1}]}";
+        Files.write(snapshotFile, snapshot.getBytes(StandardCharsets.UTF_8));
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        assertThat(cache.size(), is(1));
+        assertThat(cache.cache.containsKey(OTHER_CONTEXT), is(true));
+    }
+
+    @Test
+    public void givenKeyAgeShouldReportFreshness() {
+        PublicKeyCache cache = new PublicKeyCache(securityExecutors);
+        cache.addKey(CONTEXT, encodedKey);
+        cache.addKey(OTHER_CONTEXT, encodedKey, null, System.currentTimeMillis() - TTL - 1000);
+        assertThat(cache.containsFresh(CONTEXT), is(true));
+        assertThat(cache.containsFresh(OTHER_CONTEXT), is(false));
+        assertThat(cache.containsFresh("http://missing.local/api"), is(false));
+    }
+}
@@ -0,0 +1,40 @@
+package com.bcgdv.play.jwt.util;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.inject.ApplicationLifecycle;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Pools must stop with the application.
+ */
+public class SecurityExecutorsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void givenStopHookShouldShutDownPools() throws Exception {
+        ApplicationLifecycle lifecycle = mock(ApplicationLifecycle.class);
+        SecurityExecutors executors = new SecurityExecutors(lifecycle);
+        ArgumentCaptor<Callable> hook = ArgumentCaptor.forClass(Callable.class);
+        verify(lifecycle).addStopHook(hook.capture());
+
+        ((CompletionStage<?>) hook.getValue().call()).toCompletableFuture().get();
+        assertThat(executors.scheduler().isShutdown(), is(true));
+        assertThat(((ExecutorService) executors.keyFetch()).isShutdown(), is(true));
+        assertThat(((ExecutorService) executors.audit()).isShutdown(), is(true));
+    }
+
+    @Test
+    public void givenNoInjectionShouldShareOnePool() {
+        assertThat(SecurityExecutors.shared(), is(sameInstance(SecurityExecutors.shared())));
+    }
+}
@@ -0,0 +1,106 @@
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Rejection logs must be rate limited per reason and audit records, written only when enabled, dropped rather
+ * than queued without bound.
+ */
+public class SecurityLogTest {
+
+    @After
+    public void clearSettings() {
+        System.clearProperty(Settings.LOG_REJECT_PER_SECOND);
+        System.clearProperty(Settings.LOG_REJECT_BURST);
+        System.clearProperty(Settings.AUDIT_ENABLED);
+    }
+
+    protected static SecurityLog securityLog(long perSecond, long burst) {
+        System.setProperty(Settings.LOG_REJECT_PER_SECOND, String.valueOf(perSecond));
+        System.setProperty(Settings.LOG_REJECT_BURST, String.valueOf(burst));
+        return new SecurityLog();
+    }
+
+    protected static int acquired(SecurityLog securityLog, RejectReason reason, int attempts) {
+        int acquired = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (securityLog.acquire(reason)) {
+                acquired++;
+            }
+        }
+        return acquired;
+    }
+
+    @Test
+    public void givenBurstShouldLogThatManyAtOnce() {
+        SecurityLog securityLog = securityLog(1, 5);
+        assertThat(acquired(securityLog, RejectReason.EXPIRED, 20), is(5));
+    }
+
+    @Test
+    public void givenReasonsShouldHaveABucketEach() {
+        SecurityLog securityLog = securityLog(1, 2);
+        assertThat(acquired(securityLog, RejectReason.EXPIRED, 10), is(2));
+        assertThat(acquired(securityLog, RejectReason.BAD_SIGNATURE, 10), is(2));
+    }
+
+    @Test
+    public void givenTimeShouldRefillAtRate() throws Exception {
+        SecurityLog securityLog = securityLog(100, 1);
+        assertThat(acquired(securityLog, RejectReason.EXPIRED, 10), is(1));
+        Thread.sleep(50);
+        int refilled = acquired(securityLog, RejectReason.EXPIRED, 10);
+        assertThat(refilled, is(1));
+    }
+
+    @Test
+    public void givenNoRateShouldNeverLog() {
+        SecurityLog securityLog = securityLog(0, 20);
+        assertThat(acquired(securityLog, RejectReason.EXPIRED, 10), is(0));
+    }
+
+    @Test
+    public void givenSuppressedRejectionsShouldCountAndResetOnSummary() {
+        SecurityLog securityLog = securityLog(1, 1);
+        for (int i = 0; i < 4; i++) {
+            securityLog.rejected(RejectReason.EXPIRED, Token.Type.NONE, "/secure", "expired");
+        }
+        assertThat(securityLog.getSuppressedCount(RejectReason.EXPIRED), is(3L));
+        assertThat(securityLog.getSuppressedCount(RejectReason.BAD_SIGNATURE), is(0L));
+        securityLog.summarize(1000);
+        assertThat(securityLog.getSuppressedCount(RejectReason.EXPIRED), is(0L));
+    }
+
+    @Test
+    public void givenAuditNotEnabledShouldNotWriteRecords() {
+        AtomicInteger records = new AtomicInteger();
+        SecurityLog securityLog = new SecurityLog(command -> records.incrementAndGet());
+        securityLog.accepted(Token.Type.SERVER, "/secure");
+        securityLog.rejected(RejectReason.EXPIRED, Token.Type.SERVER, "/secure", "expired");
+        assertThat(records.get(), is(0));
+        assertThat(securityLog.getAuditDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void givenFullAuditQueueShouldDropAndResetOnSummary() {
+        System.setProperty(Settings.AUDIT_ENABLED, "true");
+        SecurityLog securityLog = new SecurityLog(command -> {
+            throw new RejectedExecutionException("audit queue full");
+        });
+        securityLog.accepted(Token.Type.SERVER, "/secure");
+        securityLog.rejected(RejectReason.EXPIRED, Token.Type.SERVER, "/secure", "expired");
+        assertThat(securityLog.getAuditDroppedCount(), is(2L));
+        securityLog.summarize(1000);
+        assertThat(securityLog.getAuditDroppedCount(), is(0L));
+    }
+}
@@ -0,0 +1,159 @@
+package com.bcgdv.play.jwt.util;
+
+import com.bcgdv.play.jwt.validation.JwtValidationException;
+import com.bcgdv.play.jwt.validation.RejectReason;
+import com.bcgdv.play.jwt.validation.TokenContext;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Verified tokens must be served only for the same token and never after the token expired.
+ */
+public class VerifiedTokenCacheTest {
+
+    protected static final String HEADER = "eyJhbGciOiJSUzI1NiJ9";
+    protected static final String SIGNATURE = "c2lnbmF0dXJlLW9mLXRoZS10b2tlbi1hdC1sZWFzdC0yMi1jaGFycw";
+
+    protected static TokenContext token(long dateCreated, long expiry, String secret) {
+        String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                ("{\"dateCreated\":" + dateCreated + ",\"expiryInMilliSeconds\":" + expiry
+                        + ",\"secret\":\"" + secret + "\"}").getBytes(StandardCharsets.UTF_8));
+        return TokenContext.parse(HEADER + "." + payload + "." + SIGNATURE);
+    }
+
+    protected static TokenContext token() {
+        return token(System.currentTimeMillis(), 60000, "s");
+    }
+
+    @Test
+    public void givenVerifiedTokenShouldHit() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        TokenContext token = token();
+        AtomicInteger verifications = new AtomicInteger();
+        cache.verify(token, t -> verifications.incrementAndGet());
+
+        TokenContext again = TokenContext.parse(token.getToken());
+        assertThat(cache.get(again).get(), is(sameInstance(token)));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(verifications.get(), is(1));
+    }
+
+    @Test
+    public void givenFailedVerificationShouldNotCache() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        TokenContext token = token();
+        try {
+            cache.verify(token, t -> {
+                throw new JwtValidationException(RejectReason.BAD_SIGNATURE, "bad signature");
+            });
+            fail("verified a bad token");
+        } catch (JwtValidationException e) {
+            assertThat(e.getReason(), is(RejectReason.BAD_SIGNATURE));
+        }
+        assertThat(cache.get(token).isPresent(), is(false));
+        assertThat(cache.size(), is(0L));
+    }
+
+    @Test
+    public void givenTokenExpiringBeforeTtlShouldDropAtTokenExpiry() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        long now = System.currentTimeMillis();
+        assertThat(cache.deadline(token(now, 1000, "s")), is(now + 1000));
+
+        TokenContext expired = token(now - 2000, 1000, "s");
+        cache.verify(expired, t -> { });
+        assertThat(cache.get(expired).isPresent(), is(false));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void givenTokenWithoutExpiryShouldDropAtTtl() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        long before = System.currentTimeMillis();
+        long deadline = cache.deadline(token(before, -1, "s"));
+        assertThat(deadline >= before + 60000 && deadline <= System.currentTimeMillis() + 60000, is(true));
+    }
+
+    @Test
+    public void givenSameSignatureOnOtherPayloadShouldMiss() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        TokenContext token = token(System.currentTimeMillis(), 60000, "s");
+        TokenContext forged = token(System.currentTimeMillis(), 60000, "other");
+        assertThat(cache.fingerprint(forged.getToken()), is(cache.fingerprint(token.getToken())));
+
+        cache.verify(token, t -> { });
+        assertThat(cache.get(forged).isPresent(), is(false));
+    }
+
+    @Test
+    public void givenConcurrentSameTokenShouldShareOneVerification() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        TokenContext token = token();
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        AtomicInteger verifications = new AtomicInteger();
+
+        CompletionStage<Void> first = cache.verifyAsync(token, t -> {
+            verifications.incrementAndGet();
+            return pending;
+        });
+        CompletionStage<Void> second = cache.verifyAsync(TokenContext.parse(token.getToken()), t -> {
+            verifications.incrementAndGet();
+            return pending;
+        });
+        assertThat(second, is(sameInstance(first)));
+        assertThat(verifications.get(), is(1));
+
+        pending.complete(null);
+        assertThat(first.toCompletableFuture().isDone(), is(true));
+        assertThat(cache.get(token).isPresent(), is(true));
+    }
+
+    @Test
+    public void givenConcurrentForgedTokenShouldVerifyOnItsOwn() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        TokenContext token = token(System.currentTimeMillis(), 60000, "s");
+        TokenContext forged = token(System.currentTimeMillis(), 60000, "other");
+        AtomicInteger verifications = new AtomicInteger();
+
+        cache.verifyAsync(token, t -> {
+            verifications.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        CompletableFuture<Void> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new JwtValidationException(RejectReason.BAD_SIGNATURE, "bad signature"));
+        CompletionStage<Void> forgedVerification = cache.verifyAsync(forged, t -> {
+            verifications.incrementAndGet();
+            return rejected;
+        });
+        assertThat(verifications.get(), is(2));
+        assertThat(forgedVerification.toCompletableFuture().isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void givenTokenEndingInDotShouldFingerprintEmpty() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        assertThat(cache.fingerprint("header.payload."), is(""));
+        assertThat(cache.fingerprint("header.payload.abc"), is("abc"));
+    }
+
+    @Test
+    public void givenDisabledCacheShouldAlwaysVerify() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(0, 60000);
+        TokenContext token = token();
+        AtomicInteger verifications = new AtomicInteger();
+        cache.verify(token, t -> verifications.incrementAndGet());
+        cache.verify(token, t -> verifications.incrementAndGet());
+        assertThat(verifications.get(), is(2));
+        assertThat(cache.get(token).isPresent(), is(false));
+    }
+}
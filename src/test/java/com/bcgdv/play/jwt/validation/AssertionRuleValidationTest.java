@@ -0,0 +1,120 @@
+package com.bcgdv.play.jwt.validation;
+
+import org.junit.Test;
+import play.mvc.Http;
+import play.routing.Router;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Rules must be compiled into matchers over the assertions map and path segments found without splitting.
+ */
+public class AssertionRuleValidationTest {
+
+    protected AssertionRuleValidation validation = new AssertionRuleValidation(getClass().getClassLoader());
+
+    @Test
+    public void givenEqualsRuleShouldCompareAsText() {
+        Map<String, Object> assertions = new HashMap<>();
+        assertions.put("customerId", 42);
+        assertThat(validation.compile("customerId == 42").matches(assertions, null), is(true));
+        assertThat(validation.compile("customerId == \"42\"").matches(assertions, null), is(true));
+        assertThat(validation.compile("customerId == 43").matches(assertions, null), is(false));
+        assertThat(validation.compile("missing == 42").matches(assertions, null), is(false));
+    }
+
+    @Test
+    public void givenContainsRuleShouldMatchArrayElements() {
+        Map<String, Object> assertions = new HashMap<>();
+        assertions.put("roles", Arrays.asList("user", "admin"));
+        assertThat(validation.compile("roles contains admin").matches(assertions, null), is(true));
+        assertThat(validation.compile("roles contains root").matches(assertions, null), is(false));
+    }
+
+    @Test
+    public void givenNestedClaimShouldWalkMaps() {
+        Map<String, Object> account = new HashMap<>();
+        account.put("tier", "gold");
+        Map<String, Object> assertions = new HashMap<>();
+        assertions.put("account", account);
+        assertThat(validation.compile("account.tier == gold").matches(assertions, null), is(true));
+        assertThat(validation.compile("account.tier.level == gold").matches(assertions, null), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenUnsupportedRuleShouldNotCompile() {
+        validation.compile("customerId != 42");
+    }
+
+    @Test
+    public void givenRoutePatternShouldIndexWholeSegmentParams() {
+        Map<String, Integer> params = AssertionRuleValidation.parsePathParams("/customers/$id<[^/]+>/orders/$order<[0-9]+>");
+        assertThat(params.get("id"), is(2));
+        assertThat(params.get("order"), is(4));
+        assertThat(AssertionRuleValidation.segment("/customers/7/orders/9", 2), is("7"));
+        assertThat(AssertionRuleValidation.segment("/customers/7/orders/9", 4), is("9"));
+        assertThat(AssertionRuleValidation.segment("/customers", 2), is(nullValue()));
+        assertThat(AssertionRuleValidation.decode("a%20b+c"), is("a b+c"));
+    }
+
+    protected static Http.Request request(String pattern, String path, String queryId) {
+        Http.Request request = mock(Http.Request.class);
+        when(request.tags()).thenReturn(Collections.singletonMap(Router.Tags.ROUTE_PATTERN, pattern));
+        when(request.path()).thenReturn(path);
+        when(request.getQueryString("id")).thenReturn(queryId);
+        return request;
+    }
+
+    protected static Map<String, Object> customer(String customerId) {
+        return Collections.<String, Object>singletonMap("customerId", customerId);
+    }
+
+    @Test
+    public void givenWholeSegmentParamShouldReadPathNotQuery() {
+        AssertionRuleValidation.Rule rule = validation.compile("customerId == param:id");
+        Http.Request request = request("/customers/$id<[^/]+>", "/customers/7", "42");
+        assertThat(rule.matches(customer("7"), request), is(true));
+        assertThat(rule.matches(customer("42"), request), is(false));
+    }
+
+    @Test
+    public void givenEmbeddedParamShouldFailClosedNotReadQuery() {
+        AssertionRuleValidation.Rule rule = validation.compile("customerId == param:id");
+        Http.Request request = request("/customers/$id<[^/]+>.json", "/customers/OTHER.json", "42");
+        assertThat(rule.matches(customer("42"), request), is(false));
+        assertThat(rule.matches(customer("OTHER"), request), is(false));
+    }
+
+    @Test
+    public void givenParamAfterSlashMatchingRegexShouldFailClosed() {
+        AssertionRuleValidation.Rule rule = validation.compile("customerId == param:id");
+        Http.Request request = request("/files/$path<.+>/$id<[^/]+>", "/files/a/b/7", "42");
+        assertThat(rule.matches(customer("42"), request), is(false));
+        assertThat(rule.matches(customer("7"), request), is(false));
+    }
+
+    @Test
+    public void givenNoRouteParamShouldReadQuery() {
+        AssertionRuleValidation.Rule rule = validation.compile("customerId == param:id");
+        assertThat(rule.matches(customer("42"), request("/customers", "/customers", "42")), is(true));
+    }
+
+    @Test
+    public void givenRoutePatternShouldMarkUnresolvableParams() {
+        Map<String, Integer> params = AssertionRuleValidation.parsePathParams("/a/$id<[^/]+>.json/$path<.+>/$x<[a-z]+>");
+        assertThat(params.get("id"), is(AssertionRuleValidation.UNRESOLVED));
+        assertThat(params.get("path"), is(AssertionRuleValidation.UNRESOLVED));
+        assertThat(params.get("x"), is(AssertionRuleValidation.UNRESOLVED));
+        assertThat(AssertionRuleValidation.parsePathParams("/a/$id<\\d+>").get("id"), is(AssertionRuleValidation.UNRESOLVED));
+        assertThat(AssertionRuleValidation.parsePathParams("/a/$id<[a-z0-9-]+>").get("id"), is(2));
+    }
+}
@@ -0,0 +1,371 @@
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.multibindings.Multibinder;
+import org.junit.After;
+import org.junit.Test;
+import play.mvc.Http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Asynchronous validations must be composed without blocking, each within its timeout, and fail the
+ * request on the first part that does not pass.
+ */
+public class AssertionValidatorImplTest {
+
+    protected static final Token.Type[] ANNOTATED = {Token.Type.SERVER};
+
+    protected ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    protected AssertionValidatorImpl validator(AsyncAssertionValidation... validations) {
+        return new AssertionValidatorImpl(Collections.<AssertionValidation>emptyList(), Arrays.asList(validations), scheduler);
+    }
+
+    protected static CompletableFuture<Boolean> validateAsync(AssertionValidatorImpl validator) {
+        return validator.validateAsync(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null).toCompletableFuture();
+    }
+
+    protected static CompletableFuture<Boolean> failed(RuntimeException e) {
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    @Test
+    public void givenPendingValidationsShouldCompleteWhenAllPassed() {
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        Async secondValidation = new Async(200, () -> second);
+        CompletableFuture<Boolean> outcome = validateAsync(validator(new Async(100, () -> first), secondValidation));
+
+        assertThat(outcome.isDone(), is(false));
+        assertThat(secondValidation.calls.get(), is(0));
+        first.complete(true);
+        assertThat(secondValidation.calls.get(), is(1));
+        assertThat(outcome.isDone(), is(false));
+        second.complete(true);
+        assertThat(outcome.getNow(false), is(true));
+    }
+
+    @Test
+    public void givenFailedValidationShouldNotRunTheRest() {
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        Async rest = new Async(200, () -> CompletableFuture.completedFuture(true));
+        AssertionValidatorImpl validator = validator(new Async(100, () -> first), rest);
+        CompletableFuture<Boolean> outcome = validateAsync(validator);
+
+        first.complete(false);
+        assertThat(outcome.getNow(true), is(false));
+        assertThat(rest.calls.get(), is(0));
+        assertThat(validator.getSteps().get(0).getRejectionCount(), is(1L));
+        assertThat(validator.getSteps().get(1).getInvocationCount(), is(0L));
+    }
+
+    @Test
+    public void givenSlowValidationShouldFailAfterTimeout() throws Exception {
+        Async slow = new Async(100, CompletableFuture::new);
+        slow.timeoutMillis = 50;
+        AssertionValidatorImpl validator = validator(slow);
+
+        assertThat(validateAsync(validator).get(5, TimeUnit.SECONDS), is(false));
+        AssertionValidatorImpl.Step step = validator.getSteps().get(0);
+        assertThat(step.getTimeoutCount(), is(1L));
+        assertThat(step.getRejectionCount(), is(1L));
+    }
+
+    @Test
+    public void givenFastValidationShouldNotTimeOut() throws Exception {
+        Async fast = new Async(100, () -> CompletableFuture.supplyAsync(() -> true));
+        fast.timeoutMillis = 5000;
+        AssertionValidatorImpl validator = validator(fast);
+
+        assertThat(validateAsync(validator).get(5, TimeUnit.SECONDS), is(true));
+        assertThat(validator.getSteps().get(0).getTimeoutCount(), is(0L));
+    }
+
+    @Test
+    public void givenIndependentValidationFailingShouldNotWaitForTheChain() {
+        CompletableFuture<Boolean> chained = new CompletableFuture<>();
+        Async independent = new Async(1000, () -> CompletableFuture.completedFuture(false));
+        independent.independent = true;
+        CompletableFuture<Boolean> outcome = validateAsync(validator(new Async(100, () -> chained), independent));
+
+        assertThat(independent.calls.get(), is(1));
+        assertThat(outcome.getNow(true), is(false));
+        chained.complete(true);
+        assertThat(outcome.getNow(true), is(false));
+    }
+
+    @Test
+    public void givenIndependentValidationPassingShouldWaitForTheChain() {
+        CompletableFuture<Boolean> chained = new CompletableFuture<>();
+        Async independent = new Async(1000, () -> CompletableFuture.completedFuture(true));
+        independent.independent = true;
+        CompletableFuture<Boolean> outcome = validateAsync(validator(new Async(100, () -> chained), independent));
+
+        assertThat(outcome.isDone(), is(false));
+        chained.complete(true);
+        assertThat(outcome.getNow(false), is(true));
+    }
+
+    @Test
+    public void givenExceptionalCompletionShouldFail() {
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        AssertionValidatorImpl validator = validator(new Async(100, () -> first));
+        CompletableFuture<Boolean> outcome = validateAsync(validator);
+
+        first.completeExceptionally(new IllegalStateException("backend down"));
+        assertThat(outcome.isCompletedExceptionally(), is(false));
+        assertThat(outcome.getNow(true), is(false));
+        assertThat(validator.getSteps().get(0).getRejectionCount(), is(1L));
+    }
+
+    @Test
+    public void givenSynchronousExceptionShouldFail() {
+        AssertionValidatorImpl validator = validator(new Async(100, () -> {
+            throw new IllegalStateException("no backend configured");
+        }));
+
+        assertThat(validateAsync(validator).getNow(true), is(false));
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(false));
+        assertThat(validator.getSteps().get(0).getRejectionCount(), is(2L));
+    }
+
+    @Test
+    public void givenNullCompletionShouldFailWithoutHanging() {
+        CompletableFuture<Boolean> chained = new CompletableFuture<>();
+        CompletableFuture<Boolean> independentResult = new CompletableFuture<>();
+        Async independent = new Async(1000, () -> independentResult);
+        independent.independent = true;
+        AssertionValidatorImpl validator = validator(new Async(100, () -> chained), independent);
+        CompletableFuture<Boolean> outcome = validateAsync(validator);
+
+        independentResult.complete(null);
+        assertThat(outcome.getNow(true), is(false));
+        chained.complete(null);
+        assertThat(outcome.getNow(true), is(false));
+        assertThat(validator.getSteps().get(0).getRejectionCount(), is(1L));
+        assertThat(validator.getSteps().get(1).getRejectionCount(), is(1L));
+
+        AssertionValidatorImpl completed = validator(new Async(100, () -> CompletableFuture.completedFuture(null)));
+        assertThat(validateAsync(completed).getNow(true), is(false));
+        assertThat(completed.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(false));
+    }
+
+    @Test
+    public void givenFailedStageShouldFailBlockingValidate() {
+        AssertionValidatorImpl validator = validator(new Async(100, () -> failed(new IllegalStateException("backend down"))));
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(false));
+    }
+
+    @Test
+    public void givenCostsShouldRunCheapestFirstKeepingRegistrationOrderOnTies() {
+        List<String> calls = new ArrayList<>();
+        Sync expensive = new Sync("expensive", 300, true, calls);
+        Sync tieFirst = new Sync("tieFirst", 100, true, calls);
+        Sync tieSecond = new Sync("tieSecond", 100, true, calls);
+        Sync cheap = new Sync("cheap", 10, true, calls);
+        AssertionValidatorImpl validator = new AssertionValidatorImpl(Arrays.asList(expensive, tieFirst, tieSecond, cheap));
+
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(true));
+        assertThat(calls, is(Arrays.asList("cheap", "tieFirst", "tieSecond", "expensive")));
+        assertThat(validator.getSteps().get(0).getValidation().getCost(), is(10));
+        assertThat(validator.getSteps().get(3).getValidation().getCost(), is(300));
+    }
+
+    @Test
+    public void givenEqualCostShouldRunSynchronousBeforeAsynchronous() {
+        Async async = new Async(100, () -> CompletableFuture.completedFuture(true));
+        Sync sync = new Sync("sync", 100, true, new ArrayList<>());
+        AssertionValidatorImpl validator = new AssertionValidatorImpl(
+                Collections.<AssertionValidation>singletonList(sync),
+                Collections.<AsyncAssertionValidation>singletonList(async),
+                scheduler);
+
+        assertThat(validator.getSteps().get(0).getValidation(), is(instanceOf(AssertionValidationAdapter.class)));
+        assertThat(validator.getSteps().get(1).getValidation(), is(sameInstance((AsyncAssertionValidation) async)));
+    }
+
+    @Test
+    public void givenFailedValidationShouldStopAndCount() {
+        List<String> calls = new ArrayList<>();
+        AssertionValidatorImpl validator = new AssertionValidatorImpl(Arrays.asList(
+                new Sync("pass", 10, true, calls),
+                new Sync("fail", 20, false, calls),
+                new Sync("skipped", 30, true, calls)));
+
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(false));
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(false));
+        assertThat(calls, is(Arrays.asList("pass", "fail", "pass", "fail")));
+        List<AssertionValidatorImpl.Step> steps = validator.getSteps();
+        assertThat(steps.get(0).getInvocationCount(), is(2L));
+        assertThat(steps.get(0).getRejectionCount(), is(0L));
+        assertThat(steps.get(1).getInvocationCount(), is(2L));
+        assertThat(steps.get(1).getRejectionCount(), is(2L));
+        assertThat(steps.get(2).getInvocationCount(), is(0L));
+        assertThat(steps.get(2).getTimeoutCount(), is(0L));
+    }
+
+    @Test
+    public void givenNoValidationsShouldPass() {
+        AssertionValidatorImpl validator = new AssertionValidatorImpl((AssertionValidation) null);
+        assertThat(validator.validate(ANNOTATED, Token.Type.SERVER, Claims.EMPTY, null), is(true));
+        assertThat(validateAsync(validator).getNow(false), is(true));
+    }
+
+    @Test
+    public void givenDirectBindingShouldMergeWithSetBinding() {
+        SecurityExecutors securityExecutors = new SecurityExecutors();
+        try {
+            AssertionValidatorImpl validator = Guice.createInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(SecurityExecutors.class).toInstance(securityExecutors);
+                    Multibinder.newSetBinder(binder(), AssertionValidation.class)
+                            .addBinding()
+                            .to(SetBound.class);
+                    Multibinder.newSetBinder(binder(), AsyncAssertionValidation.class);
+                    bind(AssertionValidation.class).to(DirectlyBound.class);
+                }
+            }).getInstance(AssertionValidatorImpl.class);
+
+            assertThat(validator.assertionValidations.size(), is(2));
+            assertThat(validator.assertionValidations.get(0), is(instanceOf(SetBound.class)));
+            assertThat(validator.assertionValidations.get(1), is(instanceOf(DirectlyBound.class)));
+        } finally {
+            securityExecutors.shutdown();
+        }
+    }
+
+    @Test
+    public void givenDirectBindingAlsoInSetShouldNotRunTwice() {
+        SecurityExecutors securityExecutors = new SecurityExecutors();
+        try {
+            AssertionValidatorImpl validator = Guice.createInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(SecurityExecutors.class).toInstance(securityExecutors);
+                    Multibinder.newSetBinder(binder(), AssertionValidation.class)
+                            .addBinding()
+                            .to(SetBound.class);
+                    Multibinder.newSetBinder(binder(), AsyncAssertionValidation.class);
+                    bind(AssertionValidation.class).to(SetBound.class);
+                }
+            }).getInstance(AssertionValidatorImpl.class);
+
+            assertThat(validator.assertionValidations.size(), is(1));
+        } finally {
+            securityExecutors.shutdown();
+        }
+    }
+
+    /**
+     * A validation registered through the Multibinder set
+     */
+    public static class SetBound implements AssertionValidation {
+        @Override
+        public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+            return true;
+        }
+    }
+
+    /**
+     * A validation bound directly, the way it was configured before the set
+     */
+    public static class DirectlyBound implements AssertionValidation {
+        @Override
+        public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+            return true;
+        }
+    }
+
+    /**
+     * A synchronous validation with a fixed result, recording its name when called
+     */
+    protected static class Sync implements AssertionValidation {
+        protected final String name;
+        protected final int cost;
+        protected final boolean result;
+        protected final List<String> calls;
+
+        protected Sync(String name, int cost, boolean result, List<String> calls) {
+            this.name = name;
+            this.cost = cost;
+            this.result = result;
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+            calls.add(name);
+            return result;
+        }
+
+        @Override
+        public int getCost() {
+            return cost;
+        }
+    }
+
+    /**
+     * An asynchronous validation answering with a given stage, counting its calls
+     */
+    protected static class Async implements AsyncAssertionValidation {
+        protected final int cost;
+        protected final Supplier<CompletionStage<Boolean>> result;
+        protected final AtomicInteger calls = new AtomicInteger();
+        protected long timeoutMillis;
+        protected boolean independent;
+
+        protected Async(int cost, Supplier<? extends CompletionStage<Boolean>> result) {
+            this.cost = cost;
+            this.result = result::get;
+        }
+
+        @Override
+        public CompletionStage<Boolean> withAsync(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+            calls.incrementAndGet();
+            return result.get();
+        }
+
+        @Override
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        @Override
+        public boolean isIndependent() {
+            return independent;
+        }
+    }
+}
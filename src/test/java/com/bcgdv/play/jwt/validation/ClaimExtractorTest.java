@@ -0,0 +1,71 @@
+package com.bcgdv.play.jwt.validation;
+
+import org.junit.Test;
+import play.libs.Json;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Claims must resolve to the node findPath returns, and tokens repeating a claim must be rejected.
+ */
+public class ClaimExtractorTest {
+
+    protected static ClaimExtractor.Claim[] extract(String json, String... names) throws IOException {
+        return ClaimExtractor.extract(Json.mapper().getFactory().createParser(json), names);
+    }
+
+    protected static void assertDuplicate(String json, String... names) throws IOException {
+        try {
+            extract(json, names);
+            fail("accepted " + json);
+        } catch (JwtValidationException e) {
+            assertThat(e.getReason(), is(RejectReason.MALFORMED_TOKEN));
+        }
+    }
+
+    @Test
+    public void givenFieldsShouldResolveLikeFindPath() throws IOException {
+        String json = "{\"outer\":{\"context\":\"nested\"},\"context\":\"top\",\"level\":3,\"assertions\":{\"a\":[1]}}";
+        ClaimExtractor.Claim[] claims = extract(json, "context", "level", "assertions", "missing");
+        assertThat(claims[0].asText(), is(Json.parse(json).findPath("context").asText()));
+        assertThat(claims[1].asLong(), is(3L));
+        assertThat(json.substring(claims[2].getStart(), claims[2].getEnd()), is("{\"a\":[1]}"));
+        assertThat(claims[2].isContainer(), is(true));
+        assertThat(claims[3].isFound(), is(false));
+        assertThat(claims[3].asText(null), is(nullValue()));
+    }
+
+    @Test
+    public void givenJsonNullShouldReadAsNull() throws IOException {
+        ClaimExtractor.Claim[] claims = extract("{\"context\":null,\"tokenType\":\"USER\"}", "context", "tokenType");
+        assertThat(claims[0].isFound(), is(true));
+        assertThat(claims[0].isNull(), is(true));
+        assertThat(claims[0].asText(null), is(nullValue()));
+        assertThat(claims[1].isNull(), is(false));
+        assertThat(claims[1].asText(null), is("USER"));
+    }
+
+    @Test
+    public void givenRepeatedFieldShouldReject() throws IOException {
+        assertDuplicate("{\"secret\":\"a\",\"secret\":\"b\"}", "secret");
+        assertDuplicate("{\"secret\":\"a\",\"dateCreated\":1,\"secret\":{\"b\":1}}", "secret", "dateCreated");
+        assertDuplicate("{\"outer\":{\"alg\":\"RS256\",\"alg\":\"none\"}}", "alg");
+    }
+
+    @Test
+    public void givenSameFieldInOtherObjectsShouldAccept() throws IOException {
+        ClaimExtractor.Claim[] claims = extract(
+                "{\"secret\":\"a\",\"nested\":{\"secret\":\"b\"},\"list\":[{\"secret\":\"c\"}]}", "secret");
+        assertThat(claims[0].asText(), is("a"));
+    }
+
+    @Test
+    public void givenRepeatedUnwantedFieldShouldAccept() throws IOException {
+        assertThat(extract("{\"x\":1,\"x\":2,\"secret\":\"a\"}", "secret")[0].asText(), is("a"));
+    }
+}
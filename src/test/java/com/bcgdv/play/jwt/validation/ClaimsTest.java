@@ -0,0 +1,81 @@
+package com.bcgdv.play.jwt.validation;
+
+import org.junit.Test;
+import play.libs.Json;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Claims must read like the map Jackson decoded the assertions into.
+ */
+public class ClaimsTest {
+
+    protected static final String SECRET = "{\"tokenType\":\"USER\",\"assertions\":"
+            + "{\"customerId\":\"c1\",\"level\":3,\"admin\":true,\"none\":null,"
+            + "\"roles\":[\"a\",\"b\"],\"org\":{\"id\":\"o1\",\"tags\":[1]}},\"context\":\"/k\"}";
+
+    protected static Claims claims() {
+        int start = SECRET.indexOf("{\"customerId\"");
+        int end = SECRET.indexOf(",\"context\"");
+        return Claims.of(SECRET, start, end);
+    }
+
+    @Test
+    public void givenScalarsShouldReadTyped() {
+        Claims claims = claims();
+        assertThat(claims.getString("customerId"), is("c1"));
+        assertThat(claims.getLong("level", 0), is(3L));
+        assertThat(claims.getBoolean("admin", false), is(true));
+        assertThat(claims.has("none"), is(true));
+        assertThat(claims.get("none"), is(nullValue()));
+        assertThat(claims.has("missing"), is(false));
+        assertThat(claims.getLong("missing", -1), is(-1L));
+    }
+
+    @Test
+    public void givenContainersShouldDecodeOnRead() {
+        Claims claims = claims();
+        assertThat(claims.getList("roles"), is(Arrays.asList("a", "b")));
+        assertThat(claims.getMap("org").get("id"), is("o1"));
+        assertThat(claims.getString("org"), is(nullValue()));
+        assertThat(claims.get("roles") == claims.get("roles"), is(true));
+    }
+
+    @Test
+    public void givenMapViewShouldMatchJackson() throws Exception {
+        Map expected = Json.mapper().readValue(
+                SECRET.substring(SECRET.indexOf("{\"customerId\""), SECRET.indexOf(",\"context\"")), Map.class);
+        assertThat(claims().asMap(), is(expected));
+        assertThat(claims().names(), is(expected.keySet()));
+    }
+
+    @Test
+    public void givenMapShouldReadThrough() {
+        Claims claims = Claims.of(Collections.singletonMap("customerId", "c1"));
+        assertThat(claims.getString("customerId"), is("c1"));
+        assertThat(Claims.EMPTY.asMap().isEmpty(), is(true));
+    }
+
+    @Test
+    public void givenRepeatedAssertionShouldRejectAsMalformed() {
+        String json = "{\"customerId\":\"c1\",\"customerId\":\"c2\"}";
+        try {
+            Claims.of(json, 0, json.length()).getString("customerId");
+            fail("read a repeated assertion");
+        } catch (JwtValidationException e) {
+            assertThat(e.getReason(), is(RejectReason.MALFORMED_TOKEN));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void givenMapViewShouldBeReadOnly() {
+        claims().asMap().put("customerId", "c2");
+    }
+}
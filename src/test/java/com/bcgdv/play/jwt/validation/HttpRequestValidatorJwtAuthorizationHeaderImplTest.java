@@ -0,0 +1,180 @@
+package com.bcgdv.play.jwt.validation;
+
+import akka.stream.Materializer;
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.AuthorizationHeaderJwtInterceptorFilter;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.metrics.SecurityMetrics;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.SecurityLog;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import scala.concurrent.ExecutionContext$;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.mvc.Results.ok;
+
+/**
+ * Cold keys must be fetched off the calling thread and resumed on play's dispatcher, anonymous routes must
+ * pass without a hop, and requests must be refused when the validation pool is saturated.
+ */
+public class HttpRequestValidatorJwtAuthorizationHeaderImplTest {
+
+    protected SecurityExecutors securityExecutors;
+
+    @After
+    public void shutdown() {
+        if (securityExecutors != null) {
+            securityExecutors.shutdown();
+        }
+        System.clearProperty(Settings.VALIDATION_THREADS);
+        System.clearProperty(Settings.VALIDATION_QUEUE_SIZE);
+    }
+
+    protected static RouteSecurityIndex index() {
+        return new RouteSecurityIndex.Builder()
+                .secureMethod(TokenFixture.CONTROLLER, "list", new Token.Type[]{Token.Type.SERVER})
+                .anonymousMethod(TokenFixture.CONTROLLER, "health")
+                .build();
+    }
+
+    protected HttpRequestValidatorJwtAuthorizationHeaderImpl validator(TokenFixture fixture) {
+        securityExecutors = new SecurityExecutors();
+        HttpRequestValidatorJwtAuthorizationHeaderImpl validator = new HttpRequestValidatorJwtAuthorizationHeaderImpl(
+                new JwtIntegrityValidationService(),
+                fixture.payloadValidationService(securityExecutors, new PublicKeyCache(securityExecutors)),
+                null, new NoopSecurityMetrics(), new SecurityLog(), securityExecutors);
+        validator.routeSecurityIndex = index();
+        return validator;
+    }
+
+    protected static Materializer materializer(Executor dispatcher) {
+        Materializer materializer = mock(Materializer.class);
+        when(materializer.executionContext()).thenReturn(ExecutionContext$.MODULE$.fromExecutor(dispatcher));
+        return materializer;
+    }
+
+    @Test
+    public void givenColdKeyShouldCompleteOffTheCallingThread() throws Exception {
+        TokenFixture fixture = new TokenFixture();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> fetchThread = new AtomicReference<>();
+        when(fixture.api.get(anyString())).thenAnswer(invocation -> {
+            fetchThread.set(Thread.currentThread());
+            release.await(5, TimeUnit.SECONDS);
+            return Json.newObject().put("key", fixture.encodedKey);
+        });
+        HttpRequestValidatorJwtAuthorizationHeaderImpl validator = validator(fixture);
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        try {
+            AtomicReference<Thread> nextThread = new AtomicReference<>();
+            AuthorizationHeaderJwtInterceptorFilter filter =
+                    new AuthorizationHeaderJwtInterceptorFilter(materializer(dispatcher), validator);
+            CompletableFuture<Result> result = filter.apply(rh -> {
+                nextThread.set(Thread.currentThread());
+                return CompletableFuture.completedFuture(ok());
+            }, TokenFixture.request("list", fixture.token())).toCompletableFuture();
+
+            assertThat(result.isDone(), is(false));
+            release.countDown();
+            assertThat(result.get(5, TimeUnit.SECONDS).status(), is(200));
+            assertThat(fetchThread.get() == Thread.currentThread(), is(false));
+            assertThat(nextThread.get() == fetchThread.get(), is(false));
+            assertThat(nextThread.get() == Thread.currentThread(), is(false));
+            verify(fixture.api, times(1)).get(anyString());
+        } finally {
+            release.countDown();
+            dispatcher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void givenAnonymousRouteShouldCompleteSynchronously() throws Exception {
+        TokenFixture fixture = new TokenFixture();
+        HttpRequestValidatorJwtAuthorizationHeaderImpl validator = validator(fixture);
+        Http.RequestHeader requestHeader = TokenFixture.request("health", null);
+
+        CompletableFuture<Optional<RejectReason>> rejectReason = validator.rejectReasonAsync(requestHeader).toCompletableFuture();
+        assertThat(rejectReason.isDone(), is(true));
+        assertThat(rejectReason.get().isPresent(), is(false));
+
+        AtomicReference<Thread> nextThread = new AtomicReference<>();
+        CompletableFuture<Result> result = new AuthorizationHeaderJwtInterceptorFilter(mock(Materializer.class), validator)
+                .apply(rh -> {
+                    nextThread.set(Thread.currentThread());
+                    return CompletableFuture.completedFuture(ok());
+                }, requestHeader)
+                .toCompletableFuture();
+        assertThat(result.isDone(), is(true));
+        assertThat(nextThread.get() == Thread.currentThread(), is(true));
+        verify(fixture.api, times(0)).get(anyString());
+    }
+
+    @Test
+    public void givenSaturatedPoolShouldRefuseAsOverloaded() throws Exception {
+        System.setProperty(Settings.VALIDATION_THREADS, "1");
+        System.setProperty(Settings.VALIDATION_QUEUE_SIZE, "1");
+        securityExecutors = new SecurityExecutors();
+        SecurityMetrics securityMetrics = mock(SecurityMetrics.class);
+        HttpRequestValidatorJwtAuthorizationHeaderImpl validator = new HttpRequestValidatorJwtAuthorizationHeaderImpl(
+                mock(JwtIntegrityValidationService.class), mock(JwtPayloadValidationService.class), null,
+                securityMetrics, new SecurityLog(), securityExecutors);
+        validator.routeSecurityIndex = index();
+        ArgumentCaptor<LongSupplier> queueDepth = ArgumentCaptor.forClass(LongSupplier.class);
+        verify(securityMetrics).registerGauge(eq(HttpRequestValidatorJwtAuthorizationHeaderImpl.VALIDATION_QUEUE_DEPTH),
+                queueDepth.capture());
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Executor pool = securityExecutors.validation();
+        try {
+            pool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await(5, TimeUnit.SECONDS);
+            pool.execute(() -> { });
+            assertThat(queueDepth.getValue().getAsLong(), is(1L));
+
+            AuthorizationHeaderJwtInterceptorFilter filter =
+                    new AuthorizationHeaderJwtInterceptorFilter(mock(Materializer.class), validator, securityMetrics);
+            CompletableFuture<Result> result = filter.apply(
+                    rh -> CompletableFuture.completedFuture(ok()), TokenFixture.request("list", null))
+                    .toCompletableFuture();
+
+            assertThat(result.isDone(), is(true));
+            assertThat(result.get().status(), is(503));
+            verify(securityMetrics).recordRejected(RejectReason.OVERLOADED, Token.Type.NONE);
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.bcgdv.play.jwt.validation;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Garbage tokens must be rejected with the reason of the cheapest check they fail.
+ */
+public class JwtIntegrityValidationServiceTest {
+
+    protected static final String HEADER = "eyJhbGciOiJSUzI1NiJ9";
+    protected static final String PAYLOAD = Base64.getUrlEncoder().withoutPadding().encodeToString(
+            "{\"dateCreated\":1,\"expiryInMilliSeconds\":-1,\"secret\":\"s\"}".getBytes(StandardCharsets.UTF_8));
+
+    protected static RejectReason reasonOf(JwtIntegrityValidationService service, String token) {
+        try {
+            service.wellFormedToken(token);
+            fail("accepted " + token);
+            return null;
+        } catch (JwtValidationException e) {
+            return e.getReason();
+        }
+    }
+
+    @Test
+    public void givenWellFormedTokenShouldParse() {
+        JwtIntegrityValidationService service = new JwtIntegrityValidationService();
+        assertThat(service.wellFormedToken(HEADER + "." + PAYLOAD + ".c2ln").getDateCreated(), is(1L));
+    }
+
+    @Test
+    public void givenLongTokenShouldRejectBeforeScanning() {
+        JwtIntegrityValidationService service = new JwtIntegrityValidationService();
+        service.maxTokenLength = 16;
+        assertThat(reasonOf(service, "a.b.c.d.e.f.g.h.i"), is(RejectReason.TOKEN_TOO_LARGE));
+    }
+
+    @Test
+    public void givenNoLimitShouldAcceptLongTokens() {
+        JwtIntegrityValidationService service = new JwtIntegrityValidationService();
+        service.maxTokenLength = 0;
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            signature.append('A');
+        }
+        assertThat(service.wellFormedToken(HEADER + "." + PAYLOAD + "." + signature).getDateCreated(), is(1L));
+    }
+
+    @Test
+    public void givenBadShapeOrAlphabetShouldRejectAsMalformed() {
+        JwtIntegrityValidationService service = new JwtIntegrityValidationService();
+        assertThat(reasonOf(service, HEADER + "." + PAYLOAD), is(RejectReason.MALFORMED_TOKEN));
+        assertThat(reasonOf(service, HEADER + "." + PAYLOAD + ".not base64!"), is(RejectReason.MALFORMED_TOKEN));
+    }
+}
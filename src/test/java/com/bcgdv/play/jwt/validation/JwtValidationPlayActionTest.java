@@ -0,0 +1,145 @@
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.Secure;
+import com.bcgdv.play.jwt.metrics.NoopSecurityMetrics;
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.SecurityLog;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import play.mvc.Action;
+import play.mvc.Http;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.mvc.Results.ok;
+
+/**
+ * Assertion validations that may block must run on a virtual thread with the request's http context, and the
+ * action must reuse the token the filter decrypted.
+ */
+public class JwtValidationPlayActionTest {
+
+    protected SecurityExecutors securityExecutors;
+
+    @After
+    public void shutdown() {
+        if (securityExecutors != null) {
+            securityExecutors.shutdown();
+        }
+        System.clearProperty(Settings.VIRTUAL_THREADS);
+    }
+
+    protected SecurityExecutors virtualThreads() {
+        System.setProperty(Settings.VIRTUAL_THREADS, "true");
+        securityExecutors = new SecurityExecutors();
+        Assume.assumeTrue(securityExecutors.virtualThreads() != null);
+        return securityExecutors;
+    }
+
+    protected static JwtValidationPlayAction action(AssertionValidator validator, SecurityExecutors securityExecutors) {
+        JwtValidationPlayAction action = new JwtValidationPlayAction(
+                null, validator, new NoopSecurityMetrics(), new SecurityLog(), securityExecutors);
+        Secure secure = mock(Secure.class);
+        when(secure.value()).thenReturn(new Token.Type[]{Token.Type.USER});
+        action.configuration = secure;
+        return action;
+    }
+
+    protected static Http.Context context() {
+        Http.Context context = mock(Http.Context.class);
+        when(context.request()).thenReturn(mock(Http.Request.class));
+        return context;
+    }
+
+    @Test
+    public void givenSynchronousChainShouldValidateOnVirtualThread() throws Exception {
+        Recording recording = new Recording();
+        JwtValidationPlayAction action = action(
+                new AssertionValidatorImpl(Collections.<AssertionValidation>singletonList(recording)), virtualThreads());
+        Http.Context context = context();
+
+        assertThat(action.validateAssertions(Token.Type.USER, Claims.EMPTY, context).get(5, TimeUnit.SECONDS), is(true));
+        assertThat(SignatureEngines.isVirtual(recording.thread), is(true));
+        assertThat(recording.context, is(sameInstance(context)));
+    }
+
+    @Test
+    public void givenAsynchronousChainShouldValidateInline() throws Exception {
+        AsyncAssertionValidation async = (annotatedTokens, requestTokenType, requestAssertions, request) ->
+                CompletableFuture.completedFuture(true);
+        List<AsyncAssertionValidation> validations = Collections.singletonList(async);
+        JwtValidationPlayAction action = action(new AssertionValidatorImpl(
+                Collections.<AssertionValidation>emptyList(), validations, null), virtualThreads());
+
+        assertThat(action.virtualThreads, is(nullValue()));
+        assertThat(action.validateAssertions(Token.Type.USER, Claims.EMPTY, context()).isDone(), is(true));
+    }
+
+    @Test
+    public void givenTokenValidatedByFilterShouldDecryptOnceForFilterAndAction() throws Exception {
+        TokenFixture fixture = new TokenFixture();
+        securityExecutors = new SecurityExecutors();
+        PublicKeyCache publicKeyCache = new PublicKeyCache(securityExecutors);
+        publicKeyCache.addKey(TokenFixture.CONTEXT, fixture.encodedKey);
+        JwtPayloadValidationService payloadValidationService =
+                fixture.payloadValidationService(securityExecutors, publicKeyCache);
+        HttpRequestValidatorJwtAuthorizationHeaderImpl validator = new HttpRequestValidatorJwtAuthorizationHeaderImpl(
+                new JwtIntegrityValidationService(), payloadValidationService, null,
+                new NoopSecurityMetrics(), new SecurityLog(), securityExecutors);
+        validator.routeSecurityIndex = HttpRequestValidatorJwtAuthorizationHeaderImplTest.index();
+        String token = fixture.token();
+
+        assertThat(validator.rejectReasonAsync(TokenFixture.request("list", token))
+                .toCompletableFuture().get(5, TimeUnit.SECONDS).isPresent(), is(false));
+
+        JwtValidationPlayAction action = new JwtValidationPlayAction(
+                payloadValidationService, new AssertionValidatorImpl(new Recording()));
+        Secure secure = mock(Secure.class);
+        when(secure.value()).thenReturn(new Token.Type[]{Token.Type.SERVER});
+        action.configuration = secure;
+        Http.Request request = mock(Http.Request.class);
+        when(request.headers()).thenReturn(TokenFixture.headers(token));
+        Http.Context context = mock(Http.Context.class);
+        when(context.request()).thenReturn(request);
+        context.args = new HashMap<>();
+        Action delegate = mock(Action.class);
+        when(delegate.call(context)).thenReturn(CompletableFuture.completedFuture(ok()));
+        action.delegate = delegate;
+
+        assertThat(action.call(context).toCompletableFuture().get(5, TimeUnit.SECONDS).status(), is(200));
+        verify(fixture.cipher, times(1)).decrypt(anyString());
+    }
+
+    /**
+     * Remembers the thread and http context it ran with
+     */
+    protected static class Recording implements AssertionValidation {
+        protected volatile Thread thread;
+        protected volatile Http.Context context;
+
+        @Override
+        public boolean with(Token.Type[] annotatedTokens, Token.Type requestTokenType, Map requestAssertions, Http.Request request) {
+            thread = Thread.currentThread();
+            context = Http.Context.current.get();
+            return true;
+        }
+    }
+}
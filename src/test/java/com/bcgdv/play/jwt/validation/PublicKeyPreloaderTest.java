@@ -0,0 +1,57 @@
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.play.jwt.model.Settings;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.services.Api;
+import org.junit.Test;
+import play.libs.Json;
+
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A context that failed to preload must still be fetched on first use once the failure backoff passed.
+ */
+public class PublicKeyPreloaderTest {
+
+    protected static final String CONTEXT = "http://preload.local/api";
+
+    @Test
+    public void givenFailedPreloadShouldFetchOnFirstUse() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        String encodedKey = Base64.getEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded());
+        Api api = mock(Api.class);
+        when(api.get(anyString()))
+                .thenThrow(new IllegalStateException("pubkey endpoint down"))
+                .thenReturn(Json.newObject().put("key", encodedKey));
+        System.setProperty(Settings.KEY_FAILURE_BACKOFF_MS, "100");
+        SecurityExecutors securityExecutors = new SecurityExecutors();
+        PublicKeyCache publicKeyCache = new PublicKeyCache(securityExecutors);
+        PublicKeyPreloader preloader = new PublicKeyPreloader(api, publicKeyCache, securityExecutors);
+
+        try {
+            preloader.preload(null, Collections.singletonList(CONTEXT), 5000);
+            assertThat(preloader.getLoadedCount(), is(0));
+            Thread.sleep(200);
+
+            assertThat(preloader.signatureValidationService.fetchCachedPublicKey(CONTEXT), is(notNullValue()));
+            assertThat(publicKeyCache.getRateLimitedFetchCount(), is(0L));
+            verify(api, times(2)).get(anyString());
+        } finally {
+            securityExecutors.shutdown();
+            System.clearProperty(Settings.KEY_FAILURE_BACKOFF_MS);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.Anonymous;
+import com.bcgdv.play.jwt.Secure;
+import com.bcgdv.play.jwt.model.AnnotationInfo;
+import com.bcgdv.play.jwt.model.RoutePolicy;
+import com.bcgdv.play.jwt.util.RouteSecurityIndex;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Route policy lookups must resolve the same way as JwtAnnotationHelper did.
+ */
+public class RouteSecurityIndexTest {
+
+    public static class Controller {
+
+        @Secure({Token.Type.CLIENT, Token.Type.NONE})
+        public void secured() {
+        }
+
+        @Anonymous
+        public void open() {
+        }
+
+        @Secure({Token.Type.SERVER})
+        @Anonymous
+        public void both() {
+        }
+    }
+
+    protected RouteSecurityIndex index() throws Exception {
+        return RouteSecurityIndex.of(new AnnotationInfo(
+                new AnnotationInfo.Anonymous(
+                        Sets.newHashSet(),
+                        Sets.newHashSet(
+                                Controller.class.getMethod("open"),
+                                Controller.class.getMethod("both"))),
+                new AnnotationInfo.Secure(
+                        Sets.newHashSet(),
+                        Sets.newHashSet(
+                                Controller.class.getMethod("secured"),
+                                Controller.class.getMethod("both")))));
+    }
+
+    @Test
+    public void givenSecureMethodShouldAcceptAnnotatedTokensOnly() throws Exception {
+        RoutePolicy policy = index().lookup(Controller.class.getName(), "secured");
+        assertThat(policy.getDecision(), is(RoutePolicy.Decision.SECURE));
+        assertThat(policy.accepts(Token.Type.CLIENT), is(true));
+        assertThat(policy.accepts("CLIENT"), is(true));
+        assertThat(policy.accepts(Token.Type.SERVER), is(false));
+        assertThat(policy.accepts(Token.Type.NONE), is(false));
+    }
+
+    @Test
+    public void givenAnonymousMethodShouldBeAnonymous() throws Exception {
+        assertThat(index().lookup(Controller.class.getName(), "open").isAnonymous(), is(true));
+    }
+
+    @Test
+    public void givenAnonymousAndSecureMethodAnonymousShouldWin() throws Exception {
+        assertThat(index().lookup(Controller.class.getName(), "both").isAnonymous(), is(true));
+    }
+
+    @Test
+    public void givenUnknownRouteShouldBeUnannotated() throws Exception {
+        assertThat(index().lookup(Controller.class.getName(), "missing"), sameInstance(RoutePolicy.UNANNOTATED));
+        assertThat(index().lookup("Test", "test"), sameInstance(RoutePolicy.UNANNOTATED));
+    }
+
+    @Test
+    public void givenAnonymousClassShouldCoverAllMethods() throws Exception {
+        RouteSecurityIndex index = RouteSecurityIndex.of(new AnnotationInfo(
+                new AnnotationInfo.Anonymous(Sets.newHashSet(Controller.class), Sets.newHashSet()),
+                new AnnotationInfo.Secure(Sets.newHashSet(), Sets.newHashSet(Controller.class.getMethod("secured")))));
+
+        assertThat(index.lookup(Controller.class.getName(), "secured").isAnonymous(), is(true));
+    }
+}
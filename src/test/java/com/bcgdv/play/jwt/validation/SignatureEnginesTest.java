@@ -0,0 +1,107 @@
+package com.bcgdv.play.jwt.validation;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Signatures must verify like jjwt verifies them, and exp and nbf must be enforced like jjwt enforces them.
+ */
+public class SignatureEnginesTest {
+
+    protected static KeyPair keyPair;
+
+    @BeforeClass
+    public static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    protected static String token(SignatureAlgorithm algorithm) {
+        return token(algorithm, "{\"dateCreated\":1}");
+    }
+
+    protected static String token(SignatureAlgorithm algorithm, String payload) {
+        return Jwts.builder().setPayload(payload).signWith(algorithm, keyPair.getPrivate()).compact();
+    }
+
+    protected static void assertRejected(String token) {
+        try {
+            JwtUtil.validateSignatureWithKey(token, keyPair.getPublic());
+            fail("accepted " + token);
+        } catch (JwtValidationException e) {
+            assertThat(e.getReason(), is(RejectReason.BAD_SIGNATURE));
+        }
+    }
+
+    @Test
+    public void givenExpiredTokenShouldRejectLikeJjwt() {
+        long now = System.currentTimeMillis() / 1000;
+        assertRejected(token(SignatureAlgorithm.RS256, "{\"dateCreated\":1,\"exp\":" + (now - 60) + "}"));
+        JwtUtil.validateSignatureWithKey(
+                token(SignatureAlgorithm.RS256, "{\"dateCreated\":1,\"exp\":" + (now + 60) + "}"), keyPair.getPublic());
+    }
+
+    @Test
+    public void givenNotYetValidTokenShouldRejectLikeJjwt() {
+        long now = System.currentTimeMillis() / 1000;
+        assertRejected(token(SignatureAlgorithm.RS256, "{\"dateCreated\":1,\"nbf\":" + (now + 60) + "}"));
+        JwtUtil.validateSignatureWithKey(
+                token(SignatureAlgorithm.RS256, "{\"dateCreated\":1,\"nbf\":" + (now - 60) + "}"), keyPair.getPublic());
+    }
+
+    @Test
+    public void givenNoTimeClaimsShouldVerifyWithEngines() {
+        assertThat(JwtUtil.hasTimeClaims(TokenView.of(token(SignatureAlgorithm.RS256))), is(false));
+        assertThat(JwtUtil.hasTimeClaims(TokenView.of(token(SignatureAlgorithm.RS256, "{\"exp\":1}"))), is(true));
+        JwtUtil.validateSignatureWithKey(token(SignatureAlgorithm.RS256), keyPair.getPublic());
+    }
+
+    @Test
+    public void givenRsaTokensShouldVerify() throws Exception {
+        for (SignatureAlgorithm algorithm : new SignatureAlgorithm[]{SignatureAlgorithm.RS256, SignatureAlgorithm.RS384, SignatureAlgorithm.RS512}) {
+            TokenView view = TokenView.of(token(algorithm));
+            assertThat(SignatureEngines.supports(algorithm.getValue(), keyPair.getPublic()), is(true));
+            assertThat(SignatureEngines.verify(algorithm.getValue(), view, keyPair.getPublic()), is(true));
+        }
+    }
+
+    @Test
+    public void givenTamperedPayloadShouldNotVerify() throws Exception {
+        String token = token(SignatureAlgorithm.RS256);
+        int dot = token.indexOf('.');
+        String tampered = token.substring(0, dot + 1) + "eyJkYXRlQ3JlYXRlZCI6Mn0" + token.substring(token.lastIndexOf('.'));
+        assertThat(SignatureEngines.verify("RS256", TokenView.of(tampered), keyPair.getPublic()), is(false));
+    }
+
+    @Test
+    public void givenOtherAlgorithmsShouldNotSupport() {
+        assertThat(SignatureEngines.supports("HS256", keyPair.getPublic()), is(false));
+        assertThat(SignatureEngines.supports("none", keyPair.getPublic()), is(false));
+        assertThat(SignatureEngines.supports("RS256", keyPair.getPrivate()), is(false));
+    }
+
+    @Test
+    public void givenPlatformThreadShouldKeepEnginesPerThread() throws Exception {
+        assertThat(SignatureEngines.isVirtual(Thread.currentThread()), is(false));
+        assertThat(SignatureEngines.STRIPES.length() & (SignatureEngines.STRIPES.length() - 1), is(0));
+    }
+
+    @Test(expected = JwtValidationException.class)
+    public void givenWrongAlgorithmInHeaderShouldReject() {
+        String token = token(SignatureAlgorithm.RS256);
+        String header = Base64.getUrlEncoder().withoutPadding().encodeToString("{\"alg\":\"RS512\"}".getBytes(StandardCharsets.UTF_8));
+        JwtUtil.validateSignatureWithKey(header + token.substring(token.indexOf('.')), keyPair.getPublic());
+    }
+}
@@ -0,0 +1,115 @@
+package com.bcgdv.play.jwt.validation;
+
+import com.bcgdv.jwt.models.Token;
+import com.bcgdv.play.jwt.util.PublicKeyCache;
+import com.bcgdv.play.jwt.util.SecurityExecutors;
+import com.bcgdv.play.jwt.util.TokenContextStore;
+import com.bcgdv.play.jwt.util.VerifiedTokenCache;
+import com.bcgdv.play.services.Api;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.net.HttpHeaders;
+import com.simonmittag.cryptoutils.SimpleCipher;
+import com.simonmittag.cryptoutils.symmetric.CipherFactory;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import play.libs.Json;
+import play.mvc.Http;
+import play.routing.Router;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Signed and encrypted server tokens, with a mocked Api serving the matching public key.
+ */
+public class TokenFixture {
+
+    public static final String CONTEXT = "http://fixture.local/api";
+    public static final String CONTROLLER = "controllers.Orders";
+
+    protected final KeyPair keyPair;
+    protected final String encodedKey;
+    protected final SimpleCipher cipher = spy(CipherFactory.getInstance());
+    protected final Api api = mock(Api.class);
+
+    public TokenFixture() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        encodedKey = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+        when(api.get(anyString())).thenReturn(Json.newObject().put("key", encodedKey));
+    }
+
+    /**
+     * A signed server token for CONTEXT
+     *
+     * @return the raw token
+     */
+    public String token() {
+        ObjectNode secret = Json.newObject();
+        secret.put(Token.Fields.tokenType.toString(), Token.Type.SERVER.toString());
+        secret.put(Token.Fields.context.toString(), CONTEXT);
+        secret.putObject(Token.Fields.assertions.toString()).put("customerId", "42");
+
+        ObjectNode payload = Json.newObject();
+        payload.put(Token.Fields.dateCreated.toString(), System.currentTimeMillis());
+        payload.put(Token.Fields.expiryInMilliSeconds.toString(), 60L * 60 * 1000);
+        payload.put(Token.Fields.secret.toString(), cipher.encrypt(Json.stringify(secret)));
+
+        return Jwts.builder()
+                .setPayload(Json.stringify(payload))
+                .signWith(SignatureAlgorithm.RS256, keyPair.getPrivate())
+                .compact();
+    }
+
+    /**
+     * A payload validation service with its own caches, talking to the mocked Api
+     *
+     * @param securityExecutors executors for key fetches
+     * @param publicKeyCache    the key cache
+     * @return the service
+     */
+    public JwtPayloadValidationService payloadValidationService(SecurityExecutors securityExecutors,
+                                                                PublicKeyCache publicKeyCache) {
+        return new JwtPayloadValidationService(api, cipher, publicKeyCache, new TokenContextStore(),
+                new VerifiedTokenCache(), securityExecutors);
+    }
+
+    /**
+     * Headers carrying a token
+     *
+     * @param token the raw token
+     * @return the headers
+     */
+    public static Map<String, String[]> headers(String token) {
+        Map<String, String[]> headers = new HashMap<>();
+        headers.put(HttpHeaders.AUTHORIZATION, new String[]{token});
+        return headers;
+    }
+
+    /**
+     * A request for a method of CONTROLLER
+     *
+     * @param method the controller method
+     * @param token  the raw token, null for none
+     * @return the request header
+     */
+    public static Http.RequestHeader request(String method, String token) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put(Router.Tags.ROUTE_CONTROLLER, CONTROLLER);
+        tags.put(Router.Tags.ROUTE_ACTION_METHOD, method);
+        Http.RequestHeader requestHeader = mock(Http.RequestHeader.class);
+        when(requestHeader.tags()).thenReturn(tags);
+        when(requestHeader.uri()).thenReturn("/orders/" + method);
+        when(requestHeader.headers()).thenReturn(token != null ? headers(token) : new HashMap<>());
+        return requestHeader;
+    }
+}
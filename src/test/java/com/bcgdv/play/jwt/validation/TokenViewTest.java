@@ -0,0 +1,75 @@
+package com.bcgdv.play.jwt.validation;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Token segments must be found and decoded like split and java.util.Base64 did.
+ */
+public class TokenViewTest {
+
+    protected static final String HEADER = "eyJhbGciOiJSUzI1NiJ9";
+    protected static final String PAYLOAD = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("{\"dateCreated\":1,\"secret\":\"s?>\"}".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    public void givenThreeSegmentsShouldFindOffsets() {
+        String token = HEADER + "." + PAYLOAD + ".c2ln";
+        TokenView view = TokenView.of(token);
+        assertThat(token.substring(view.getPayloadStart(), view.getPayloadEnd()), is(PAYLOAD));
+        assertThat(token.substring(view.getSignatureStart()), is("c2ln"));
+        assertThat(view.getSigningInputLength(), is(HEADER.length() + 1 + PAYLOAD.length()));
+        assertThat(view.isBase64(), is(true));
+    }
+
+    @Test
+    public void givenMissingOrExtraSegmentsShouldNotScan() {
+        assertThat(TokenView.scan("a.b"), is(nullValue()));
+        assertThat(TokenView.scan("a.b.c.d"), is(nullValue()));
+        assertThat(TokenView.scan(".b.c"), is(nullValue()));
+        assertThat(TokenView.scan("a..c"), is(nullValue()));
+        assertThat(TokenView.scan("a.b."), is(nullValue()));
+        assertThat(TokenView.scan(null), is(nullValue()));
+    }
+
+    @Test(expected = JwtValidationException.class)
+    public void givenMalformedTokenShouldThrow() {
+        TokenView.of("not-a-token");
+    }
+
+    @Test
+    public void givenAnyAlphabetAndPaddingShouldDecodeLikeJdk() {
+        for (int length = 0; length < 40; length++) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 37 + 251);
+            }
+            String standard = Base64.getEncoder().encodeToString(bytes);
+            String url = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            assertArrayEquals(bytes, TokenView.decode(standard, 0, standard.length()));
+            assertArrayEquals(bytes, TokenView.decode(url, 0, url.length()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenIllegalCharacterShouldNotDecode() {
+        TokenView.decode("ab*d", 0, 4);
+    }
+
+    @Test
+    public void givenSigningInputShouldCopyAsciiBytes() {
+        String token = HEADER + "." + PAYLOAD + ".c2ln";
+        TokenView view = TokenView.of(token);
+        byte[] dst = new byte[view.getSigningInputLength() + 2];
+        view.copySigningInput(dst, 2);
+        assertThat(new String(dst, 2, view.getSigningInputLength(), StandardCharsets.US_ASCII),
+                is(HEADER + "." + PAYLOAD));
+    }
+}